@@ -2,6 +2,9 @@ package com.ardic.iot.myandroidthingsproject;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 
@@ -16,14 +19,46 @@ import com.ardic.android.iotignite.nodes.IotIgniteManager;
 import com.ardic.android.iotignite.nodes.Node;
 import com.ardic.android.iotignite.things.Thing;
 import com.ardic.android.iotignite.things.ThingActionData;
+import com.ardic.android.iotignite.things.ThingConfiguration;
 import com.ardic.android.iotignite.things.ThingData;
 import com.ardic.android.iotignite.things.ThingType;
+import com.ardic.iot.myandroidthingsproject.action.ActionRouter;
+import com.ardic.iot.myandroidthingsproject.action.SwitchHandler;
+import com.ardic.iot.myandroidthingsproject.aggregation.WindowResult;
+import com.ardic.iot.myandroidthingsproject.gpio.ButtonEdgePipeline;
+import com.ardic.iot.myandroidthingsproject.gpio.ButtonInputMode;
+import com.ardic.iot.myandroidthingsproject.gpio.LatencyProbe;
+import com.ardic.iot.myandroidthingsproject.inventory.ThingInventory;
+import com.ardic.iot.myandroidthingsproject.metrics.Counter;
+import com.ardic.iot.myandroidthingsproject.metrics.LatencyHistogram;
+import com.ardic.iot.myandroidthingsproject.metrics.MetricsRegistry;
+import com.ardic.iot.myandroidthingsproject.reconnect.ExponentialBackoffPolicy;
+import com.ardic.iot.myandroidthingsproject.reconnect.ReconnectPolicy;
+import com.ardic.iot.myandroidthingsproject.reconnect.ReconnectStats;
+import com.ardic.iot.myandroidthingsproject.registration.RegistrationPipeline;
+import com.ardic.iot.myandroidthingsproject.registration.RegistrationSnapshot;
+import com.ardic.iot.myandroidthingsproject.sampling.SamplingScheduler;
+import com.ardic.iot.myandroidthingsproject.uplink.DeadbandFilter;
+import com.ardic.iot.myandroidthingsproject.uplink.OfflineJournal;
+import com.ardic.iot.myandroidthingsproject.uplink.ThingDataBatcher;
 import com.google.android.things.contrib.driver.button.Button;
 import com.google.android.things.contrib.driver.button.ButtonInputDriver;
 import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.PeripheralManagerService;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class IotIgniteHandler implements ConnectionCallback, NodeListener, ThingListener {
 
@@ -33,44 +68,69 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
 
     // Static singleton instance
     private static IotIgniteHandler INSTANCE = null;
-    private static final long IGNITE_RECONNECT_INTERVAL = 10000L;
 
     private static final String NODE_ID = "My Example Node";
     private static final String THING_ID = "My Example Thing";
+    private static final String SAMPLE_THING_TYPE = "My Sample Thing Type";
+    private static final String SAMPLE_THING_VENDOR = "My Sample Vendor";
 
 
     private IotIgniteManager mIotIgniteManager;
     private boolean igniteConnected = false;
     private Context appContext;
-    private Handler igniteWatchdog = new Handler();
 
-    private Node mySampleNode;
-    private Thing mySampleThing;
-
-    private ThingType sampleThingType = new ThingType(
-            /** Define Type of your Thing */
-            "My Sample Thing Type",
+    /**
+     * Ignite lifecycle, registration and all uplink sends run on this worker, never on the main Looper.
+     * Public calls only submit work here. Submissions are dropped when the queue is full.
+     */
+    private static final int MAX_PENDING_TASKS = 256;
+    private static final long SHUTDOWN_TIMEOUT = 3000L;
+    private HandlerThread igniteThread = startIgniteThread();
+    private Handler igniteWorker = new Handler(igniteThread.getLooper());
+    private AtomicInteger mPendingTasks = new AtomicInteger();
 
-            /** Set your things vendor. It's usefull if you are using real sensors
-             * This is important for seperating same sensor which different vendors.
-             * For example accelerometer sensor produced by Bosch data sampling is
-             * different than Samsung's.*/
-            "My Sample Vendor",
+    /**
+     * Durations of the IoT-Ignite SDK and GPIO calls on the hot paths, see MetricsRegistry.
+     */
+    private static final String IGNITE_CALL_SECONDS = "gateway_ignite_call_seconds";
+    private static final String IGNITE_CALL_HELP = "Duration of IoT-Ignite SDK calls.";
+    private MetricsRegistry mMetrics = MetricsRegistry.getDefault();
+    private LatencyHistogram mSendDataLatency = mMetrics.histogram(IGNITE_CALL_SECONDS, IGNITE_CALL_HELP, "call", "sendData");
+    private LatencyHistogram mRegisterLatency = mMetrics.histogram(IGNITE_CALL_SECONDS, IGNITE_CALL_HELP, "call", "register");
+    private LatencyHistogram mRebuildLatency = mMetrics.histogram(IGNITE_CALL_SECONDS, IGNITE_CALL_HELP, "call", "rebuildIgnite");
+    private LatencyHistogram mGpioWriteLatency = mMetrics.histogram("gateway_gpio_write_seconds",
+            "Duration of GPIO output writes.");
+    private Counter mSendDataFailures = mMetrics.counter("gateway_ignite_send_failures_total",
+            "sendData calls which returned false.");
+    private Counter mDroppedTasks = mMetrics.counter("gateway_ignite_dropped_tasks_total",
+            "Tasks dropped because the Ignite worker queue was full.");
+    private Counter mActionsReceived = mMetrics.counter("gateway_ignite_messages_total",
+            "Messages received from IoT-Ignite.", "type", "action");
+    private Counter mConfigurationsReceived = mMetrics.counter("gateway_ignite_messages_total",
+            "Messages received from IoT-Ignite.", "type", "configuration");
 
-            /** Set your things data type.
-             * IoT-Ignite works with data which type you have selected.
-             */
-            ThingDataType.INTEGER
-    );
+    /**
+     * Reconnect attempts are scheduled by a pluggable policy, exponential backoff with jitter by default.
+     */
+    private volatile ReconnectPolicy mReconnectPolicy = new ExponentialBackoffPolicy();
+    private ReconnectStats mReconnectStats = new ReconnectStats(mMetrics);
+    private int mReconnectAttempt;
+    private boolean mWatchdogScheduled;
 
     private Runnable igniteWatchdogRunnable = new Runnable() {
         @Override
         public void run() {
 
+            mWatchdogScheduled = false;
             if (!igniteConnected) {
+                mReconnectAttempt++;
+                mReconnectStats.onAttempt();
                 rebuildIgnite();
-                igniteWatchdog.postDelayed(this, IGNITE_RECONNECT_INTERVAL);
-                Log.e(TAG, "Ignite is not connected trying to reconnect...");
+                long delay = mReconnectPolicy.nextDelay(mReconnectAttempt + 1);
+                igniteWorker.postDelayed(this, delay);
+                mWatchdogScheduled = true;
+                Log.e(TAG, "Ignite is not connected trying to reconnect... attempt " + mReconnectAttempt
+                        + ", next in " + delay + "ms");
             } else {
                 Log.e(TAG, "Ignite is already connected");
             }
@@ -85,178 +145,393 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
     private static final String LED_THING_ID = "Led";
     private static final String BTN_THING_ID = "Button";
 
-    private Node androidThingsNode;
-    private Thing mLedThing;
-    private Thing mButtonThing;
-
-    private ThingType mLedThingType = new ThingType("LED", "Raspberry Pi 3 GPIO", ThingDataType.INTEGER);
-    private ThingType mBtnThingType = new ThingType("BUTTON", "Raspberry Pi 3 GPIO", ThingDataType.INTEGER);
-
-    private PeripheralManagerService mPeripheralManagerService = new PeripheralManagerService();
-    private Gpio mLedGpio;
-    private ButtonInputDriver mButtonInputDriver;
+    private static final String LED_THING_TYPE = "LED";
+    private static final String BTN_THING_TYPE = "BUTTON";
+    private static final String GPIO_VENDOR = "Raspberry Pi 3 GPIO";
     private static final String LED_PIN = "BCM21";
     private static final String BTN_PIN = "BCM6";
 
+    /**
+     * Nodes and things registered on IoT-Ignite. Node and Thing objects are created when they
+     * are registered, lazy things on their first data. Bindings hold the opened Gpio,
+     * ButtonEdgePipeline or ButtonInputDriver of a thing and stay open across reconnects.
+     */
+    private volatile ThingInventory mInventory;
+    private volatile AtomicReferenceArray<Node> mNodes;
+    private volatile AtomicReferenceArray<Thing> mThings;
+    private volatile AtomicReferenceArray<Object> mBindings;
 
-    private IotIgniteHandler(Context context) {
-        this.appContext = context;
-    }
+    /**
+     * Window results of ESP sensors are forwarded through things of this node, one thing
+     * per ESP thing, created on first use. Only touched on the Ignite worker.
+     */
+    private static final String ESP_AGGREGATE_NODE_ID = "ESP Aggregates";
+    private static final String AGGREGATE_ID_SEPARATOR = "/";
+    private static final String AGGREGATE_THING_TYPE = "WINDOW AGGREGATE";
+    private static final String AGGREGATE_VENDOR = "Gateway";
+    private ThingType mAggregateThingType = new ThingType(AGGREGATE_THING_TYPE, AGGREGATE_VENDOR, ThingDataType.FLOAT);
+    private Node espAggregateNode;
+    private Map<String, Thing> mAggregateThings = new HashMap<>();
 
-    public static synchronized IotIgniteHandler getInstance(Context appContext) {
+    private PeripheralManagerService mPeripheralManagerService = new PeripheralManagerService();
+    private long mButtonDebounceMillis = ButtonEdgePipeline.DEFAULT_DEBOUNCE_MILLIS;
+    private volatile ButtonInputMode mButtonInputMode = ButtonInputMode.GPIO_CALLBACK;
 
-        if (INSTANCE == null) {
-            INSTANCE = new IotIgniteHandler(appContext);
+    /**
+     * In GPIO_CALLBACK mode button edges are debounced by the pipeline and drive the led and
+     * the button thing directly, without the Activity's key dispatch.
+     */
+    private ButtonEdgePipeline.Listener mButtonListener = new ButtonEdgePipeline.Listener() {
+        @Override
+        public void onButtonChanged(boolean pressed, long edgeNanos) {
+            setLed(pressed, edgeNanos);
+            setButtonState(pressed, edgeNanos);
         }
-        return INSTANCE;
-
-    }
-
-
-    public void start() {
-        startIgniteWatchdog();
-    }
+    };
 
-    @Override
-    public void onConnected() {
-        Log.i(TAG, "Ignite Connected");
-        // cancel watchdog //
-        igniteWatchdog.removeCallbacks(igniteWatchdogRunnable);
-        igniteConnected = true;
+    /**
+     * Edge to led and edge to sendData latency of both input modes.
+     * Oldest button edge which is not sent yet, 0 if none.
+     */
+    private LatencyProbe mLatencyProbe = new LatencyProbe(mMetrics);
+    private AtomicLong mUnsentButtonEdge = new AtomicLong();
 
-        Log.i(TAG, "Creating Node : " + NODE_ID);
+    /**
+     * Nodes are registered in parallel on this pool, things of a node in parallel after their node.
+     */
+    private static final int REGISTRATION_THREADS = 4;
+    private static final long REGISTRATION_TIMEOUT = 30000L;
+    private ExecutorService mRegistrationExecutor = Executors.newFixedThreadPool(REGISTRATION_THREADS);
 
-        mySampleNode = IotIgniteManager.NodeFactory.createNode(
-                /*Unique ID of Node*/
-                NODE_ID,
-                /* Node label could be unique or not.*/
-                NODE_ID,
-                /*Node Type is definition for node. If your node is really a physical device you can set as it is.
-                * Supported Node Types
-                * GENERIC : Default node type. If you dont want to do type based things this will works for you
-                * RASPBERRY_PI: Defines node as a Raspberry Pi.
-                * If your node is Raspberry Pi and you're going to do RasPi specific things choose this one. (RaspiCam etc.)
-                * ARDUINO_YUN:  Defines node as Arduino Yun. Use it for Arduino Yun specific things. (Bridge etc.)*/
-                NodeType.GENERIC,
-                /** Reserved for later uses. Pass null for now.*/
-                null,
-                /*Node Listener : Callback for node unregistration.Nodes can be unregistered from enterprise.iot-ignite.com remotely.
-                * If your node is unregistered from there -- not your code -- you will receive callback here. */
-                this
-        );
+    /**
+     * Content hashes of the entities registered in earlier sessions. Unchanged nodes and things
+     * are only marked connected on reconnect, register() is skipped.
+     */
+    private static final String REGISTRATION_SNAPSHOT_FILE = "registration.snapshot";
+    private RegistrationSnapshot mRegistrationSnapshot;
 
+    /**
+     * Led and button samples are collected here and sent as one multi-value ThingData
+     * per window instead of one message per edge.
+     */
+    private ThingDataBatcher mUplinkBatcher = new ThingDataBatcher(igniteWorker, new ThingDataBatcher.Sender() {
+        @Override
+        public boolean send(Thing thing, List<Object> values) {
+            return reportThingData(thing, values);
+        }
+    });
 
-        /**
-         * Check node object and register it.
-         */
-        registerNodeAndSetConnectionOnline(mySampleNode);
+    /**
+     * Report-by-exception in front of sendData. Led state and ESP aggregates are only sent
+     * when they change beyond their deadband, or as a heartbeat after a long silence.
+     */
+    private static final long HEARTBEAT_CHECK_INTERVAL = 30000L;
+    private static final DeadbandFilter.Config LED_DEADBAND = new DeadbandFilter.Config(0, 0, 5 * 60 * 1000L);
+    private static final DeadbandFilter.Config AGGREGATE_DEADBAND = new DeadbandFilter.Config(0, 1.0, 15 * 60 * 1000L);
+    private DeadbandFilter mDeadbandFilter = new DeadbandFilter();
 
-        if (mySampleNode != null && mySampleNode.isRegistered()) {
+    /**
+     * Opened GPIO things and registered drivers are polled on one timer thread at the data
+     * reading frequency of their ThingConfiguration. Things without one report only on change.
+     */
+    private SamplingScheduler mSamplingScheduler = new SamplingScheduler(new SamplingScheduler.Sink() {
+        @Override
+        public void onSample(String thingId, Object value) {
+            reportValue(thingId, value, false);
+        }
+    });
 
-            mySampleThing = mySampleNode.createThing(
+    /**
+     * Actions are routed by (node, thing), each thing on its own serial lane so an actuator
+     * applies its actions in order while different actuators run in parallel.
+     * Opened GPIO outputs are routed to setOutput() latest wins : of a burst of on / off actions
+     * only the newest pending one is written and reported, stale ones are dropped and counted.
+     */
+    private static final long ACTION_SHUTDOWN_TIMEOUT = 1000L;
+    private ActionRouter mActionRouter = new ActionRouter();
 
-                    /*Thing ID : Must be unique*/
-                    THING_ID,
+    private SwitchHandler mOutputActionHandler = new SwitchHandler() {
+        @Override
+        protected void onSwitch(String nodeId, String thingId, boolean on) throws IOException {
+            if (!setOutput(thingId, on)) {
+                throw new IOException("Output is not open : " + thingId);
+            }
+        }
+    };
 
-                    /*Define your thing type here. Use ThingType object.
-                    * Thing Type objects give information about what type of sensor/actuator you are using.*/
-                    sampleThingType,
+    private Runnable heartbeatRunnable = new Runnable() {
+        @Override
+        public void run() {
 
-                    /** You can categorize your thing. EXTERNAL, BUILTIN or UNDEFINED */
-                    ThingCategory.EXTERNAL,
+            if (igniteConnected) {
+                for (DeadbandFilter.Heartbeat heartbeat : mDeadbandFilter.dueHeartbeats(SystemClock.elapsedRealtime())) {
+                    Thing mThing = findThing(heartbeat.thingId);
+                    if (mThing != null) {
+                        sendOrJournalThingData(mThing, heartbeat.values);
+                    }
+                }
+            }
+            igniteWorker.postDelayed(this, HEARTBEAT_CHECK_INTERVAL);
+        }
+    };
 
-                    /**If your thing going to to same action for example opening something or triggering relay,
-                     * Set this true. When set it true your things can receive action messages over listener callback.
-                     * Otwervise if your thing is only generating data. Set this false.*/
-                    true,
+    /**
+     * Data which can not be sent while Ignite is disconnected is kept here
+     * and sent in order after the things are registered again.
+     */
+    private static final String OFFLINE_JOURNAL_DIR = "uplink-journal";
+    private static final long JOURNAL_RETRY_INTERVAL = 5000L;
+    private OfflineJournal mOfflineJournal;
 
-                    /** Thing Listener : Callback for thing objects. Listener has three callbacks:
-                     * - onConfigurationReceived() : Occurs when configuration setted by IoT-Ignite.
-                     * - onActionReceived(): If your thing set as actuator action message will handle here.
-                     * - onThingUnregistered(): If your thing unregister from IoT-Ignite you will receive this callback.*/
-                    this,
+    /**
+     * A failed send while connected leaves data in the journal, new data queues up behind it.
+     * Keep draining while connected until the journal is empty again.
+     */
+    private Runnable journalRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (igniteConnected) {
+                drainOfflineJournal();
+            }
+        }
+    };
 
-                    /** Reserved for later uses. Pass null for now. */
-                    null
-            );
+    private OfflineJournal.Consumer mOfflineJournalConsumer = new OfflineJournal.Consumer() {
+        @Override
+        public boolean accept(String thingId, List<Object> values) {
 
-            registerThingAndSetConnectionOnline(mySampleNode, mySampleThing);
+            Thing mThing = findThing(thingId);
+            if (mThing != null) {
+                return sendThingData(mThing, values);
+            }
+            if (mInventory.indexOf(thingId) < 0 && !thingId.contains(AGGREGATE_ID_SEPARATOR)) {
+                Log.w(TAG, "Dropping journaled data of thing removed from the inventory : " + thingId);
+                return true;
+            }
+            // Known but not registered yet, keep the data and retry on a later drain.
+            return false;
         }
+    };
 
 
-        // TODO: Register android things node here.
-
-        androidThingsNode = IotIgniteManager.NodeFactory.createNode(
-                ANDROID_THINGS_NODE_ID,
-                ANDROID_THINGS_NODE_ID,
-                NodeType.GENERIC,
-                null,
-                this
-        );
+    private IotIgniteHandler(Context context) {
+        this.appContext = context;
 
-        registerNodeAndSetConnectionOnline(androidThingsNode);
+        setInventory(defaultInventory());
+        mDeadbandFilter.configure(LED_THING_ID, LED_DEADBAND);
+        mRegistrationSnapshot = new RegistrationSnapshot(new File(context.getFilesDir(), REGISTRATION_SNAPSHOT_FILE));
 
+        try {
+            mOfflineJournal = new OfflineJournal(new File(context.getFilesDir(), OFFLINE_JOURNAL_DIR));
+        } catch (IOException e) {
+            Log.e(TAG, "Offline journal could not be opened, data will be lost while disconnected : " + e);
+        }
 
+        mMetrics.gauge("gateway_ignite_pending_tasks", "Tasks queued on the Ignite worker.", new MetricsRegistry.Gauge() {
+            @Override
+            public double value() {
+                return mPendingTasks.get();
+            }
+        });
+        mMetrics.gauge("gateway_ignite_connected", "1 while connected to IoT-Ignite.", new MetricsRegistry.Gauge() {
+            @Override
+            public double value() {
+                return igniteConnected ? 1 : 0;
+            }
+        });
+    }
 
-        if (androidThingsNode != null && androidThingsNode.isRegistered()) {
+    /**
+     * Nodes and things of this sample : the example node and the Android Things node with the
+     * led and the button on GPIO.
+     */
+    public static ThingInventory defaultInventory() {
 
-            mLedThing = androidThingsNode.createThing(LED_THING_ID, mLedThingType, ThingCategory.BUILTIN, true, this, null);
+        return ThingInventory.builder()
+                /*Node Type is definition for node. If your node is really a physical device you can set as it is.
+                * Supported Node Types
+                * GENERIC : Default node type. If you dont want to do type based things this will works for you
+                * RASPBERRY_PI: Defines node as a Raspberry Pi.
+                * If your node is Raspberry Pi and you're going to do RasPi specific things choose this one. (RaspiCam etc.)
+                * ARDUINO_YUN:  Defines node as Arduino Yun. Use it for Arduino Yun specific things. (Bridge etc.)*/
+                .node(NODE_ID, NodeType.GENERIC)
+                .thing(THING_ID,
+                        /** Define Type of your Thing */
+                        SAMPLE_THING_TYPE,
+                        /** Set your things vendor. It's usefull if you are using real sensors
+                         * This is important for seperating same sensor which different vendors.
+                         * For example accelerometer sensor produced by Bosch data sampling is
+                         * different than Samsung's.*/
+                        SAMPLE_THING_VENDOR,
+                        /** Set your things data type.
+                         * IoT-Ignite works with data which type you have selected.
+                         */
+                        ThingDataType.INTEGER,
+                        ThingCategory.EXTERNAL,
+                        /**If your thing going to to same action for example opening something or triggering relay,
+                         * Set this true. When set it true your things can receive action messages over listener callback.
+                         * Otwervise if your thing is only generating data. Set this false.*/
+                        true)
+                .node(ANDROID_THINGS_NODE_ID, NodeType.GENERIC)
+                .thing(LED_THING_ID, LED_THING_TYPE, GPIO_VENDOR, ThingDataType.INTEGER, ThingCategory.BUILTIN, true)
+                .gpioOutput(LED_PIN)
+                .thing(BTN_THING_ID, BTN_THING_TYPE, GPIO_VENDOR, ThingDataType.INTEGER, ThingCategory.BUILTIN, false)
+                .gpioInput(BTN_PIN)
+                .build();
+    }
 
-            registerThingAndSetConnectionOnline(androidThingsNode, mLedThing);
+    /**
+     * Replace the nodes and things to register. Call before start().
+     */
+    public void setInventory(ThingInventory inventory) {
+        mNodes = new AtomicReferenceArray<>(inventory.getNodeCount());
+        mThings = new AtomicReferenceArray<>(inventory.getThingCount());
+        mBindings = new AtomicReferenceArray<>(inventory.getThingCount());
+        mInventory = inventory;
+    }
 
-            if (mLedThing.isRegistered()) {
+    public ThingInventory getInventory() {
+        return mInventory;
+    }
 
+    public static synchronized IotIgniteHandler getInstance(Context appContext) {
 
-                try {
-                    mLedGpio = mPeripheralManagerService.openGpio(LED_PIN);
-                    mLedGpio.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-                } catch (IOException e) {
-                    Log.e(TAG, "IOException :" + e);
-                }
-            }
+        if (INSTANCE == null) {
+            INSTANCE = new IotIgniteHandler(appContext);
+        }
+        return INSTANCE;
 
+    }
 
-            //TODO:  Register button thing object here.
 
-            mButtonThing = androidThingsNode.createThing(
-                    BTN_THING_ID,
-                    mBtnThingType,
-                    ThingCategory.BUILTIN,
-                    false,
-                    this,
-                    null);
+    public void start() {
+        igniteWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                startIgniteWatchdog();
+                igniteWorker.removeCallbacks(heartbeatRunnable);
+                igniteWorker.postDelayed(heartbeatRunnable, HEARTBEAT_CHECK_INTERVAL);
+                mSamplingScheduler.start();
+                // Shut down by a previous shutdown() of this process wide handler.
+                mActionRouter.start();
+            }
+        });
+    }
 
-            registerThingAndSetConnectionOnline(androidThingsNode, mButtonThing);
+    @Override
+    public void onConnected() {
+        igniteWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                handleConnected();
+            }
+        });
+    }
 
+    private void handleConnected() {
+        Log.i(TAG, "Ignite Connected");
+        // cancel watchdog //
+        igniteWorker.removeCallbacks(igniteWatchdogRunnable);
+        mWatchdogScheduled = false;
+        igniteConnected = true;
 
-            // TODO: Use button input driver and register it to space key.
+        long reconnectTime = mReconnectStats.onConnected(SystemClock.elapsedRealtime());
+        if (reconnectTime >= 0) {
+            Log.i(TAG, "Reconnected in " + reconnectTime + "ms after " + mReconnectAttempt + " attempts, " + mReconnectStats);
+        }
+        // The backoff starts over only after a successful connection.
+        mReconnectAttempt = 0;
+
+        // Aggregate things of the previous session are recreated on demand.
+        espAggregateNode = null;
+        mAggregateThings.clear();
+
+        final ThingInventory inventory = mInventory;
+        RegistrationPipeline pipeline = new RegistrationPipeline(mRegistrationExecutor, mRegistrationSnapshot);
+
+        for (int n = 0; n < inventory.getNodeCount(); n++) {
+
+            final int node = n;
+            RegistrationPipeline.NodeEntry entry = pipeline.addNode(inventory.getNodeId(node),
+                    inventory.nodeDescriptor(node), new RegistrationPipeline.NodeStep() {
+                @Override
+                public Node create() {
+
+                    String nodeId = inventory.getNodeId(node);
+                    Log.i(TAG, "Creating Node : " + nodeId);
+
+                    Node mNode = IotIgniteManager.NodeFactory.createNode(
+                            /*Unique ID of Node*/
+                            nodeId,
+                            /* Node label could be unique or not.*/
+                            nodeId,
+                            inventory.getNodeType(node),
+                            /** Reserved for later uses. Pass null for now.*/
+                            null,
+                            /*Node Listener : Callback for node unregistration.Nodes can be unregistered from enterprise.iot-ignite.com remotely.
+                            * If your node is unregistered from there -- not your code -- you will receive callback here. */
+                            IotIgniteHandler.this
+                    );
+                    mNodes.set(node, mNode);
+                    return mNode;
+                }
+            });
 
-            if(mButtonThing.isRegistered()){
+            for (int t = inventory.getFirstThing(node); t < inventory.getFirstThing(node + 1); t++) {
 
-                try {
-                    mButtonInputDriver = new ButtonInputDriver(BTN_PIN, Button.LogicState.PRESSED_WHEN_LOW, KeyEvent.KEYCODE_SPACE);
-                    mButtonInputDriver.register();
-                } catch (IOException e) {
-                    Log.i(TAG,"IOException :" + e);
+                if (inventory.isLazy(t)) {
+                    // Created again on its first data.
+                    mThings.set(t, null);
+                    continue;
                 }
 
+                final int thing = t;
+                entry.addThing(inventory.getThingId(thing), inventory.thingDescriptor(thing), new RegistrationPipeline.ThingStep() {
+                    @Override
+                    public Thing create(Node node) {
+                        Thing mThing = createThing(inventory, thing, node);
+                        mThings.set(thing, mThing);
+                        return mThing;
+                    }
+
+                    @Override
+                    public void onRegistered(Thing mThing) {
+                        bind(inventory, thing);
+                        applyConfiguration(mThing);
+                    }
+                });
             }
+        }
 
-
-
-
-
+        try {
+            pipeline.run(REGISTRATION_TIMEOUT);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Registration interrupted : " + e);
+            Thread.currentThread().interrupt();
+            return;
         }
 
+        saveRegistrationSnapshot();
+        drainOfflineJournal();
 
     }
 
     @Override
     public void onDisconnected() {
-        Log.i(TAG, "Ignite Disconnected");
-        // start watchdog again here.
-        igniteConnected = false;
-        startIgniteWatchdog();
+        igniteWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "Ignite Disconnected");
+                // Repeated callbacks while disconnected must not restart the backoff.
+                if (igniteConnected) {
+                    igniteConnected = false;
+                    igniteWorker.removeCallbacks(journalRetryRunnable);
+                    mReconnectStats.onDisconnected(SystemClock.elapsedRealtime());
+                }
+                // start watchdog again here.
+                startIgniteWatchdog();
+            }
+        });
     }
 
     /**
@@ -264,6 +539,7 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
      */
 
     private void rebuildIgnite() {
+        long start = System.nanoTime();
         try {
             mIotIgniteManager = new IotIgniteManager.Builder()
                     .setConnectionListener(this)
@@ -271,22 +547,198 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
                     .build();
         } catch (UnsupportedVersionException e) {
             Log.e(TAG, "UnsupportedVersionException : " + e);
+        } finally {
+            mRebuildLatency.recordSince(start);
         }
     }
 
     /**
-     * remove previous callback and setup new watchdog
+     * Setup the watchdog unless it is already scheduled. The delay continues the backoff of
+     * the current outage.
      */
 
     private void startIgniteWatchdog() {
-        igniteWatchdog.removeCallbacks(igniteWatchdogRunnable);
-        igniteWatchdog.postDelayed(igniteWatchdogRunnable, IGNITE_RECONNECT_INTERVAL);
+        if (mWatchdogScheduled) {
+            return;
+        }
+        mWatchdogScheduled = true;
+        igniteWorker.postDelayed(igniteWatchdogRunnable, mReconnectPolicy.nextDelay(mReconnectAttempt + 1));
 
     }
 
-    @Override
-    public void onNodeUnregistered(String s) {
+    private Thing createThing(ThingInventory inventory, int thing, Node node) {
+
+        return node.createThing(
+                /*Thing ID : Must be unique*/
+                inventory.getThingId(thing),
+                /*Thing Type objects give information about what type of sensor/actuator you are using.*/
+                inventory.getThingType(thing),
+                /** You can categorize your thing. EXTERNAL, BUILTIN or UNDEFINED */
+                inventory.getCategory(thing),
+                /** Actuators receive action messages over the listener callback.*/
+                inventory.isActuator(thing),
+                /** Thing Listener : Callback for thing objects. Listener has three callbacks:
+                 * - onConfigurationReceived() : Occurs when configuration setted by IoT-Ignite.
+                 * - onActionReceived(): If your thing set as actuator action message will handle here.
+                 * - onThingUnregistered(): If your thing unregister from IoT-Ignite you will receive this callback.*/
+                IotIgniteHandler.this,
+                /** Reserved for later uses. Pass null for now. */
+                null
+        );
+    }
+
+    /**
+     * Open the hardware of a registered thing, unless it is still open from the previous session.
+     */
+    private void bind(ThingInventory inventory, int thing) {
+
+        if (mBindings.get(thing) != null) {
+            return;
+        }
+
+        String address = inventory.getBindingAddress(thing);
+        try {
+            switch (inventory.getBinding(thing)) {
+                case GPIO_OUTPUT:
+                    Gpio mGpio = mPeripheralManagerService.openGpio(address);
+                    mGpio.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+                    mBindings.set(thing, mGpio);
+                    mActionRouter.register(inventory.getNodeId(inventory.getNode(thing)),
+                            inventory.getThingId(thing), mOutputActionHandler, true);
+                    break;
+                case GPIO_INPUT:
+                    mBindings.set(thing, openInput(inventory.getThingId(thing), address));
+                    break;
+                default:
+                    // I2C drivers and unbound things report their data through the handler.
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "IOException :" + e);
+        }
+
+        SamplingScheduler.Sampler sampler = samplerOf(mBindings.get(thing));
+        if (sampler != null) {
+            mSamplingScheduler.setSampler(inventory.getThingId(thing), sampler);
+        }
+    }
+
+    /**
+     * Reads the current state of an opened binding, null if the binding can not be polled.
+     */
+    private static SamplingScheduler.Sampler samplerOf(final Object binding) {
+
+        if (binding instanceof Gpio) {
+            return new SamplingScheduler.Sampler() {
+                @Override
+                public Object sample(String thingId) throws IOException {
+                    return ((Gpio) binding).getValue() ? 1 : 0;
+                }
+            };
+        } else if (binding instanceof ButtonEdgePipeline) {
+            return new SamplingScheduler.Sampler() {
+                @Override
+                public Object sample(String thingId) {
+                    return ((ButtonEdgePipeline) binding).isPressed() ? 1 : 0;
+                }
+            };
+        }
+        // The key event driver has no readable state.
+        return null;
+    }
+
+    /**
+     * Poll an I2C or other driver thing at its configured frequency. The sampler runs on the
+     * sampling thread, its values are reported like reportValue().
+     */
+    public void registerSampler(String thingId, SamplingScheduler.Sampler sampler) {
+        mSamplingScheduler.setSampler(thingId, sampler);
+    }
+
+    /**
+     * Reschedule polling of the thing if it carries a configuration.
+     */
+    private void applyConfiguration(Thing mThing) {
+
+        ThingConfiguration configuration = mThing.getThingConfiguration();
+        if (configuration != null) {
+            mSamplingScheduler.schedule(mThing.getThingID(), configuration.getDataReadingFrequency());
+        }
+    }
+
+    /**
+     * The button drives the led, other inputs only report their state.
+     */
+    private Object openInput(final String thingId, String pin) throws IOException {
+
+        boolean button = BTN_THING_ID.equals(thingId);
+
+        if (button && mButtonInputMode == ButtonInputMode.KEY_EVENT) {
+            // Use button input driver and register it to space key.
+            ButtonInputDriver mDriver = new ButtonInputDriver(pin, Button.LogicState.PRESSED_WHEN_LOW, KeyEvent.KEYCODE_SPACE);
+            mDriver.register();
+            return mDriver;
+        }
+
+        ButtonEdgePipeline.Listener listener = button ? mButtonListener : new ButtonEdgePipeline.Listener() {
+            @Override
+            public void onButtonChanged(boolean pressed, long edgeNanos) {
+                reportValue(thingId, pressed ? 1 : 0, false);
+            }
+        };
+        ButtonEdgePipeline mPipeline = new ButtonEdgePipeline(mPeripheralManagerService, pin, mButtonDebounceMillis, listener);
+        mPipeline.open();
+        return mPipeline;
+    }
+
+    private void closeBinding(Object binding) {
+
+        try {
+            if (binding instanceof ButtonEdgePipeline) {
+                ((ButtonEdgePipeline) binding).close();
+            } else if (binding instanceof ButtonInputDriver) {
+                ((ButtonInputDriver) binding).unregister();
+                ((ButtonInputDriver) binding).close();
+            } else if (binding instanceof Gpio) {
+                ((Gpio) binding).close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing " + binding, e);
+        }
+    }
+
+    /**
+     * Descriptors of the registration snapshot, every argument of createNode / createThing
+     * which IoT-Ignite keeps.
+     */
+    private static String nodeDescriptor(String nodeId) {
+        return RegistrationSnapshot.descriptor(nodeId, nodeId, NodeType.GENERIC);
+    }
+
+    private static String thingDescriptor(String thingId, String type, String vendor, ThingDataType dataType,
+                                          ThingCategory category, boolean actuator) {
+        return RegistrationSnapshot.descriptor(thingId, type, vendor, dataType, category, actuator);
+    }
+
+    private void saveRegistrationSnapshot() {
+        try {
+            mRegistrationSnapshot.save();
+        } catch (IOException e) {
+            Log.e(TAG, "Registration snapshot could not be saved : " + e);
+        }
+    }
 
+    @Override
+    public void onNodeUnregistered(final String s) {
+
+        // Register the node and its things again on the next connect.
+        mRegistrationSnapshot.removeNode(s);
+        igniteWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                saveRegistrationSnapshot();
+            }
+        });
     }
 
     /**
@@ -297,37 +749,63 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
 
     public void shutdown() {
 
-        setNodeConnection(mySampleNode, false, ON_DESTROY_MSG);
-        setThingConnection(mySampleThing, false, ON_DESTROY_MSG);
-        setNodeConnection(androidThingsNode, false, ON_DESTROY_MSG);
-        setThingConnection(mButtonThing, false, ON_DESTROY_MSG);
-        setThingConnection(mLedThing, false, ON_DESTROY_MSG);
-
-        if (mButtonInputDriver != null) {
+        final CountDownLatch done = new CountDownLatch(1);
 
-            mButtonInputDriver.unregister();
+        igniteWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    shutdownOnWorker();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
 
-            try {
-                mButtonInputDriver.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing Button driver", e);
-            } finally {
-                mButtonInputDriver = null;
+        try {
+            if (!done.await(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Ignite worker did not finish shutdown in time");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        if (mLedGpio != null) {
+    private void shutdownOnWorker() {
 
-            try {
-                mLedGpio.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing led gpio", e);
-            } finally {
-                mLedGpio = null;
-            }
+        igniteWorker.removeCallbacks(igniteWatchdogRunnable);
+        mWatchdogScheduled = false;
+        igniteWorker.removeCallbacks(heartbeatRunnable);
+        igniteWorker.removeCallbacks(journalRetryRunnable);
+        mUplinkBatcher.flushAll();
+        Log.i(TAG, "Report by exception : " + mDeadbandFilter);
+
+        if (mOfflineJournal != null) {
+            mOfflineJournal.sync();
         }
 
+        ThingInventory inventory = mInventory;
+        for (int node = 0; node < inventory.getNodeCount(); node++) {
+            setNodeConnection(mNodes.get(node), false, ON_DESTROY_MSG);
+            for (int thing = inventory.getFirstThing(node); thing < inventory.getFirstThing(node + 1); thing++) {
+                setThingConnection(mThings.get(thing), false, ON_DESTROY_MSG);
+            }
+        }
+        for (Thing mThing : mAggregateThings.values()) {
+            setThingConnection(mThing, false, ON_DESTROY_MSG);
+        }
+        setNodeConnection(espAggregateNode, false, ON_DESTROY_MSG);
+
+        mSamplingScheduler.stop();
+        // Queued actions finish before their outputs are closed.
+        mActionRouter.shutdown(ACTION_SHUTDOWN_TIMEOUT);
+        Log.i(TAG, "Actions : " + mActionRouter);
+        for (int thing = 0; thing < inventory.getThingCount(); thing++) {
+            mSamplingScheduler.removeSampler(inventory.getThingId(thing));
+            closeBinding(mBindings.getAndSet(thing, null));
+        }
 
+        Log.i(TAG, "Button latency :\n" + mLatencyProbe);
     }
 
     @Override
@@ -336,8 +814,12 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
         /**
          * Thing configuration messages will be handled here.
          * For example data reading frequency or custom configuration may be in the incoming thing object.
+         * Data reading frequency reschedules polling of the thing, 0 or less means report on change.
          */
-
+        mConfigurationsReceived.inc();
+        if (thing != null) {
+            applyConfiguration(thing);
+        }
     }
 
     @Override
@@ -345,8 +827,13 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
 
         /**
          * Thing action message will be handled here. Call thingActionData.getMessage()
+         * Actions run on the lane of the thing, see ActionRouter.
          */
-
+        mActionsReceived.inc();
+        String message = thingActionData != null ? thingActionData.getMessage() : null;
+        if (!mActionRouter.dispatch(s, s1, message) && !mActionRouter.isRouted(s, s1)) {
+            Log.w(TAG, "No action handler for " + s + " / " + s1);
+        }
     }
 
     @Override
@@ -356,43 +843,81 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
          * If your thing object unregistered from outside world you will receive this
          * information callback.
          */
+        mRegistrationSnapshot.remove(RegistrationSnapshot.thingKey(s, s1));
+        igniteWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                saveRegistrationSnapshot();
+            }
+        });
     }
 
     public void setLed(boolean state) {
+        setLed(state, 0);
+    }
 
-        if (mLedGpio != null) {
-            try {
-                mLedGpio.setValue(state);
+    /**
+     * Local GPIO write happens on the caller thread, uplink is submitted to the worker.
+     *
+     * @param edgeNanos System.nanoTime() of the button edge which caused the change, 0 if unknown.
+     */
+    public void setLed(final boolean state, long edgeNanos) {
 
-                if (mLedThing != null && mLedThing.isRegistered()) {
-                    ThingData ledData = new ThingData();
-                    ledData.addData(state ? 1 : 0);
-                    mLedThing.setThingData(ledData);
-                    mLedThing.sendData(ledData);
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "IOException : " + e);
-            }
+        if (writeOutput(LED_THING_ID, state)) {
+            mLatencyProbe.record(mButtonInputMode, LatencyProbe.Stage.EDGE_TO_LED, edgeNanos);
+            reportValue(LED_THING_ID, state ? 1 : 0, true);
         }
     }
 
-    private void registerNodeAndSetConnectionOnline(Node mNode) {
+    /**
+     * Set a GPIO output thing on the caller thread and report its new state.
+     *
+     * @return false if the thing has no opened GPIO output.
+     */
+    public boolean setOutput(String thingId, boolean state) {
 
-        if (mNode != null) {
-            if (mNode.isRegistered() || mNode.register()) {
-                mNode.setConnected(true, "");
-            }
+        if (writeOutput(thingId, state)) {
+            reportValue(thingId, state ? 1 : 0, true);
+            return true;
         }
+        return false;
     }
 
-    private void registerThingAndSetConnectionOnline(Node mNode, Thing mThing) {
+    private boolean writeOutput(String thingId, boolean state) {
 
-        if (mNode != null && mNode.isRegistered() && mThing != null) {
+        int thing = mInventory.indexOf(thingId);
+        Object binding = thing >= 0 ? mBindings.get(thing) : null;
 
-            if (mThing.isRegistered() || mThing.register()) {
-                mThing.setConnected(true, "");
+        if (binding instanceof Gpio) {
+            try {
+                long start = System.nanoTime();
+                ((Gpio) binding).setValue(state);
+                mGpioWriteLatency.recordSince(start);
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "IOException : " + e);
             }
         }
+        return false;
+    }
+
+    /**
+     * Report a value of an inventory thing, for example from an I2C driver. Values are batched
+     * and filtered like the led and button data.
+     *
+     * @param latestWins keep only the last value of a batch window.
+     */
+    public void reportValue(final String thingId, final Object value, final boolean latestWins) {
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                Thing mThing = findThing(thingId);
+                if (mThing != null) {
+                    mUplinkBatcher.enqueue(mThing, value, latestWins);
+                }
+            }
+        });
     }
 
     private void setThingConnection(Thing mThing, boolean state, String explanation) {
@@ -410,17 +935,332 @@ public class IotIgniteHandler implements ConnectionCallback, NodeListener, Thing
 
 
     public void setButtonState(boolean state){
+        setButtonState(state, 0);
+    }
+
+    /**
+     * @param edgeNanos System.nanoTime() of the button edge, 0 if unknown.
+     */
+    public void setButtonState(final boolean state, long edgeNanos){
 
-        if(mButtonThing != null && mButtonThing.isRegistered()){
+        if (edgeNanos != 0) {
+            mUnsentButtonEdge.compareAndSet(0, edgeNanos);
+        }
+
+        reportValue(BTN_THING_ID, state ? 1 : 0, false);
+    }
+
+    /**
+     * Batch window for led and button data. Pass 0 window to send every sample immediately.
+     */
+    public void setUplinkBatchWindow(long windowMillis, int maxSamples) {
+        mUplinkBatcher.setWindow(windowMillis, maxSamples);
+    }
+
+    /**
+     * Send unless the deadband filter suppresses the values.
+     */
+    private boolean reportThingData(Thing mThing, List<Object> values) {
 
-            ThingData mBtnThingData = new ThingData();
+        if (!mDeadbandFilter.shouldSend(mThing.getThingID(), values, SystemClock.elapsedRealtime())) {
+            return true;
+        }
+        return sendOrJournalThingData(mThing, values);
+    }
 
-            mBtnThingData.addData(state ? 1 : 0);
-            mButtonThing.setThingData(mBtnThingData);
-            if(mButtonThing.sendData(mBtnThingData)){
-                Log.i(TAG,"Button data sent successfully");
+    /**
+     * Send directly while connected. Otherwise, or while older journaled data is still
+     * waiting, append to the offline journal to keep the order.
+     */
+    private boolean sendOrJournalThingData(Thing mThing, List<Object> values) {
+
+        if (igniteConnected && (mOfflineJournal == null || mOfflineJournal.isEmpty())
+                && sendThingData(mThing, values)) {
+            return true;
+        }
+
+        if (mOfflineJournal == null || !mOfflineJournal.append(mThing.getThingID(), values)) {
+            return false;
+        }
+        scheduleJournalRetry(JOURNAL_RETRY_INTERVAL);
+        return true;
+    }
+
+    private void drainOfflineJournal() {
+
+        if (mOfflineJournal != null && !mOfflineJournal.isEmpty()) {
+            int sent = mOfflineJournal.drain(mOfflineJournalConsumer, ThingDataBatcher.DEFAULT_MAX_SAMPLES);
+            Log.i(TAG, "Offline journal drained with " + sent + " messages");
+            // Continue right away while sends succeed, back off while they fail.
+            scheduleJournalRetry(sent > 0 ? 0 : JOURNAL_RETRY_INTERVAL);
+        }
+    }
+
+    private void scheduleJournalRetry(long delay) {
+
+        if (igniteConnected && mOfflineJournal != null && !mOfflineJournal.isEmpty()) {
+            igniteWorker.removeCallbacks(journalRetryRunnable);
+            igniteWorker.postDelayed(journalRetryRunnable, delay);
+        }
+    }
+
+    private Thing findThing(String thingId) {
+
+        int thing = mInventory.indexOf(thingId);
+        if (thing >= 0) {
+            Thing mThing = mThings.get(thing);
+            if (mThing == null && mInventory.isLazy(thing)) {
+                mThing = lazyThing(mInventory, thing);
             }
+            return mThing;
+        } else if (thingId.contains(AGGREGATE_ID_SEPARATOR)) {
+            return aggregateThing(thingId);
+        }
+        return null;
+    }
+
+    /**
+     * Create and register a lazy inventory thing on its first data. Null while disconnected
+     * or while its node is not registered.
+     */
+    private Thing lazyThing(ThingInventory inventory, int thing) {
+
+        Node mNode = mNodes.get(inventory.getNode(thing));
+        if (!igniteConnected || mNode == null) {
+            return null;
         }
+
+        String thingId = inventory.getThingId(thing);
+        Thing mThing = createThing(inventory, thing, mNode);
+        if (!registerOnWorker(mThing, RegistrationSnapshot.thingKey(mNode.getNodeID(), thingId),
+                inventory.thingDescriptor(thing))) {
+            Log.e(TAG, "Thing could not be registered : " + thingId);
+            return null;
+        }
+        mThings.set(thing, mThing);
+        bind(inventory, thing);
+        applyConfiguration(mThing);
+        return mThing;
+    }
+
+    /**
+     * Register a thing created on the worker. The snapshot decides: a current descriptor is
+     * only marked connected, a changed descriptor is always registered again.
+     */
+    private boolean registerOnWorker(Thing mThing, String key, String descriptor) {
+
+        if (mThing == null || !(mRegistrationSnapshot.isCurrent(key, descriptor)
+                || (!mRegistrationSnapshot.isChanged(key, descriptor) && mThing.isRegistered())
+                || timedRegister(mThing))) {
+            return false;
+        }
+        mThing.setConnected(true, "");
+        mRegistrationSnapshot.record(key, descriptor);
+        saveRegistrationSnapshot();
+        return true;
+    }
+
+    private boolean timedRegister(Thing mThing) {
+        long start = System.nanoTime();
+        try {
+            return mThing.register();
+        } finally {
+            mRegisterLatency.recordSince(start);
+        }
+    }
+
+    private boolean timedRegister(Node mNode) {
+        long start = System.nanoTime();
+        try {
+            return mNode.register();
+        } finally {
+            mRegisterLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Forward an ESP window result as [min, max, mean, count, last].
+     */
+    public void forwardEspAggregate(WindowResult result) {
+
+        final String thingId = result.nodeId + AGGREGATE_ID_SEPARATOR + result.thingId;
+        final List<Object> values = Arrays.<Object>asList(result.min, result.max, result.mean,
+                (float) result.count, result.last);
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+
+                mDeadbandFilter.configureIfAbsent(thingId, AGGREGATE_DEADBAND);
+                if (!mDeadbandFilter.shouldSend(thingId, values, SystemClock.elapsedRealtime())) {
+                    return;
+                }
+
+                Thing mThing = aggregateThing(thingId);
+                if (mThing != null) {
+                    sendOrJournalThingData(mThing, values);
+                } else if (mOfflineJournal != null) {
+                    mOfflineJournal.append(thingId, values);
+                }
+            }
+        });
+    }
+
+    /**
+     * Create and register the aggregate thing on first use. Null while disconnected.
+     */
+    private Thing aggregateThing(String thingId) {
+
+        if (!igniteConnected) {
+            return null;
+        }
+
+        Thing mThing = mAggregateThings.get(thingId);
+        if (mThing != null) {
+            return mThing;
+        }
+
+        if (espAggregateNode == null) {
+            String nodeKey = RegistrationSnapshot.nodeKey(ESP_AGGREGATE_NODE_ID);
+            String nodeDescriptor = nodeDescriptor(ESP_AGGREGATE_NODE_ID);
+            Node mNode = IotIgniteManager.NodeFactory.createNode(ESP_AGGREGATE_NODE_ID, ESP_AGGREGATE_NODE_ID,
+                    NodeType.GENERIC, null, this);
+            if (mNode == null || !(mRegistrationSnapshot.isCurrent(nodeKey, nodeDescriptor)
+                    || (!mRegistrationSnapshot.isChanged(nodeKey, nodeDescriptor) && mNode.isRegistered())
+                    || timedRegister(mNode))) {
+                Log.e(TAG, "Node could not be registered : " + ESP_AGGREGATE_NODE_ID);
+                return null;
+            }
+            mNode.setConnected(true, "");
+            mRegistrationSnapshot.record(nodeKey, nodeDescriptor);
+            espAggregateNode = mNode;
+        }
+
+        String thingKey = RegistrationSnapshot.thingKey(ESP_AGGREGATE_NODE_ID, thingId);
+        String thingDescriptor = thingDescriptor(thingId, AGGREGATE_THING_TYPE, AGGREGATE_VENDOR,
+                ThingDataType.FLOAT, ThingCategory.EXTERNAL, false);
+        mThing = espAggregateNode.createThing(thingId, mAggregateThingType, ThingCategory.EXTERNAL, false, this, null);
+        if (!registerOnWorker(mThing, thingKey, thingDescriptor)) {
+            Log.e(TAG, "Thing could not be registered : " + thingId);
+            return null;
+        }
+        mAggregateThings.put(thingId, mThing);
+        return mThing;
+    }
+
+    /**
+     * A warm started thing unregistered on IoT-Ignite while the gateway was offline is
+     * registered again before its data is sent.
+     */
+    private boolean sendThingData(Thing mThing, List<Object> values) {
+
+        if (mThing != null && (mThing.isRegistered() || timedRegister(mThing))) {
+
+            ThingData mThingData = new ThingData();
+            for (Object value : values) {
+                mThingData.addData(value);
+            }
+
+            mThing.setThingData(mThingData);
+            long start = System.nanoTime();
+            boolean sent = mThing.sendData(mThingData);
+            mSendDataLatency.recordSince(start);
+            if (!sent) {
+                mSendDataFailures.inc();
+            } else {
+                Log.i(TAG, mThing.getThingID() + " data sent successfully");
+                if (BTN_THING_ID.equals(mThing.getThingID())) {
+                    mLatencyProbe.record(mButtonInputMode, LatencyProbe.Stage.EDGE_TO_SEND, mUnsentButtonEdge.getAndSet(0));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Report-by-exception settings of a thing, replacing the defaults.
+     *
+     * @param absolute         minimum absolute change, 0 reports every change.
+     * @param percent          minimum change in percent of the last reported value.
+     * @param maxSilenceMillis heartbeat interval, 0 disables.
+     */
+    public void setDeadband(String thingId, double absolute, double percent, long maxSilenceMillis) {
+        mDeadbandFilter.configure(thingId, new DeadbandFilter.Config(absolute, percent, maxSilenceMillis));
+    }
+
+    public DeadbandFilter getDeadbandFilter() {
+        return mDeadbandFilter;
+    }
+
+    /**
+     * Button input path. Takes effect when the button pin is opened.
+     */
+    public void setButtonInputMode(ButtonInputMode mode) {
+        this.mButtonInputMode = mode;
+    }
+
+    public ButtonInputMode getButtonInputMode() {
+        return mButtonInputMode;
+    }
+
+    public LatencyProbe getLatencyProbe() {
+        return mLatencyProbe;
+    }
+
+    /**
+     * Button debounce window. Takes effect when the button pin is opened.
+     */
+    public void setButtonDebounce(long millis) {
+        this.mButtonDebounceMillis = millis;
+    }
+
+    /**
+     * Replace the reconnect policy. Takes effect from the next scheduled attempt.
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        this.mReconnectPolicy = policy;
+    }
+
+    /**
+     * Register handlers of I2C or ESP actuators here.
+     */
+    public ActionRouter getActionRouter() {
+        return mActionRouter;
+    }
+
+    public ReconnectStats getReconnectStats() {
+        return mReconnectStats;
+    }
+
+    /**
+     * Run the task on the Ignite worker. Returns false if the worker queue is full.
+     */
+    private boolean submit(final Runnable task) {
+
+        if (mPendingTasks.incrementAndGet() > MAX_PENDING_TASKS) {
+            mPendingTasks.decrementAndGet();
+            mDroppedTasks.inc();
+            Log.e(TAG, "Ignite worker queue is full, dropping task");
+            return false;
+        }
+
+        return igniteWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    mPendingTasks.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private static HandlerThread startIgniteThread() {
+        HandlerThread thread = new HandlerThread("IgniteWorker", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        return thread;
     }
 
     public  IotIgniteManager getIgniteManager(){
@@ -4,9 +4,17 @@ package com.ardic.iot.myandroidthingsproject;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
 import com.ardic.android.iot.hwnodeapptemplate.base.BaseWifiNodeDevice;
 import com.ardic.android.iot.hwnodeapptemplate.listener.CompatibilityListener;
 import com.ardic.android.iot.hwnodeapptemplate.listener.ThingEventListener;
@@ -17,57 +25,145 @@ import com.ardic.android.iot.hwnodeapptemplate.service.WifiNodeService;
 import com.ardic.android.iotignite.exceptions.UnsupportedVersionException;
 import com.ardic.android.iotignite.things.ThingConfiguration;
 import com.ardic.android.iotignite.things.ThingData;
-
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import com.ardic.iot.myandroidthingsproject.aggregation.WindowAggregator;
+import com.ardic.iot.myandroidthingsproject.aggregation.WindowPolicy;
+import com.ardic.iot.myandroidthingsproject.aggregation.WindowResult;
+import com.ardic.iot.myandroidthingsproject.discovery.DiscoveryCache;
+import com.ardic.iot.myandroidthingsproject.discovery.NodeDiscovery;
+import com.ardic.iot.myandroidthingsproject.esp.EspDeviceServer;
+import com.ardic.iot.myandroidthingsproject.esp.EspNodeRegistry;
+import com.ardic.iot.myandroidthingsproject.esp.ThingTimeSeriesStore;
+import com.ardic.iot.myandroidthingsproject.gpio.ButtonInputMode;
+import com.ardic.iot.myandroidthingsproject.log.EventLog;
+import com.ardic.iot.myandroidthingsproject.metrics.Counter;
+import com.ardic.iot.myandroidthingsproject.metrics.LatencyHistogram;
+import com.ardic.iot.myandroidthingsproject.metrics.MetricsHttpServer;
+import com.ardic.iot.myandroidthingsproject.metrics.MetricsRegistry;
 
 public class MainActivity extends Activity implements CompatibilityListener,WifiNodeManagerListener {
 
     public static final String TYPE = "DYNAMIC NODE - DHT11 SENSOR";
     private static final String TAG ="Sample IoT-Ignite App";
+    private static final int EXPECTED_ESP_NODES = 64;
     private IotIgniteHandler mIotIgniteHandler;
     private boolean lastState=false;
     private GenericWifiNodeManager espManager;
-    private List<BaseWifiNodeDevice> espNodeList = new CopyOnWriteArrayList<>();
+    /**
+     * ESP callbacks only hand references to the event log, formatting and Log calls happen
+     * on its writer thread. Categories can be switched off per callback.
+     */
+    private static final int EVENT_LOG_CAPACITY = 1024;
+    private EventLog espEventLog = new EventLog(TAG, EVENT_LOG_CAPACITY);
+    private EventLog.Category logDataReceived = espEventLog.category("onDataReceived");
+    private EventLog.Category logConnectionState = espEventLog.category("onConnectionStateChanged");
+    private EventLog.Category logActionReceived = espEventLog.category("onActionReceived");
+    private EventLog.Category logConfigReceived = espEventLog.category("onConfigReceived");
+    private EventLog.Category logUnknownMessage = espEventLog.category("onUnknownMessageReceived");
+    private EventLog.Category logNodeUnregistered = espEventLog.category("onNodeUnregistered");
+    private EventLog.Category logThingUnregistered = espEventLog.category("onThingUnregistered");
+
+    /**
+     * ESP callback counts and data handling time, scraped from the metrics endpoint.
+     */
+    private static final String ESP_EVENTS_TOTAL = "gateway_esp_events_total";
+    private static final String ESP_EVENTS_HELP = "ESP node callbacks received.";
+    private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private Counter espDataReceived = metrics.counter(ESP_EVENTS_TOTAL, ESP_EVENTS_HELP, "callback", "onDataReceived");
+    private Counter espConnectionState = metrics.counter(ESP_EVENTS_TOTAL, ESP_EVENTS_HELP, "callback", "onConnectionStateChanged");
+    private Counter espActionReceived = metrics.counter(ESP_EVENTS_TOTAL, ESP_EVENTS_HELP, "callback", "onActionReceived");
+    private Counter espConfigReceived = metrics.counter(ESP_EVENTS_TOTAL, ESP_EVENTS_HELP, "callback", "onConfigReceived");
+    private Counter espUnknownMessage = metrics.counter(ESP_EVENTS_TOTAL, ESP_EVENTS_HELP, "callback", "onUnknownMessageReceived");
+    private Counter espNodeUnregistered = metrics.counter(ESP_EVENTS_TOTAL, ESP_EVENTS_HELP, "callback", "onNodeUnregistered");
+    private Counter espThingUnregistered = metrics.counter(ESP_EVENTS_TOTAL, ESP_EVENTS_HELP, "callback", "onThingUnregistered");
+    private LatencyHistogram espDataLatency = metrics.histogram("gateway_esp_data_seconds",
+            "Handling time of ESP onDataReceived callbacks.");
+    private MetricsHttpServer metricsHttpServer;
+
+    /**
+     * Latest sensor values of every ESP thing for local dashboards and rules.
+     * 2048 things x 128 samples, about 3 MB.
+     */
+    private static final int MAX_ESP_THINGS = 2048;
+    private static final int SAMPLES_PER_ESP_THING = 128;
+    private ThingTimeSeriesStore espTimeSeries = new ThingTimeSeriesStore(MAX_ESP_THINGS, SAMPLES_PER_ESP_THING);
+
+    /**
+     * ESP samples are aggregated per thing on the gateway, only window results are forwarded
+     * to Ignite. Window policy follows the thing configuration.
+     */
+    private static final long AGGREGATION_FLUSH_INTERVAL = 1000L;
+    private Handler aggregationHandler = new Handler();
+    private WindowAggregator espAggregator = new WindowAggregator(
+            WindowPolicy.tumbling(WindowPolicy.DEFAULT_WINDOW_MILLIS), new WindowAggregator.Listener() {
+        @Override
+        public void onWindow(WindowResult result) {
+            if (mIotIgniteHandler != null) {
+                mIotIgniteHandler.forwardEspAggregate(result);
+            }
+        }
+    });
+
+    private Runnable aggregationFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            espAggregator.flushExpired(System.currentTimeMillis());
+            aggregationHandler.postDelayed(this, AGGREGATION_FLUSH_INTERVAL);
+        }
+    };
+
     private ThingEventListener mEspThingEventListener = new ThingEventListener() {
         @Override
         public void onDataReceived(String s, String s1, ThingData thingData) {
 
-            Log.i(TAG, "onDataReceived [" + s + "][" + s1 + "][" + thingData.getDataList() + "]");
+            long start = System.nanoTime();
+            espDataReceived.inc();
+            espEventLog.log(Log.INFO, logDataReceived, s, s1, thingData.getDataList());
+            storeSamples(s, s1, thingData);
+            espDataLatency.recordSince(start);
 
         }
 
         @Override
         public void onConnectionStateChanged(String s, boolean b) {
-            Log.i(TAG, "onConnectionStateChanged [" + s + "][" + b + "]");
+            espConnectionState.inc();
+            espEventLog.log(Log.INFO, logConnectionState, s, null, b);
 
         }
 
         @Override
         public void onActionReceived(String s, String s1, String s2) {
 
-            Log.i(TAG, "onActionReceived [" + s + "][" + s1 + "][" + s2 + "]");
+            espActionReceived.inc();
+            espEventLog.log(Log.INFO, logActionReceived, s, s1, s2);
+            // The node gets the action itself, local handlers of ESP things are optional.
+            if (mIotIgniteHandler != null) {
+                mIotIgniteHandler.getActionRouter().dispatch(s, s1, s2);
+            }
 
         }
 
         @Override
         public void onConfigReceived(String s, String s1, ThingConfiguration thingConfiguration) {
 
-            Log.i(TAG, "onConfigReceived [" + s + "][" + s1 + "][" + thingConfiguration.getDataReadingFrequency() + "]");
+            espConfigReceived.inc();
+            espEventLog.log(Log.INFO, logConfigReceived, s, s1, thingConfiguration.getDataReadingFrequency());
+            espAggregator.setPolicy(s, s1, WindowPolicy.fromConfiguration(thingConfiguration));
 
         }
 
         @Override
         public void onUnknownMessageReceived(String s, String s1) {
 
-            Log.i(TAG, "onUnknownMessageReceived [" + s + "][" + s1 + "]");
+            espUnknownMessage.inc();
+            espEventLog.log(Log.INFO, logUnknownMessage, s, null, s1);
 
 
         }
 
         @Override
         public void onNodeUnregistered(String s) {
-            Log.i(TAG, "onNodeUnregistered [" + s + "]");
+            espNodeUnregistered.inc();
+            espEventLog.log(Log.INFO, logNodeUnregistered, s, null, null);
 
 
 
@@ -76,27 +172,66 @@ public class MainActivity extends Activity implements CompatibilityListener,Wifi
         @Override
         public void onThingUnregistered(String s, String s1) {
 
-            Log.i(TAG, "onThingUnregistered [" + s + "][" + s1 + "]");
+            espThingUnregistered.inc();
+            espEventLog.log(Log.INFO, logThingUnregistered, s, s1, null);
 
 
         }
     };
+    private EspNodeRegistry espNodeRegistry = new EspNodeRegistry(mEspThingEventListener, EXPECTED_ESP_NODES);
+
+    /**
+     * Selector based server for nodes connecting to the gateway directly, optional.
+     */
+    private EspDeviceServer espDeviceServer;
+
+    /**
+     * Cached mDNS discovery, known nodes are connected by the device server right after start.
+     */
+    private static final String DISCOVERY_CACHE_FILE = "node-discovery.json";
+    private NodeDiscovery espNodeDiscovery;
+
+    private void storeSamples(String nodeId, String thingId, ThingData thingData) {
+
+        long now = System.currentTimeMillis();
+
+        for (Object value : thingData.getDataList()) {
+            try {
+                float sample = Float.parseFloat(String.valueOf(value));
+                espTimeSeries.append(nodeId, thingId, now, sample);
+                espAggregator.add(nodeId, thingId, now, sample);
+            } catch (NumberFormatException e) {
+                // Not a numeric thing.
+                return;
+            }
+        }
+    }
+
+    public ThingTimeSeriesStore getEspTimeSeries() {
+        return espTimeSeries;
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        espEventLog.start();
+        aggregationHandler.postDelayed(aggregationFlushRunnable, AGGREGATION_FLUSH_INTERVAL);
+
         /**
          * Set IgniteHandler and start.
          */
         mIotIgniteHandler = IotIgniteHandler.getInstance(getApplicationContext());
+        mIotIgniteHandler.setButtonInputMode(buttonInputMode(mIotIgniteHandler.getButtonInputMode()));
         mIotIgniteHandler.start();
 
 
         startService(new Intent(this, WifiNodeService.class));
         WifiNodeService.setCompatibilityListener(this);
         initEspDeviceAndNodeManager();
+        startEspDeviceServer();
+        startMetricsHttpServer();
 
 
     }
@@ -107,8 +242,9 @@ public class MainActivity extends Activity implements CompatibilityListener,Wifi
         if (keyCode == KeyEvent.KEYCODE_SPACE) {
             // Turn on the LED
             if(!lastState) {
-                mIotIgniteHandler.setLed(true);
-                mIotIgniteHandler.setButtonState(true);
+                long edgeNanos = edgeNanos(event);
+                mIotIgniteHandler.setLed(true, edgeNanos);
+                mIotIgniteHandler.setButtonState(true, edgeNanos);
                 lastState = true;
             }
             return true;
@@ -124,8 +260,9 @@ public class MainActivity extends Activity implements CompatibilityListener,Wifi
 
             if (lastState) {
                 // Turn off the LED
-                mIotIgniteHandler.setLed(false);
-                mIotIgniteHandler.setButtonState(false);
+                long edgeNanos = edgeNanos(event);
+                mIotIgniteHandler.setLed(false, edgeNanos);
+                mIotIgniteHandler.setButtonState(false, edgeNanos);
                 lastState = false;
             }
             return true;
@@ -135,14 +272,34 @@ public class MainActivity extends Activity implements CompatibilityListener,Wifi
     }
 
 
+    /**
+     * Key event time converted to the System.nanoTime() base used by the latency probe.
+     * Event time has millisecond resolution.
+     */
+    private static long edgeNanos(KeyEvent event) {
+        return System.nanoTime() - (SystemClock.uptimeMillis() - event.getEventTime()) * 1000000L;
+    }
+
     @Override
     protected void onDestroy() {
 
+        aggregationHandler.removeCallbacks(aggregationFlushRunnable);
+
         if(mIotIgniteHandler != null){
             mIotIgniteHandler.shutdown();
         }
 
         stopService(new Intent(this, WifiNodeService.class));
+        if (espNodeDiscovery != null) {
+            espNodeDiscovery.stop();
+        }
+        if (espDeviceServer != null) {
+            espDeviceServer.stop();
+        }
+        if (metricsHttpServer != null) {
+            metricsHttpServer.stop();
+        }
+        espEventLog.stop();
 
         super.onDestroy();
 
@@ -167,6 +324,79 @@ public class MainActivity extends Activity implements CompatibilityListener,Wifi
 
     }
 
+    /**
+     * Button input mode of config.xml, the default mode if it is not a valid mode name.
+     */
+    private ButtonInputMode buttonInputMode(ButtonInputMode defaultMode) {
+
+        String mode = getString(R.string.button_input_mode);
+        try {
+            return ButtonInputMode.valueOf(mode.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Unknown button input mode " + mode + ", using " + defaultMode + " : " + e);
+            return defaultMode;
+        }
+    }
+
+    private void startMetricsHttpServer() {
+
+        String port = getString(R.string.metrics_http_port);
+        if (port.trim().isEmpty()) {
+            return;
+        }
+
+        String address = getString(R.string.metrics_http_bind_address).trim();
+        try {
+            // A literal address, an empty one keeps the endpoint local.
+            InetAddress bindAddress = address.isEmpty()
+                    ? InetAddress.getLoopbackAddress() : InetAddress.getByName(address);
+            metricsHttpServer = new MetricsHttpServer(metrics, bindAddress, Integer.parseInt(port.trim()));
+            metricsHttpServer.start();
+            Log.i(TAG, "Metrics served on port " + metricsHttpServer.getPort());
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "Metrics server : " + e);
+            metricsHttpServer = null;
+        }
+    }
+
+    private void startEspDeviceServer() {
+
+        String port = getString(R.string.esp_device_server_port);
+        if (port.trim().isEmpty()) {
+            return;
+        }
+
+        try {
+            espDeviceServer = new EspDeviceServer(Integer.parseInt(port.trim()),
+                    EspDeviceServer.DEFAULT_IO_THREADS, mEspThingEventListener);
+            espDeviceServer.start();
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "ESP device server : " + e);
+            espDeviceServer = null;
+            return;
+        }
+
+        String serviceType = getString(R.string.esp_mdns_service_type).trim();
+        if (serviceType.isEmpty()) {
+            return;
+        }
+
+        DiscoveryCache cache = new DiscoveryCache(new File(getFilesDir(), DISCOVERY_CACHE_FILE));
+        espNodeDiscovery = new NodeDiscovery(this, cache, serviceType, new NodeDiscovery.Listener() {
+            @Override
+            public void onNodeFound(DiscoveryCache.Entry entry, boolean verified) {
+                // No-op while a connection to the address is open or pending.
+                espDeviceServer.connect(new InetSocketAddress(entry.getHost(), entry.getPort()));
+            }
+
+            @Override
+            public void onNodeLost(DiscoveryCache.Entry entry) {
+                Log.i(TAG, "Node forgotten : " + entry);
+            }
+        });
+        espNodeDiscovery.start();
+    }
+
     @Override
     public void onWifiNodeDeviceAdded(BaseWifiNodeDevice baseWifiNodeDevice) {
         checkAndUpdateDeviceList(baseWifiNodeDevice);
@@ -185,19 +415,15 @@ public class MainActivity extends Activity implements CompatibilityListener,Wifi
 
         if (TYPE.equals(device.getWifiNodeDevice().getNodeType())) {
 
-            if (!espNodeList.contains(device)) {
-                Log.i(TAG, "New node found adding to list.");
-                espNodeList.add(device);
-                device.addThingEventListener(mEspThingEventListener);
-            } else {
-                Log.i(TAG, "New node already in list.Updating...");
-                if (espNodeList.indexOf(device) != -1) {
-                    Log.i(TAG, "New node already in list.Removing...");
-                    espNodeList.remove(espNodeList.indexOf(device));
-                }
-                espNodeList.add(device);
-                device.removeThingEventListener(mEspThingEventListener);
-                device.addThingEventListener(mEspThingEventListener);
+            switch (espNodeRegistry.upsert(device)) {
+                case ADDED:
+                    Log.i(TAG, "New node found adding to list.");
+                    break;
+                case REPLACED:
+                    Log.i(TAG, "New node already in list.Updating...");
+                    break;
+                default:
+                    break;
             }
         }
     }
@@ -0,0 +1,313 @@
+package com.ardic.iot.myandroidthingsproject.action;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Routes action messages of IoT-Ignite and ESP things to their handlers.
+ *
+ * Routes are looked up by (nodeId, thingId) in a copy-on-write map, so dispatch takes no lock.
+ * Every route owns a serial lane on a shared pool : actions of one thing run one at a time in
+ * arrival order, actions of different things run in parallel. A lane only occupies a pool
+ * thread while it has actions, and gives the thread back after a few of them so one busy
+ * actuator can not starve the others.
+ *
+ * Lanes of state actuators (a led, a relay) can be latest wins : a lane then holds at most one
+ * pending command, a newer command replaces it and the stale one is dropped unexecuted. Only
+ * the final state is applied and acknowledged, so a burst of actions, or actions backed up
+ * during a reconnect, costs the actuator one command instead of the whole backlog.
+ */
+public class ActionRouter {
+
+    private static final String TAG = ActionRouter.class.getSimpleName();
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_MAX_PENDING = 64;
+    private static final int LANE_BATCH = 8;
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    public interface Handler {
+        /**
+         * Called on a pool thread, never concurrently for the same thing.
+         */
+        void onAction(String nodeId, String thingId, String message) throws IOException;
+    }
+
+    private final int mThreads;
+    private final int mMaxPending;
+    private volatile ExecutorService mExecutor;
+    private volatile Map<String, Lane> mRoutes = new HashMap<>();
+
+    private final AtomicLong mDispatched = new AtomicLong();
+    private final AtomicLong mApplied = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private final AtomicLong mUnrouted = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+
+    public ActionRouter() {
+        this(DEFAULT_THREADS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param threads    pool threads shared by all lanes.
+     * @param maxPending actions a lane may queue, newer ones are rejected beyond it.
+     */
+    public ActionRouter(int threads, int maxPending) {
+        this.mThreads = threads;
+        this.mMaxPending = maxPending;
+        this.mExecutor = newExecutor(threads);
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Action-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static String key(String nodeId, String thingId) {
+        return nodeId + KEY_SEPARATOR + thingId;
+    }
+
+    /**
+     * Route every action of a thing to the handler, in order.
+     */
+    public void register(String nodeId, String thingId, Handler handler) {
+        register(nodeId, thingId, handler, false);
+    }
+
+    /**
+     * Route the actions of a thing to the handler. A thing which is routed already in the same
+     * mode keeps its lane and its order, queued actions run on the new handler.
+     *
+     * @param latestWins only run the newest pending action, drop the older ones.
+     */
+    public synchronized void register(String nodeId, String thingId, Handler handler, boolean latestWins) {
+
+        Lane lane = mRoutes.get(key(nodeId, thingId));
+        if (lane != null && lane.latestWins == latestWins) {
+            lane.handler = handler;
+            return;
+        }
+
+        Map<String, Lane> routes = new HashMap<>(mRoutes);
+        routes.put(key(nodeId, thingId), new Lane(nodeId, thingId, handler, latestWins));
+        mRoutes = routes;
+    }
+
+    public synchronized void unregister(String nodeId, String thingId) {
+        if (mRoutes.containsKey(key(nodeId, thingId))) {
+            Map<String, Lane> routes = new HashMap<>(mRoutes);
+            routes.remove(key(nodeId, thingId));
+            mRoutes = routes;
+        }
+    }
+
+    public boolean isRouted(String nodeId, String thingId) {
+        return mRoutes.containsKey(key(nodeId, thingId));
+    }
+
+    /**
+     * Queue the action on the lane of its thing.
+     *
+     * @return false if the thing has no route, its lane is full or the router is shut down.
+     */
+    public boolean dispatch(String nodeId, String thingId, String message) {
+
+        Lane lane = mRoutes.get(key(nodeId, thingId));
+        if (lane == null) {
+            mUnrouted.incrementAndGet();
+            return false;
+        }
+        if (!lane.offer(message != null ? message : "")) {
+            mRejected.incrementAndGet();
+            Log.e(TAG, "Action rejected for " + nodeId + " / " + thingId);
+            return false;
+        }
+        mDispatched.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Accept actions again after shutdown(). Routes and counters are kept, actions which
+     * were still queued at shutdown are dropped.
+     */
+    public synchronized void start() {
+
+        if (!mExecutor.isShutdown()) {
+            return;
+        }
+        for (Lane lane : mRoutes.values()) {
+            lane.clear();
+        }
+        mExecutor = newExecutor(mThreads);
+    }
+
+    /**
+     * Stop accepting actions and wait for the queued ones.
+     */
+    public void shutdown(long timeoutMillis) {
+
+        ExecutorService executor = mExecutor;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Actions did not finish in time");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getDispatched() {
+        return mDispatched.get();
+    }
+
+    public long getUnrouted() {
+        return mUnrouted.get();
+    }
+
+    public long getRejected() {
+        return mRejected.get();
+    }
+
+    public long getFailed() {
+        return mFailed.get();
+    }
+
+    /**
+     * Actions which ran to completion.
+     */
+    public long getApplied() {
+        return mApplied.get();
+    }
+
+    /**
+     * Stale actions of latest wins lanes dropped before they ran.
+     */
+    public long getCoalesced() {
+        return mCoalesced.get();
+    }
+
+    @Override
+    public String toString() {
+        return "dispatched " + mDispatched + ", applied " + mApplied + ", coalesced " + mCoalesced
+                + ", unrouted " + mUnrouted + ", rejected " + mRejected + ", failed " + mFailed;
+    }
+
+    /**
+     * Serial queue of one thing, or a one slot mailbox if latest wins. Scheduled on the pool
+     * only while it has actions. pending counts the queued actions, or slot fills for a mailbox.
+     */
+    private class Lane implements Runnable {
+
+        private final String nodeId;
+        private final String thingId;
+        private final boolean latestWins;
+        private volatile Handler handler;
+        private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicReference<String> latest = new AtomicReference<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private Lane(String nodeId, String thingId, Handler handler, boolean latestWins) {
+            this.nodeId = nodeId;
+            this.thingId = thingId;
+            this.handler = handler;
+            this.latestWins = latestWins;
+        }
+
+        private boolean offer(String message) {
+
+            if (latestWins) {
+                if (latest.getAndSet(message) != null) {
+                    // Replaced a command which did not run yet, the lane is scheduled already.
+                    mCoalesced.incrementAndGet();
+                    return true;
+                }
+                if (pending.getAndIncrement() == 0 && !schedule()) {
+                    clear();
+                    return false;
+                }
+                return true;
+            }
+
+            // Bound is approximate under concurrent offers, which is enough against floods.
+            if (pending.get() >= mMaxPending) {
+                return false;
+            }
+
+            // Counted after it is queued, so the lane never polls an empty queue.
+            queue.offer(message);
+            // The first pending action schedules the lane, later ones are drained by it.
+            if (pending.getAndIncrement() == 0 && !schedule()) {
+                clear();
+                return false;
+            }
+            return true;
+        }
+
+        private boolean schedule() {
+            try {
+                mExecutor.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+
+            for (int i = 0; i < LANE_BATCH; i++) {
+
+                String message = latestWins ? latest.getAndSet(null) : queue.poll();
+                try {
+                    handler.onAction(nodeId, thingId, message);
+                    mApplied.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    mFailed.incrementAndGet();
+                    Log.e(TAG, "Action failed for " + nodeId + " / " + thingId + " : " + e);
+                }
+
+                if (pending.decrementAndGet() == 0) {
+                    return;
+                }
+            }
+
+            // More actions are pending, continue after the other lanes.
+            if (!schedule()) {
+                clear();
+            }
+        }
+
+        /**
+         * Drop the pending actions, also of a lane whose run was discarded by shutdownNow().
+         */
+        private void clear() {
+            queue.clear();
+            latest.set(null);
+            pending.set(0);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ardic.iot.myandroidthingsproject.action;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Locale;
+
+/**
+ * Action handler of on / off actuators such as a led on a GPIO output.
+ *
+ * Accepts the message forms sent by IoT-Ignite rules and the dashboard : a bare value
+ * ("true", "1", "on") or a JSON object with a "status", "state" or "value" field.
+ */
+public abstract class SwitchHandler implements ActionRouter.Handler {
+
+    private static final String[] FIELDS = {"status", "state", "value"};
+
+    protected abstract void onSwitch(String nodeId, String thingId, boolean on) throws IOException;
+
+    @Override
+    public void onAction(String nodeId, String thingId, String message) throws IOException {
+
+        Boolean on = parse(message);
+        if (on == null) {
+            throw new ProtocolException("Not a switch action : " + message);
+        }
+        onSwitch(nodeId, thingId, on);
+    }
+
+    /**
+     * @return switch state of the message, null if it has none.
+     */
+    public static Boolean parse(String message) {
+
+        String text = message.trim();
+        if (text.startsWith("{")) {
+            try {
+                JsonElement json = new JsonParser().parse(text);
+                if (json.isJsonObject()) {
+                    JsonObject object = json.getAsJsonObject();
+                    for (String field : FIELDS) {
+                        JsonElement value = object.get(field);
+                        if (value != null && value.isJsonPrimitive()) {
+                            return parse((JsonPrimitive) value);
+                        }
+                    }
+                }
+            } catch (JsonParseException e) {
+                return null;
+            }
+            return null;
+        }
+        return parseText(text);
+    }
+
+    private static Boolean parse(JsonPrimitive value) {
+        if (value.isBoolean()) {
+            return value.getAsBoolean();
+        } else if (value.isNumber()) {
+            return value.getAsDouble() != 0;
+        }
+        return parseText(value.getAsString().trim());
+    }
+
+    private static Boolean parseText(String text) {
+        switch (text.toLowerCase(Locale.US)) {
+            case "true":
+            case "1":
+            case "on":
+                return Boolean.TRUE;
+            case "false":
+            case "0":
+            case "off":
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+}
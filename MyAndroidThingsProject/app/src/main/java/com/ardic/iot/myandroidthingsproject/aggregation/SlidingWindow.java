@@ -0,0 +1,110 @@
+package com.ardic.iot.myandroidthingsproject.aggregation;
+
+/**
+ * Time based sliding window. Samples are kept in primitive rings, min and max are tracked
+ * with monotonic queues so every operation is amortized O(1).
+ */
+class SlidingWindow implements Window {
+
+    private final long mLengthMillis;
+    private final long mSlideMillis;
+    private final int mCapacity;
+
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    // Sequence numbers of the samples, values ascending for min and descending for max.
+    private final long[] mMinQueue;
+    private final long[] mMaxQueue;
+
+    private long mHead;
+    private long mTail;
+    private long mMinHead;
+    private long mMinTail;
+    private long mMaxHead;
+    private long mMaxTail;
+
+    private double mSum;
+    private long mNextEmit = Long.MIN_VALUE;
+
+    SlidingWindow(long lengthMillis, long slideMillis, int capacity) {
+        this.mLengthMillis = lengthMillis;
+        this.mSlideMillis = slideMillis;
+        this.mCapacity = capacity;
+        this.mTimestamps = new long[capacity];
+        this.mValues = new float[capacity];
+        this.mMinQueue = new long[capacity];
+        this.mMaxQueue = new long[capacity];
+    }
+
+    @Override
+    public boolean add(long timestampMillis, float value, WindowResult out) {
+
+        if (mTail - mHead == mCapacity) {
+            evictOldest();
+        }
+
+        long sequence = mTail++;
+        int index = index(sequence);
+        mTimestamps[index] = timestampMillis;
+        mValues[index] = value;
+        mSum += value;
+
+        while (mMinTail > mMinHead && mValues[index(mMinQueue[index(mMinTail - 1)])] >= value) {
+            mMinTail--;
+        }
+        mMinQueue[index(mMinTail++)] = sequence;
+
+        while (mMaxTail > mMaxHead && mValues[index(mMaxQueue[index(mMaxTail - 1)])] <= value) {
+            mMaxTail--;
+        }
+        mMaxQueue[index(mMaxTail++)] = sequence;
+
+        if (mNextEmit == Long.MIN_VALUE) {
+            mNextEmit = timestampMillis + mSlideMillis;
+        }
+
+        return flush(timestampMillis, out);
+    }
+
+    @Override
+    public boolean flush(long nowMillis, WindowResult out) {
+
+        while (mTail > mHead && mTimestamps[index(mHead)] <= nowMillis - mLengthMillis) {
+            evictOldest();
+        }
+
+        if (mTail == mHead || mNextEmit == Long.MIN_VALUE || nowMillis < mNextEmit) {
+            return false;
+        }
+
+        // Skip slides without samples instead of emitting them one by one.
+        mNextEmit += ((nowMillis - mNextEmit) / mSlideMillis + 1) * mSlideMillis;
+
+        int count = (int) (mTail - mHead);
+        out.set(nowMillis - mLengthMillis, nowMillis, count,
+                mValues[index(mMinQueue[index(mMinHead)])],
+                mValues[index(mMaxQueue[index(mMaxHead)])],
+                mSum, mValues[index(mTail - 1)]);
+        return true;
+    }
+
+    private void evictOldest() {
+        long sequence = mHead++;
+        mSum -= mValues[index(sequence)];
+
+        if (mMinTail > mMinHead && mMinQueue[index(mMinHead)] == sequence) {
+            mMinHead++;
+        }
+        if (mMaxTail > mMaxHead && mMaxQueue[index(mMaxHead)] == sequence) {
+            mMaxHead++;
+        }
+        if (mHead == mTail) {
+            // Drop accumulated floating point error when the window runs empty.
+            mSum = 0;
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % mCapacity);
+    }
+}
@@ -0,0 +1,53 @@
+package com.ardic.iot.myandroidthingsproject.aggregation;
+
+/**
+ * Fixed, non overlapping windows aligned to multiples of the window length.
+ */
+class TumblingWindow implements Window {
+
+    private final long mLengthMillis;
+
+    private long mStart;
+    private int mCount;
+    private float mMin;
+    private float mMax;
+    private double mSum;
+    private float mLast;
+
+    TumblingWindow(long lengthMillis) {
+        this.mLengthMillis = lengthMillis;
+    }
+
+    @Override
+    public boolean add(long timestampMillis, float value, WindowResult out) {
+
+        boolean emitted = flush(timestampMillis, out);
+
+        if (mCount == 0) {
+            mStart = timestampMillis - timestampMillis % mLengthMillis;
+            mMin = value;
+            mMax = value;
+            mSum = 0;
+        } else {
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+        }
+
+        mSum += value;
+        mLast = value;
+        mCount++;
+        return emitted;
+    }
+
+    @Override
+    public boolean flush(long nowMillis, WindowResult out) {
+
+        if (mCount == 0 || nowMillis < mStart + mLengthMillis) {
+            return false;
+        }
+
+        out.set(mStart, mStart + mLengthMillis, mCount, mMin, mMax, mSum, mLast);
+        mCount = 0;
+        return true;
+    }
+}
@@ -0,0 +1,19 @@
+package com.ardic.iot.myandroidthingsproject.aggregation;
+
+/**
+ * Incremental window of one thing. Not thread safe, the aggregator synchronizes on it.
+ */
+interface Window {
+
+    /**
+     * @return true if a window result was written to out.
+     */
+    boolean add(long timestampMillis, float value, WindowResult out);
+
+    /**
+     * Emit the result of a window which is due at the given time without a new sample.
+     *
+     * @return true if a window result was written to out.
+     */
+    boolean flush(long nowMillis, WindowResult out);
+}
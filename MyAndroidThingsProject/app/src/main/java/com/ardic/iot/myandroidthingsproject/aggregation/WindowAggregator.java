@@ -0,0 +1,104 @@
+package com.ardic.iot.myandroidthingsproject.aggregation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming min/max/mean/count/last aggregation of thing samples in per-thing windows.
+ * Every sample is processed in O(1), only window results reach the listener.
+ */
+public class WindowAggregator {
+
+    public interface Listener {
+        /**
+         * Called on the thread which added the sample or called flushExpired().
+         * The result object is reused after the call returns.
+         */
+        void onWindow(WindowResult result);
+    }
+
+    private final Listener mListener;
+    private final WindowPolicy mDefaultPolicy;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>> mEntries = new ConcurrentHashMap<>();
+
+    public WindowAggregator(WindowPolicy defaultPolicy, Listener listener) {
+        this.mDefaultPolicy = defaultPolicy;
+        this.mListener = listener;
+    }
+
+    public void add(String nodeId, String thingId, long timestampMillis, float value) {
+        Entry entry = entry(nodeId, thingId);
+        synchronized (entry) {
+            if (entry.window.add(timestampMillis, value, entry.result)) {
+                mListener.onWindow(entry.result);
+            }
+        }
+    }
+
+    /**
+     * Replace the policy of a thing. The current window is emitted if it is due and dropped otherwise.
+     */
+    public void setPolicy(String nodeId, String thingId, WindowPolicy policy) {
+        Entry entry = entry(nodeId, thingId);
+        synchronized (entry) {
+            if (!policy.equals(entry.policy)) {
+                if (entry.window.flush(System.currentTimeMillis(), entry.result)) {
+                    mListener.onWindow(entry.result);
+                }
+                entry.policy = policy;
+                entry.window = policy.createWindow();
+            }
+        }
+    }
+
+    /**
+     * Emit every window which is due, for things which stopped sending.
+     */
+    public void flushExpired(long nowMillis) {
+        for (Map<String, Entry> things : mEntries.values()) {
+            for (Entry entry : things.values()) {
+                synchronized (entry) {
+                    if (entry.window.flush(nowMillis, entry.result)) {
+                        mListener.onWindow(entry.result);
+                    }
+                }
+            }
+        }
+    }
+
+    private Entry entry(String nodeId, String thingId) {
+
+        ConcurrentHashMap<String, Entry> things = mEntries.get(nodeId);
+        if (things == null) {
+            ConcurrentHashMap<String, Entry> created = new ConcurrentHashMap<>();
+            things = mEntries.putIfAbsent(nodeId, created);
+            if (things == null) {
+                things = created;
+            }
+        }
+
+        Entry entry = things.get(thingId);
+        if (entry == null) {
+            Entry created = new Entry(nodeId, thingId, mDefaultPolicy);
+            entry = things.putIfAbsent(thingId, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    private static class Entry {
+
+        private final WindowResult result = new WindowResult();
+        private WindowPolicy policy;
+        private Window window;
+
+        private Entry(String nodeId, String thingId, WindowPolicy policy) {
+            this.result.nodeId = nodeId;
+            this.result.thingId = thingId;
+            this.policy = policy;
+            this.window = policy.createWindow();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ardic.iot.myandroidthingsproject.aggregation;
+
+import com.ardic.android.iotignite.things.ThingConfiguration;
+
+/**
+ * How samples of a thing are grouped into windows.
+ */
+public class WindowPolicy {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 60000L;
+    public static final int SAMPLES_PER_WINDOW = 30;
+    public static final int DEFAULT_SLIDING_CAPACITY = 1024;
+
+    public enum Type {
+        /**
+         * Consecutive, non overlapping windows. One result per window.
+         */
+        TUMBLING,
+        /**
+         * Window over the last lengthMillis, a result every slideMillis.
+         */
+        SLIDING
+    }
+
+    private final Type mType;
+    private final long mLengthMillis;
+    private final long mSlideMillis;
+    private final int mCapacity;
+
+    private WindowPolicy(Type type, long lengthMillis, long slideMillis, int capacity) {
+        if (lengthMillis <= 0 || slideMillis <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Invalid window : " + lengthMillis + "/" + slideMillis + "/" + capacity);
+        }
+        this.mType = type;
+        this.mLengthMillis = lengthMillis;
+        this.mSlideMillis = slideMillis;
+        this.mCapacity = capacity;
+    }
+
+    public static WindowPolicy tumbling(long lengthMillis) {
+        return new WindowPolicy(Type.TUMBLING, lengthMillis, lengthMillis, 1);
+    }
+
+    /**
+     * @param capacity maximum samples kept in the window, older samples are evicted early beyond it.
+     */
+    public static WindowPolicy sliding(long lengthMillis, long slideMillis, int capacity) {
+        return new WindowPolicy(Type.SLIDING, lengthMillis, slideMillis, capacity);
+    }
+
+    /**
+     * Tumbling window of SAMPLES_PER_WINDOW readings at the configured data reading frequency.
+     */
+    public static WindowPolicy fromConfiguration(ThingConfiguration configuration) {
+        long frequency = configuration != null ? configuration.getDataReadingFrequency() : 0;
+        if (frequency <= 0) {
+            return tumbling(DEFAULT_WINDOW_MILLIS);
+        }
+        return tumbling(frequency * SAMPLES_PER_WINDOW);
+    }
+
+    Window createWindow() {
+        if (mType == Type.SLIDING) {
+            return new SlidingWindow(mLengthMillis, mSlideMillis, mCapacity);
+        }
+        return new TumblingWindow(mLengthMillis);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public long getLengthMillis() {
+        return mLengthMillis;
+    }
+
+    public long getSlideMillis() {
+        return mSlideMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WindowPolicy)) {
+            return false;
+        }
+        WindowPolicy other = (WindowPolicy) o;
+        return mType == other.mType && mLengthMillis == other.mLengthMillis
+                && mSlideMillis == other.mSlideMillis && mCapacity == other.mCapacity;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (31 * (31 * mLengthMillis + mSlideMillis) + mType.ordinal() * 7 + mCapacity);
+    }
+}
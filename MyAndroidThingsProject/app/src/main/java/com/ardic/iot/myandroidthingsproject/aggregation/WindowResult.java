@@ -0,0 +1,34 @@
+package com.ardic.iot.myandroidthingsproject.aggregation;
+
+/**
+ * Aggregate of one window. Instances are reused by the aggregator, copy the fields
+ * if they are needed after the listener returns.
+ */
+public class WindowResult {
+
+    public String nodeId;
+    public String thingId;
+    public long startMillis;
+    public long endMillis;
+    public int count;
+    public float min;
+    public float max;
+    public float mean;
+    public float last;
+
+    void set(long startMillis, long endMillis, int count, float min, float max, double sum, float last) {
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = (float) (sum / count);
+        this.last = last;
+    }
+
+    @Override
+    public String toString() {
+        return nodeId + "/" + thingId + " [" + startMillis + "-" + endMillis + "] count=" + count
+                + " min=" + min + " max=" + max + " mean=" + mean + " last=" + last;
+    }
+}
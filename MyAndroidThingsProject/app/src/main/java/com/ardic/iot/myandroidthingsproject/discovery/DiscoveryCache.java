@@ -0,0 +1,264 @@
+package com.ardic.iot.myandroidthingsproject.discovery;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent mDNS discovery results : service name, address, TXT record and last seen time.
+ *
+ * Loaded at startup so known nodes can be connected before mDNS has answered. An entry is due
+ * for a lazy re-verification after most of its TTL has passed and is evicted when it was not
+ * seen for maxStaleMillis, a node may be switched off for a while without being forgotten.
+ * The file is replaced atomically by writing a temporary file and renaming it.
+ */
+public class DiscoveryCache {
+
+    private static final String TAG = DiscoveryCache.class.getSimpleName();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Standard mDNS TTL of service records, 75 minutes.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 4500 * 1000L;
+    public static final long DEFAULT_MAX_STALE_MILLIS = 7 * 24 * 3600 * 1000L;
+
+    /**
+     * Re-verify entries after this fraction of their TTL, before they expire.
+     */
+    private static final double REFRESH_FRACTION = 0.8;
+
+    public static class Entry {
+
+        private String serviceName;
+        private String host;
+        private int port;
+        private Map<String, String> txt;
+        private long lastSeenMillis;
+
+        public Entry(String serviceName, String host, int port, Map<String, String> txt, long lastSeenMillis) {
+            this.serviceName = serviceName;
+            this.host = host;
+            this.port = port;
+            this.txt = txt != null ? new HashMap<>(txt) : new HashMap<String, String>();
+            this.lastSeenMillis = lastSeenMillis;
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public Map<String, String> getTxt() {
+            return Collections.unmodifiableMap(txt);
+        }
+
+        public long getLastSeenMillis() {
+            return lastSeenMillis;
+        }
+
+        private boolean sameAddress(Entry other) {
+            return host.equals(other.host) && port == other.port && txt.equals(other.txt);
+        }
+
+        private boolean isValid() {
+            return serviceName != null && host != null && port > 0 && port <= 65535;
+        }
+
+        @Override
+        public String toString() {
+            return serviceName + " @ " + host + ":" + port;
+        }
+    }
+
+    /**
+     * File layout, a version for later format changes and the entries.
+     */
+    private static class Snapshot {
+        private int version = 1;
+        private List<Entry> entries = new ArrayList<>();
+    }
+
+    private final File mFile;
+    private final long mTtlMillis;
+    private final long mMaxStaleMillis;
+    private final Gson mGson = new Gson();
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    private boolean mDirty;
+
+    public DiscoveryCache(File file) {
+        this(file, DEFAULT_TTL_MILLIS, DEFAULT_MAX_STALE_MILLIS);
+    }
+
+    public DiscoveryCache(File file, long ttlMillis, long maxStaleMillis) {
+        if (ttlMillis <= 0 || maxStaleMillis < ttlMillis) {
+            throw new IllegalArgumentException("Invalid cache lifetime : ttl " + ttlMillis + " max stale " + maxStaleMillis);
+        }
+        this.mFile = file;
+        this.mTtlMillis = ttlMillis;
+        this.mMaxStaleMillis = maxStaleMillis;
+    }
+
+    /**
+     * Read the file, dropping entries which are too old or unreadable.
+     *
+     * @return the known entries, most recently seen first.
+     */
+    public synchronized List<Entry> load(long now) {
+
+        mEntries.clear();
+
+        if (mFile.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(mFile), UTF8)) {
+                Snapshot snapshot = mGson.fromJson(reader, Snapshot.class);
+                if (snapshot != null && snapshot.entries != null) {
+                    for (Entry entry : snapshot.entries) {
+                        if (entry != null && entry.isValid() && now - entry.lastSeenMillis <= mMaxStaleMillis) {
+                            if (entry.txt == null) {
+                                entry.txt = new HashMap<>();
+                            }
+                            mEntries.put(entry.serviceName, entry);
+                        }
+                    }
+                }
+            } catch (IOException | JsonParseException e) {
+                Log.e(TAG, "Load : " + e);
+            }
+        }
+
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.lastSeenMillis, a.lastSeenMillis);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Record a resolved service.
+     *
+     * @return the entry if it is new or its address or TXT record changed, null if only the
+     * last seen time was refreshed.
+     */
+    public synchronized Entry seen(String serviceName, String host, int port, Map<String, String> txt, long now) {
+
+        Entry entry = new Entry(serviceName, host, port, txt, now);
+        Entry previous = mEntries.put(serviceName, entry);
+        mDirty = true;
+
+        if (previous != null && previous.sameAddress(entry)) {
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized Entry get(String serviceName) {
+        return mEntries.get(serviceName);
+    }
+
+    public synchronized Entry remove(String serviceName) {
+        Entry entry = mEntries.remove(serviceName);
+        if (entry != null) {
+            mDirty = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Entries close to the end of their TTL, to be re-verified in the background.
+     */
+    public synchronized List<Entry> dueForRefresh(long now) {
+        List<Entry> due = new ArrayList<>();
+        long refreshAge = (long) (mTtlMillis * REFRESH_FRACTION);
+        for (Entry entry : mEntries.values()) {
+            if (now - entry.lastSeenMillis >= refreshAge) {
+                due.add(entry);
+            }
+        }
+        return due;
+    }
+
+    public synchronized boolean isFresh(Entry entry, long now) {
+        return now - entry.lastSeenMillis < mTtlMillis;
+    }
+
+    /**
+     * Remove entries which were not seen for maxStaleMillis.
+     *
+     * @return the removed entries.
+     */
+    public synchronized List<Entry> evictStale(long now) {
+        List<Entry> evicted = new ArrayList<>();
+        for (Entry entry : new ArrayList<>(mEntries.values())) {
+            if (now - entry.lastSeenMillis > mMaxStaleMillis) {
+                mEntries.remove(entry.serviceName);
+                evicted.add(entry);
+            }
+        }
+        if (!evicted.isEmpty()) {
+            mDirty = true;
+        }
+        return evicted;
+    }
+
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Write the entries if they changed since the last save.
+     */
+    public synchronized void save() throws IOException {
+
+        if (!mDirty) {
+            return;
+        }
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.entries.addAll(mEntries.values());
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            Writer writer = new OutputStreamWriter(out, UTF8);
+            mGson.toJson(snapshot, writer);
+            writer.flush();
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Rename failed : " + temp + " -> " + mFile);
+        }
+        mDirty = false;
+    }
+}
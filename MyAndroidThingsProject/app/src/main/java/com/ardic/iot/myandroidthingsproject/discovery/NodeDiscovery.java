@@ -0,0 +1,251 @@
+package com.ardic.iot.myandroidthingsproject.discovery;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jmdns.JmDNS;
+import javax.jmdns.ServiceEvent;
+import javax.jmdns.ServiceInfo;
+import javax.jmdns.ServiceListener;
+
+/**
+ * mDNS discovery of nodes backed by a DiscoveryCache.
+ *
+ * On start the cached nodes are reported right away, before any mDNS traffic, so they can be
+ * reconnected within seconds of a gateway reboot. Browsing then runs in the background and
+ * reports every resolved node; cached entries close to their TTL are re-verified with a
+ * directed query. Listener callbacks run on the discovery thread.
+ */
+public class NodeDiscovery implements ServiceListener {
+
+    private static final String TAG = NodeDiscovery.class.getSimpleName();
+
+    /**
+     * requestServiceInfo waits up to this long, answers arrive later through serviceResolved.
+     */
+    private static final long REQUEST_WAIT = 1L;
+    private static final long MAINTENANCE_INTERVAL = 60 * 1000L;
+    private static final long SAVE_DELAY = 5000L;
+
+    public interface Listener {
+
+        /**
+         * @param verified false for an entry loaded from the cache and not answered yet, the
+         *                 address may be outdated.
+         */
+        void onNodeFound(DiscoveryCache.Entry entry, boolean verified);
+
+        /**
+         * Entry evicted after it was not seen for the cache's max stale time.
+         */
+        void onNodeLost(DiscoveryCache.Entry entry);
+    }
+
+    private final Context mContext;
+    private final DiscoveryCache mCache;
+    private final String mServiceType;
+    private final Listener mListener;
+
+    private HandlerThread mThread;
+    private Handler mWorker;
+    private JmDNS mJmDns;
+    private WifiManager.MulticastLock mMulticastLock;
+
+    public NodeDiscovery(Context context, DiscoveryCache cache, String serviceType, Listener listener) {
+        this.mContext = context.getApplicationContext();
+        this.mCache = cache;
+        this.mServiceType = serviceType;
+        this.mListener = listener;
+    }
+
+    public synchronized void start() {
+
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread("NodeDiscovery");
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper());
+
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                startOnWorker();
+            }
+        });
+    }
+
+    public synchronized void stop() {
+
+        if (mThread == null) {
+            return;
+        }
+        final HandlerThread thread = mThread;
+        mThread = null;
+
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                stopOnWorker();
+                thread.quitSafely();
+            }
+        });
+    }
+
+    private void startOnWorker() {
+
+        long now = System.currentTimeMillis();
+        List<DiscoveryCache.Entry> known = mCache.load(now);
+        Log.i(TAG, "Reconnecting " + known.size() + " cached nodes");
+        for (DiscoveryCache.Entry entry : known) {
+            mListener.onNodeFound(entry, false);
+        }
+
+        WifiManager wifiManager = (WifiManager) mContext.getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager != null) {
+            mMulticastLock = wifiManager.createMulticastLock(TAG);
+            mMulticastLock.setReferenceCounted(false);
+            mMulticastLock.acquire();
+        }
+
+        try {
+            mJmDns = JmDNS.create();
+            mJmDns.addServiceListener(mServiceType, this);
+        } catch (IOException e) {
+            Log.e(TAG, "mDNS start : " + e);
+        }
+
+        mWorker.postDelayed(maintenanceRunnable, MAINTENANCE_INTERVAL);
+    }
+
+    private void stopOnWorker() {
+
+        mWorker.removeCallbacks(maintenanceRunnable);
+        mWorker.removeCallbacks(saveRunnable);
+
+        if (mJmDns != null) {
+            mJmDns.removeServiceListener(mServiceType, this);
+            try {
+                mJmDns.close();
+            } catch (IOException e) {
+                Log.e(TAG, "mDNS close : " + e);
+            }
+            mJmDns = null;
+        }
+
+        if (mMulticastLock != null) {
+            mMulticastLock.release();
+            mMulticastLock = null;
+        }
+
+        saveRunnable.run();
+    }
+
+    private Runnable maintenanceRunnable = new Runnable() {
+        @Override
+        public void run() {
+
+            if (mJmDns != null) {
+                // Directed queries without waiting, nodes which answer are refreshed in serviceResolved.
+                for (DiscoveryCache.Entry entry : mCache.dueForRefresh(System.currentTimeMillis())) {
+                    mJmDns.requestServiceInfo(mServiceType, entry.getServiceName(), REQUEST_WAIT);
+                }
+            }
+
+            for (DiscoveryCache.Entry entry : mCache.evictStale(System.currentTimeMillis())) {
+                Log.i(TAG, "Evicted " + entry);
+                mListener.onNodeLost(entry);
+            }
+
+            scheduleSave();
+            mWorker.postDelayed(this, MAINTENANCE_INTERVAL);
+        }
+    };
+
+    private Runnable saveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                mCache.save();
+            } catch (IOException e) {
+                Log.e(TAG, "Cache save : " + e);
+            }
+        }
+    };
+
+    /**
+     * Resolutions come in bursts after a reboot, write the file once per burst.
+     */
+    private void scheduleSave() {
+        mWorker.removeCallbacks(saveRunnable);
+        mWorker.postDelayed(saveRunnable, SAVE_DELAY);
+    }
+
+    private void onResolved(ServiceInfo info) {
+
+        String host = null;
+        Inet4Address[] addresses = info.getInet4Addresses();
+        if (addresses.length > 0) {
+            host = addresses[0].getHostAddress();
+        } else if (info.getHostAddresses().length > 0) {
+            host = info.getHostAddresses()[0];
+        }
+        if (host == null || info.getPort() <= 0) {
+            return;
+        }
+
+        Map<String, String> txt = new HashMap<>();
+        Enumeration<String> names = info.getPropertyNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            txt.put(name, info.getPropertyString(name));
+        }
+
+        long now = System.currentTimeMillis();
+        if (mCache.seen(info.getName(), host, info.getPort(), txt, now) != null) {
+            Log.i(TAG, "Node " + info.getName() + " at " + host + ":" + info.getPort());
+        }
+        scheduleSave();
+        mListener.onNodeFound(mCache.get(info.getName()), true);
+    }
+
+    @Override
+    public void serviceAdded(final ServiceEvent serviceEvent) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mJmDns != null) {
+                    mJmDns.requestServiceInfo(serviceEvent.getType(), serviceEvent.getName(), REQUEST_WAIT);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void serviceRemoved(ServiceEvent serviceEvent) {
+        // A node says goodbye before it reboots, keep its entry for the reconnect.
+        Log.i(TAG, "Service removed : " + serviceEvent.getName());
+    }
+
+    @Override
+    public void serviceResolved(final ServiceEvent serviceEvent) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (serviceEvent.getInfo() != null) {
+                    onResolved(serviceEvent.getInfo());
+                }
+            }
+        });
+    }
+}
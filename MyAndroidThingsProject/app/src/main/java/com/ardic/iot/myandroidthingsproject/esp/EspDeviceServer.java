@@ -0,0 +1,669 @@
+package com.ardic.iot.myandroidthingsproject.esp;
+
+import android.util.Log;
+
+import com.ardic.android.iot.hwnodeapptemplate.listener.ThingEventListener;
+import com.ardic.android.iotignite.things.ThingConfiguration;
+import com.ardic.android.iotignite.things.ThingData;
+import com.ardic.iot.protocol.JsonNodeCodec;
+import com.ardic.iot.protocol.LineFramer;
+import com.ardic.iot.protocol.NodeMessage;
+import com.ardic.iot.protocol.StreamingNodeDecoder;
+import com.ardic.iot.protocol.SymbolTable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-project device server for dynamic Wi-Fi nodes, an alternative to the library's WifiNodeService.
+ *
+ * One acceptor thread hands connections to a fixed number of io threads, each with one
+ * Selector, one direct read buffer and one direct write buffer. Per connection only a small
+ * line buffer and a decoder are kept, so thousands of idle nodes cost a constant number of
+ * threads and a few hundred bytes each. Lines are decoded with the streaming decoder and fed
+ * to the same ThingEventListener the library devices use. Listener callbacks run on io threads.
+ *
+ * Nodes connect to the server, or the server connects to nodes at known addresses, for example
+ * from the discovery cache, and asks them for their inventory.
+ */
+public class EspDeviceServer {
+
+    private static final String TAG = EspDeviceServer.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE = 16 * 1024;
+    private static final int SYMBOLS_PER_THREAD = 4096;
+
+    /**
+     * Node inventory, received after every (re)connect.
+     */
+    public interface InventoryListener {
+        void onInventory(String nodeId, String nodeType, List<NodeMessage.InventoryThing> things);
+    }
+
+    private final int mPort;
+    private final ThingEventListener mListener;
+    private final IoLoop[] mLoops;
+    private final ConcurrentHashMap<String, Connection> mNodes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetSocketAddress, Connection> mOutbound = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextLoop = new AtomicInteger();
+    private final AtomicLong mConnections = new AtomicLong();
+    private final AtomicLong mInvalidLines = new AtomicLong();
+
+    private volatile InventoryListener mInventoryListener;
+    private volatile boolean mOfferBinary = true;
+
+    private ServerSocketChannel mServerChannel;
+    private Selector mAcceptSelector;
+    private Thread mAcceptThread;
+    private volatile boolean mRunning;
+
+    public EspDeviceServer(int port, int ioThreads, ThingEventListener listener) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("Invalid io thread count : " + ioThreads);
+        }
+        this.mPort = port;
+        this.mListener = listener;
+        this.mLoops = new IoLoop[ioThreads];
+    }
+
+    public void setInventoryListener(InventoryListener listener) {
+        this.mInventoryListener = listener;
+    }
+
+    /**
+     * Offer the binary wire format to nodes after their inventory. On by default, nodes which
+     * do not know it keep sending JSON.
+     */
+    public void setOfferBinary(boolean offerBinary) {
+        this.mOfferBinary = offerBinary;
+    }
+
+    public synchronized void start() throws IOException {
+
+        if (mRunning) {
+            return;
+        }
+
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.configureBlocking(false);
+        mServerChannel.socket().setReuseAddress(true);
+        mServerChannel.socket().bind(new InetSocketAddress(mPort), 256);
+
+        mAcceptSelector = Selector.open();
+        mServerChannel.register(mAcceptSelector, SelectionKey.OP_ACCEPT);
+
+        for (int i = 0; i < mLoops.length; i++) {
+            mLoops[i] = new IoLoop(i);
+        }
+
+        mRunning = true;
+
+        for (IoLoop loop : mLoops) {
+            loop.mThread.start();
+        }
+
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "EspAccept");
+        mAcceptThread.start();
+
+        Log.i(TAG, "Device server listening on " + getPort() + " with " + mLoops.length + " io threads");
+    }
+
+    public synchronized void stop() {
+
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+
+        mAcceptSelector.wakeup();
+        for (IoLoop loop : mLoops) {
+            loop.mSelector.wakeup();
+        }
+
+        try {
+            mAcceptThread.join(1000);
+            for (IoLoop loop : mLoops) {
+                loop.mThread.join(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Server close : " + e);
+        }
+    }
+
+    /**
+     * Bound port, useful when started on port 0.
+     */
+    public int getPort() {
+        return mServerChannel != null ? mServerChannel.socket().getLocalPort() : mPort;
+    }
+
+    /**
+     * Connect to a node which listens at the given address, the node is asked for its inventory
+     * once connected and shows up like any other node after that.
+     *
+     * @return false if not running or a connection to the address is open or pending.
+     */
+    public boolean connect(InetSocketAddress address) {
+
+        if (!mRunning || mOutbound.containsKey(address)) {
+            return false;
+        }
+
+        SocketChannel channel = null;
+        Connection connection = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+
+            connection = new Connection(nextLoop(), channel, address);
+            if (mOutbound.putIfAbsent(address, connection) != null) {
+                channel.close();
+                return false;
+            }
+            channel.connect(address);
+
+            mConnections.incrementAndGet();
+            connection.mLoop.adopt(connection);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Connect to " + address + " : " + e);
+            if (connection != null) {
+                mOutbound.remove(address, connection);
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeException) {
+                    Log.e(TAG, "Close : " + closeException);
+                }
+            }
+            return false;
+        }
+    }
+
+    public boolean isConnected(String nodeId) {
+        return mNodes.containsKey(nodeId);
+    }
+
+    public int getNodeCount() {
+        return mNodes.size();
+    }
+
+    public long getInvalidLines() {
+        return mInvalidLines.get();
+    }
+
+    /**
+     * Forward a thing configuration to the node and report it to the listener.
+     *
+     * @return false if the node is not connected.
+     */
+    public boolean sendConfiguration(String nodeId, String thingId, ThingConfiguration configuration) {
+        boolean sent = send(nodeId, NodeMessage.configuration(thingId, configuration.getDataReadingFrequency()));
+        if (sent) {
+            mListener.onConfigReceived(nodeId, thingId, configuration);
+        }
+        return sent;
+    }
+
+    /**
+     * Forward an action to the node and report it to the listener.
+     *
+     * @return false if the node is not connected.
+     */
+    public boolean sendAction(String nodeId, String thingId, String action) {
+        boolean sent = send(nodeId, NodeMessage.action(thingId, action));
+        if (sent) {
+            mListener.onActionReceived(nodeId, thingId, action);
+        }
+        return sent;
+    }
+
+    public boolean reset(String nodeId) {
+        return send(nodeId, NodeMessage.of(NodeMessage.RESET));
+    }
+
+    public boolean requestInventory(String nodeId) {
+        return send(nodeId, NodeMessage.of(NodeMessage.INVENTORY_STATUS));
+    }
+
+    private boolean send(String nodeId, NodeMessage message) {
+        Connection connection = mNodes.get(nodeId);
+        if (connection == null) {
+            return false;
+        }
+        connection.mLoop.enqueue(connection, connection.mLoop.mCodec.encode(message));
+        return true;
+    }
+
+    private void acceptLoop() {
+
+        try {
+            while (mRunning) {
+                mAcceptSelector.select();
+
+                if (!mAcceptSelector.selectedKeys().isEmpty()) {
+                    mAcceptSelector.selectedKeys().clear();
+
+                    SocketChannel channel;
+                    while ((channel = mServerChannel.accept()) != null) {
+                        channel.configureBlocking(false);
+                        channel.socket().setTcpNoDelay(true);
+                        // Dead nodes are found by keep alive, idle nodes are not timed out.
+                        channel.socket().setKeepAlive(true);
+
+                        mConnections.incrementAndGet();
+                        IoLoop loop = nextLoop();
+                        loop.adopt(new Connection(loop, channel, null));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Accept loop : " + e);
+        } finally {
+            try {
+                mAcceptSelector.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Accept selector close : " + e);
+            }
+        }
+    }
+
+    private IoLoop nextLoop() {
+        return mLoops[(mNextLoop.getAndIncrement() & Integer.MAX_VALUE) % mLoops.length];
+    }
+
+    /**
+     * Selector thread owning a share of the connections. Other threads only hand over new
+     * channels and outgoing messages through queues.
+     */
+    private class IoLoop implements Runnable {
+
+        private final Selector mSelector;
+        private final Thread mThread;
+        private final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer mWriteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final SymbolTable mSymbols = new SymbolTable(SYMBOLS_PER_THREAD);
+        private final JsonNodeCodec mCodec = new JsonNodeCodec();
+
+        private final ConcurrentLinkedQueue<Connection> mNewConnections = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Outgoing> mOutgoing = new ConcurrentLinkedQueue<>();
+
+        private IoLoop(int id) throws IOException {
+            this.mSelector = Selector.open();
+            this.mThread = new Thread(this, "EspIo-" + id);
+        }
+
+        private void adopt(Connection connection) {
+            mNewConnections.add(connection);
+            mSelector.wakeup();
+        }
+
+        private void enqueue(Connection connection, byte[] message) {
+            mOutgoing.add(new Outgoing(connection, message));
+            mSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                while (mRunning) {
+                    mSelector.select();
+
+                    registerNewConnections();
+                    writeOutgoing();
+
+                    for (SelectionKey key : mSelector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            close(connection);
+                            continue;
+                        }
+                        if (key.isConnectable()) {
+                            finishConnect(connection);
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            flush(connection);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                    }
+                    mSelector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Io loop : " + e);
+            } finally {
+                for (SelectionKey key : new ArrayList<>(mSelector.keys())) {
+                    close((Connection) key.attachment());
+                }
+                try {
+                    mSelector.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Selector close : " + e);
+                }
+            }
+        }
+
+        private void registerNewConnections() {
+            Connection connection;
+            while ((connection = mNewConnections.poll()) != null) {
+                int ops = connection.mChannel.isConnectionPending() ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ;
+                try {
+                    connection.mKey = connection.mChannel.register(mSelector, ops, connection);
+                    if (ops == SelectionKey.OP_READ && connection.mAddress != null) {
+                        onConnected(connection);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Register : " + e);
+                    close(connection);
+                }
+            }
+        }
+
+        private void writeOutgoing() {
+            Outgoing outgoing;
+            while ((outgoing = mOutgoing.poll()) != null) {
+                if (outgoing.message == null) {
+                    close(outgoing.connection);
+                } else if (!outgoing.connection.mClosed) {
+                    write(outgoing.connection, outgoing.message);
+                }
+            }
+        }
+
+        private void finishConnect(Connection connection) {
+
+            try {
+                if (connection.mChannel.finishConnect()) {
+                    connection.mKey.interestOps(SelectionKey.OP_READ);
+                    onConnected(connection);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Connect to " + connection.name() + " : " + e);
+                close(connection);
+            }
+        }
+
+        /**
+         * Outbound connection established, the node answers with its inventory.
+         */
+        private void onConnected(Connection connection) {
+            write(connection, mCodec.encode(NodeMessage.of(NodeMessage.INVENTORY_STATUS)));
+        }
+
+        private void read(Connection connection) {
+
+            try {
+                while (!connection.mClosed) {
+                    mReadBuffer.clear();
+                    int read = connection.mChannel.read(mReadBuffer);
+                    if (read < 0) {
+                        close(connection);
+                        return;
+                    }
+                    if (read == 0) {
+                        return;
+                    }
+                    mReadBuffer.flip();
+
+                    // The framer resets before handing out a line, after a failing line the
+                    // rest of the buffer is fed again so one bad line can not kill the loop.
+                    while (mReadBuffer.hasRemaining()) {
+                        try {
+                            connection.mFramer.feed(mReadBuffer, connection.mDecoder);
+                        } catch (ProtocolException | RuntimeException e) {
+                            mInvalidLines.incrementAndGet();
+                            Log.e(TAG, "Line dropped from " + connection.name() + " : " + e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+
+        /**
+         * Write through the direct buffer, anything the socket does not take waits in the
+         * connection until the socket is writable again.
+         */
+        private void write(Connection connection, byte[] message) {
+
+            if (!connection.mPending.isEmpty()) {
+                connection.mPending.add(ByteBuffer.wrap(message));
+                return;
+            }
+
+            try {
+                int offset = 0;
+                while (offset < message.length) {
+                    int chunk = Math.min(mWriteBuffer.capacity(), message.length - offset);
+                    mWriteBuffer.clear();
+                    mWriteBuffer.put(message, offset, chunk).flip();
+                    connection.mChannel.write(mWriteBuffer);
+                    offset += mWriteBuffer.position();
+
+                    if (mWriteBuffer.hasRemaining()) {
+                        connection.mPending.add(ByteBuffer.wrap(message, offset, message.length - offset));
+                        connection.mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+
+        private void flush(Connection connection) {
+
+            try {
+                while (!connection.mPending.isEmpty()) {
+                    ByteBuffer pending = connection.mPending.peek();
+                    connection.mChannel.write(pending);
+                    if (pending.hasRemaining()) {
+                        return;
+                    }
+                    connection.mPending.poll();
+                }
+                connection.mKey.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+
+        private void close(Connection connection) {
+
+            if (connection.mClosed) {
+                return;
+            }
+            connection.mClosed = true;
+
+            if (connection.mKey != null) {
+                connection.mKey.cancel();
+            }
+            try {
+                connection.mChannel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Close : " + e);
+            }
+
+            if (connection.mAddress != null) {
+                mOutbound.remove(connection.mAddress, connection);
+            }
+            if (connection.mNodeId != null && mNodes.remove(connection.mNodeId, connection)) {
+                mListener.onConnectionStateChanged(connection.mNodeId, false);
+            }
+        }
+
+        private void onInventory(Connection connection, NodeMessage inventory) {
+
+            String nodeId = inventory.getNodeId();
+            if (nodeId == null) {
+                mListener.onUnknownMessageReceived(connection.name(), NodeMessage.INVENTORY);
+                return;
+            }
+
+            List<String> thingIds = new ArrayList<>();
+            List<NodeMessage.InventoryThing> things = inventory.getThings() != null
+                    ? inventory.getThings() : Collections.<NodeMessage.InventoryThing>emptyList();
+            for (NodeMessage.InventoryThing thing : things) {
+                thingIds.add(thing.getId());
+            }
+            connection.mDecoder.setThingIds(thingIds);
+
+            if (!nodeId.equals(connection.mNodeId)) {
+                connection.mNodeId = nodeId;
+                Connection previous = mNodes.put(nodeId, connection);
+                if (previous != null && previous != connection) {
+                    // Node reconnected before its old connection was noticed as dead, closing
+                    // it does not report a disconnect since the node id maps to this one now.
+                    previous.mLoop.enqueueClose(previous);
+                }
+                mListener.onConnectionStateChanged(nodeId, true);
+            }
+
+            InventoryListener listener = mInventoryListener;
+            if (listener != null) {
+                listener.onInventory(nodeId, inventory.getNodeType(), things);
+            }
+
+            if (mOfferBinary) {
+                write(connection, mCodec.encode(NodeMessage.wireFormat(NodeMessage.FORMAT_BINARY)));
+            }
+        }
+
+        private void enqueueClose(Connection connection) {
+            mOutgoing.add(new Outgoing(connection, null));
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * Message for a connection, or a request to close it if the message is null.
+     */
+    private static class Outgoing {
+
+        private final Connection connection;
+        private final byte[] message;
+
+        private Outgoing(Connection connection, byte[] message) {
+            this.connection = connection;
+            this.message = message;
+        }
+    }
+
+    /**
+     * One node connection, owned by its io loop.
+     */
+    private class Connection implements StreamingNodeDecoder.Handler {
+
+        private final IoLoop mLoop;
+        private final SocketChannel mChannel;
+        private final InetSocketAddress mAddress;
+        private final LineFramer mFramer = new LineFramer(MAX_LINE);
+        private final StreamingNodeDecoder mDecoder;
+        private final ArrayDeque<ByteBuffer> mPending = new ArrayDeque<>(2);
+
+        private SelectionKey mKey;
+        private String mNodeId;
+        private boolean mClosed;
+
+        /**
+         * @param address node address of an outbound connection, null for accepted ones.
+         */
+        private Connection(IoLoop loop, SocketChannel channel, InetSocketAddress address) {
+            this.mLoop = loop;
+            this.mChannel = channel;
+            this.mAddress = address;
+            this.mDecoder = new StreamingNodeDecoder(this, loop.mSymbols);
+        }
+
+        private String name() {
+            if (mNodeId != null) {
+                return mNodeId;
+            }
+            if (mAddress != null) {
+                return String.valueOf(mAddress);
+            }
+            return String.valueOf(mChannel.socket().getRemoteSocketAddress());
+        }
+
+        @Override
+        public void onData(String thingId, double[] values, int count, long intervalMillis) {
+
+            // The listener API takes ThingData, the decoding itself did not allocate.
+            ThingData data = new ThingData();
+            for (int i = 0; i < count; i++) {
+                data.addData(String.valueOf((float) values[i]));
+            }
+            mListener.onDataReceived(name(), thingId, data);
+        }
+
+        @Override
+        public void onConfiguration(String thingId, long dataReadingFrequency) {
+            // Configuration goes from the gateway to the node, not the other way.
+            mListener.onUnknownMessageReceived(name(), NodeMessage.CONFIGURATION);
+        }
+
+        @Override
+        public void onAction(String thingId, String message) {
+            mListener.onUnknownMessageReceived(name(), NodeMessage.ACTION);
+        }
+
+        @Override
+        public void onOther(String messageType, byte[] line, int offset, int length) {
+
+            if (NodeMessage.INVENTORY.equals(messageType)) {
+                try {
+                    mLoop.onInventory(this, mLoop.mCodec.decode(line, offset, length));
+                } catch (ProtocolException e) {
+                    onInvalid(line, offset, length);
+                }
+            } else if (NodeMessage.WIRE_FORMAT.equals(messageType)) {
+                Log.i(TAG, name() + " switched wire format");
+            } else {
+                mListener.onUnknownMessageReceived(name(), new String(line, offset, length, UTF_8));
+            }
+        }
+
+        @Override
+        public void onInvalid(byte[] line, int offset, int length) {
+            mInvalidLines.incrementAndGet();
+            mListener.onUnknownMessageReceived(name(), new String(line, offset, length, UTF_8));
+        }
+    }
+}
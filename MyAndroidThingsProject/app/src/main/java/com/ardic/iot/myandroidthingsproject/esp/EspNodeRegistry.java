@@ -0,0 +1,92 @@
+package com.ardic.iot.myandroidthingsproject.esp;
+
+import com.ardic.android.iot.hwnodeapptemplate.base.BaseWifiNodeDevice;
+import com.ardic.android.iot.hwnodeapptemplate.listener.ThingEventListener;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Concurrent registry of dynamic Wi-Fi node devices keyed by node id.
+ * Upsert is O(1) and does not copy, iteration is weakly consistent and does not copy either.
+ * The thing event listener is attached exactly once to the device instance currently registered.
+ */
+public class EspNodeRegistry {
+
+    public enum Result {
+        ADDED,
+        REPLACED,
+        UNCHANGED
+    }
+
+    private final ConcurrentHashMap<String, BaseWifiNodeDevice> mDevices;
+    private final ThingEventListener mListener;
+
+    public EspNodeRegistry(ThingEventListener listener, int expectedDevices) {
+        this.mListener = listener;
+        this.mDevices = new ConcurrentHashMap<>(expectedDevices);
+    }
+
+    /**
+     * Add the device or replace the instance registered with the same node id.
+     * The listener is moved from the old instance to the new one.
+     */
+    public Result upsert(final BaseWifiNodeDevice device) {
+
+        final Result[] result = new Result[1];
+
+        mDevices.compute(nodeId(device), new BiFunction<String, BaseWifiNodeDevice, BaseWifiNodeDevice>() {
+            @Override
+            public BaseWifiNodeDevice apply(String nodeId, BaseWifiNodeDevice previous) {
+
+                if (previous == device) {
+                    result[0] = Result.UNCHANGED;
+                    return previous;
+                }
+
+                if (previous != null) {
+                    previous.removeThingEventListener(mListener);
+                    result[0] = Result.REPLACED;
+                } else {
+                    result[0] = Result.ADDED;
+                }
+
+                // Remove first so a listener left on a reconnected instance is never added twice.
+                device.removeThingEventListener(mListener);
+                device.addThingEventListener(mListener);
+                return device;
+            }
+        });
+
+        return result[0];
+    }
+
+    public BaseWifiNodeDevice remove(String nodeId) {
+        BaseWifiNodeDevice device = mDevices.remove(nodeId);
+        if (device != null) {
+            device.removeThingEventListener(mListener);
+        }
+        return device;
+    }
+
+    public BaseWifiNodeDevice get(String nodeId) {
+        return mDevices.get(nodeId);
+    }
+
+    public int size() {
+        return mDevices.size();
+    }
+
+    /**
+     * Live, read-only view of the registered devices.
+     */
+    public Collection<BaseWifiNodeDevice> devices() {
+        return Collections.unmodifiableCollection(mDevices.values());
+    }
+
+    private static String nodeId(BaseWifiNodeDevice device) {
+        return device.getWifiNodeDevice().getNodeId();
+    }
+}
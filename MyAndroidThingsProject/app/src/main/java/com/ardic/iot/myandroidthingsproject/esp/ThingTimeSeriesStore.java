@@ -0,0 +1,188 @@
+package com.ardic.iot.myandroidthingsproject.esp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory time series of the latest samples of every thing.
+ *
+ * All samples live in two preallocated primitive slabs (float values, long timestamps),
+ * every thing owns a fixed ring of samplesPerThing slots in them. Memory is fixed at
+ * construction : maxThings * samplesPerThing * 12 bytes. Appending is O(1) and does not box.
+ * Things beyond maxThings are rejected and counted.
+ */
+public class ThingTimeSeriesStore {
+
+    private final int mMaxThings;
+    private final int mSamplesPerThing;
+    private final float[] mValues;
+    private final long[] mTimestamps;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Series>> mSeries = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextSlot = new AtomicInteger();
+    private final AtomicLong mRejected = new AtomicLong();
+
+    public ThingTimeSeriesStore(int maxThings, int samplesPerThing) {
+        if (maxThings < 1 || samplesPerThing < 1 || (long) maxThings * samplesPerThing > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid store size : " + maxThings + " x " + samplesPerThing);
+        }
+        this.mMaxThings = maxThings;
+        this.mSamplesPerThing = samplesPerThing;
+        this.mValues = new float[maxThings * samplesPerThing];
+        this.mTimestamps = new long[maxThings * samplesPerThing];
+    }
+
+    /**
+     * @return false if the store is full and the thing has no series yet.
+     */
+    public boolean append(String nodeId, String thingId, long timestampMillis, float value) {
+        Series series = series(nodeId, thingId, true);
+        if (series == null) {
+            return false;
+        }
+        series.append(timestampMillis, value);
+        return true;
+    }
+
+    /**
+     * @return series of the thing, null if nothing was appended for it.
+     */
+    public Series get(String nodeId, String thingId) {
+        return series(nodeId, thingId, false);
+    }
+
+    public int getThingCount() {
+        return mNextSlot.get();
+    }
+
+    public long getRejected() {
+        return mRejected.get();
+    }
+
+    public int getSamplesPerThing() {
+        return mSamplesPerThing;
+    }
+
+    private Series series(String nodeId, String thingId, boolean create) {
+
+        ConcurrentHashMap<String, Series> things = mSeries.get(nodeId);
+        if (things == null) {
+            if (!create) {
+                return null;
+            }
+            ConcurrentHashMap<String, Series> created = new ConcurrentHashMap<>();
+            things = mSeries.putIfAbsent(nodeId, created);
+            if (things == null) {
+                things = created;
+            }
+        }
+
+        Series series = things.get(thingId);
+        if (series != null || !create) {
+            return series;
+        }
+
+        // Once the store is full unknown things are rejected without taking the lock.
+        if (mNextSlot.get() >= mMaxThings) {
+            mRejected.incrementAndGet();
+            return null;
+        }
+
+        synchronized (things) {
+            series = things.get(thingId);
+            if (series == null) {
+                int slot = nextSlot();
+                if (slot < 0) {
+                    mRejected.incrementAndGet();
+                    return null;
+                }
+                series = new Series(slot * mSamplesPerThing);
+                things.put(thingId, series);
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Claim the next free slot, -1 if the store is full. The counter never passes
+     * maxThings, rejected attempts can not wrap it.
+     */
+    private int nextSlot() {
+        while (true) {
+            int slot = mNextSlot.get();
+            if (slot >= mMaxThings) {
+                return -1;
+            }
+            if (mNextSlot.compareAndSet(slot, slot + 1)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Ring of the latest samples of one thing.
+     */
+    public class Series {
+
+        private final int mBase;
+        private long mCount;
+
+        private Series(int base) {
+            this.mBase = base;
+        }
+
+        private synchronized void append(long timestampMillis, float value) {
+            int index = mBase + (int) (mCount % mSamplesPerThing);
+            mValues[index] = value;
+            mTimestamps[index] = timestampMillis;
+            mCount++;
+        }
+
+        /**
+         * Total number of samples appended, including the overwritten ones.
+         */
+        public synchronized long count() {
+            return mCount;
+        }
+
+        /**
+         * @return latest value, NaN if empty.
+         */
+        public synchronized float last() {
+            if (mCount == 0) {
+                return Float.NaN;
+            }
+            return mValues[mBase + (int) ((mCount - 1) % mSamplesPerThing)];
+        }
+
+        public synchronized long lastTimestamp() {
+            if (mCount == 0) {
+                return 0;
+            }
+            return mTimestamps[mBase + (int) ((mCount - 1) % mSamplesPerThing)];
+        }
+
+        /**
+         * Copy the latest n samples, oldest first, into the given arrays.
+         * Timestamps may be null if only the values are needed.
+         *
+         * @return number of samples copied.
+         */
+        public synchronized int lastN(int n, float[] values, long[] timestamps) {
+
+            int available = (int) Math.min(mCount, mSamplesPerThing);
+            int copied = Math.min(Math.min(n, available), values.length);
+            long first = mCount - copied;
+
+            for (int i = 0; i < copied; i++) {
+                int index = mBase + (int) ((first + i) % mSamplesPerThing);
+                values[i] = mValues[index];
+                if (timestamps != null) {
+                    timestamps[i] = mTimestamps[index];
+                }
+            }
+            return copied;
+        }
+    }
+}
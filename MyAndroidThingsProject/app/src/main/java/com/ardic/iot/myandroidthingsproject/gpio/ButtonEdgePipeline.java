@@ -0,0 +1,189 @@
+package com.ardic.iot.myandroidthingsproject.gpio;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+import com.google.android.things.pio.PeripheralManagerService;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Button input fed directly by GPIO edge callbacks, without the Android key dispatch.
+ *
+ * Edge callbacks run on their own high priority thread and only publish the edge into a
+ * lock-free ring. A consumer thread debounces and coalesces the edges and delivers the
+ * settled button state to the listener.
+ */
+public class ButtonEdgePipeline {
+
+    private static final String TAG = ButtonEdgePipeline.class.getSimpleName();
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 20L;
+    private static final int RING_CAPACITY = 256;
+
+    public interface Listener {
+        /**
+         * Called on the pipeline consumer thread.
+         *
+         * @param edgeNanos System.nanoTime() of the edge which caused the change.
+         */
+        void onButtonChanged(boolean pressed, long edgeNanos);
+    }
+
+    private final PeripheralManagerService mPeripheralManagerService;
+    private final String mPin;
+    private final long mDebounceNanos;
+    private final Listener mListener;
+
+    private final EdgeRing mRing = new EdgeRing(RING_CAPACITY);
+    private final AtomicLong mDroppedEdges = new AtomicLong();
+
+    private Gpio mGpio;
+    private HandlerThread mCallbackThread;
+    private Thread mConsumerThread;
+    private volatile boolean mRunning;
+    private volatile boolean mPressed;
+
+    private final GpioCallback mGpioCallback = new GpioCallback() {
+        @Override
+        public boolean onGpioEdge(Gpio gpio) {
+
+            long now = System.nanoTime();
+            try {
+                if (!mRing.offer(now, gpio.getValue())) {
+                    mDroppedEdges.incrementAndGet();
+                }
+                LockSupport.unpark(mConsumerThread);
+            } catch (IOException e) {
+                Log.e(TAG, "Button value could not be read : " + e);
+            }
+            // Keep listening.
+            return true;
+        }
+
+        @Override
+        public void onGpioError(Gpio gpio, int error) {
+            Log.e(TAG, gpio + " : error " + error);
+        }
+    };
+
+    public ButtonEdgePipeline(PeripheralManagerService service, String pin, long debounceMillis, Listener listener) {
+        this.mPeripheralManagerService = service;
+        this.mPin = pin;
+        this.mDebounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.mListener = listener;
+    }
+
+    /**
+     * Open the button pin as an active-low input and start listening for both edges.
+     */
+    public synchronized void open() throws IOException {
+
+        if (mRunning) {
+            return;
+        }
+
+        mGpio = mPeripheralManagerService.openGpio(mPin);
+        mGpio.setDirection(Gpio.DIRECTION_IN);
+        mGpio.setActiveType(Gpio.ACTIVE_LOW);
+        mGpio.setEdgeTriggerType(Gpio.EDGE_BOTH);
+
+        final boolean initialValue = mGpio.getValue();
+        mPressed = initialValue;
+        mRunning = true;
+
+        mConsumerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+                consume(initialValue);
+            }
+        }, "ButtonPipeline");
+        mConsumerThread.start();
+
+        mCallbackThread = new HandlerThread("ButtonEdges", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mCallbackThread.start();
+        mGpio.registerGpioCallback(mGpioCallback, new Handler(mCallbackThread.getLooper()));
+    }
+
+    public synchronized void close() {
+
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+
+        mGpio.unregisterGpioCallback(mGpioCallback);
+        mCallbackThread.quitSafely();
+        LockSupport.unpark(mConsumerThread);
+
+        try {
+            mGpio.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing button gpio", e);
+        } finally {
+            mGpio = null;
+        }
+    }
+
+    public boolean isOpen() {
+        return mRunning;
+    }
+
+    /**
+     * Last debounced button state.
+     */
+    public boolean isPressed() {
+        return mPressed;
+    }
+
+    public long getDroppedEdges() {
+        return mDroppedEdges.get();
+    }
+
+    private void consume(boolean initialValue) {
+
+        final EdgeDebouncer debouncer = new EdgeDebouncer(mDebounceNanos, initialValue);
+
+        EdgeRing.Sink sink = new EdgeRing.Sink() {
+            @Override
+            public void onEdge(long timestampNanos, boolean value) {
+                if (debouncer.onEdge(timestampNanos, value)) {
+                    deliver(value, timestampNanos);
+                }
+            }
+        };
+
+        while (mRunning) {
+
+            mRing.drain(sink);
+
+            if (debouncer.hasPending()) {
+                long now = System.nanoTime();
+                if (debouncer.settle(now)) {
+                    deliver(debouncer.value(), debouncer.edgeNanos());
+                } else {
+                    LockSupport.parkNanos(this, debouncer.remainingNanos(now));
+                }
+            } else if (mRing.isEmpty()) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private void deliver(boolean pressed, long edgeNanos) {
+        mPressed = pressed;
+        try {
+            mListener.onButtonChanged(pressed, edgeNanos);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Button listener failed : " + e);
+        }
+    }
+}
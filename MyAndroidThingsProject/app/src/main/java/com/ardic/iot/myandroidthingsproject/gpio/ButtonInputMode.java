@@ -0,0 +1,18 @@
+package com.ardic.iot.myandroidthingsproject.gpio;
+
+/**
+ * How button presses reach IotIgniteHandler.
+ */
+public enum ButtonInputMode {
+
+    /**
+     * ButtonInputDriver registered as a virtual keyboard, presses go through the Android
+     * input stack and MainActivity.onKeyDown/onKeyUp.
+     */
+    KEY_EVENT,
+
+    /**
+     * Button pin opened as a Gpio, edges delivered by GpioCallback through ButtonEdgePipeline.
+     */
+    GPIO_CALLBACK
+}
@@ -0,0 +1,88 @@
+package com.ardic.iot.myandroidthingsproject.gpio;
+
+/**
+ * Leading-edge debouncer. The first change is delivered immediately, further edges within
+ * the debounce window are coalesced and only the settled state is delivered after the window.
+ * Not thread safe, used only by the pipeline consumer.
+ */
+class EdgeDebouncer {
+
+    private final long mWindowNanos;
+
+    private boolean mDelivered;
+    private boolean mPendingValue;
+    private long mPendingNanos;
+    private long mDeliveredNanos;
+    private boolean mHasPending;
+    private boolean mInWindow;
+    private long mWindowStart;
+
+    EdgeDebouncer(long windowNanos, boolean initialValue) {
+        this.mWindowNanos = windowNanos;
+        this.mDelivered = initialValue;
+    }
+
+    /**
+     * @return true if the value must be delivered now.
+     */
+    boolean onEdge(long timestampNanos, boolean value) {
+
+        if (!mInWindow || timestampNanos - mWindowStart >= mWindowNanos) {
+            mHasPending = false;
+            if (value != mDelivered) {
+                deliver(timestampNanos, timestampNanos, value);
+                return true;
+            }
+            return false;
+        }
+
+        mPendingValue = value;
+        mPendingNanos = timestampNanos;
+        mHasPending = value != mDelivered;
+        return false;
+    }
+
+    /**
+     * Deliver the coalesced state once the window has passed. The delivered value keeps the
+     * timestamp of the edge which produced it, see {@link #edgeNanos()}.
+     *
+     * @return true if the pending value must be delivered now.
+     */
+    boolean settle(long nowNanos) {
+        if (mHasPending && nowNanos - mWindowStart >= mWindowNanos) {
+            mHasPending = false;
+            deliver(nowNanos, mPendingNanos, mPendingValue);
+            return true;
+        }
+        return false;
+    }
+
+    boolean hasPending() {
+        return mHasPending;
+    }
+
+    /**
+     * Time left until the pending value can be settled.
+     */
+    long remainingNanos(long nowNanos) {
+        return Math.max(0, mWindowStart + mWindowNanos - nowNanos);
+    }
+
+    boolean value() {
+        return mDelivered;
+    }
+
+    /**
+     * Timestamp of the edge which produced the delivered value.
+     */
+    long edgeNanos() {
+        return mDeliveredNanos;
+    }
+
+    private void deliver(long windowStartNanos, long edgeNanos, boolean value) {
+        mDelivered = value;
+        mDeliveredNanos = edgeNanos;
+        mWindowStart = windowStartNanos;
+        mInWindow = true;
+    }
+}
@@ -0,0 +1,76 @@
+package com.ardic.iot.myandroidthingsproject.gpio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring of GPIO edges.
+ * Edges are kept in primitive arrays, offering and draining does not allocate.
+ */
+class EdgeRing {
+
+    interface Sink {
+        void onEdge(long timestampNanos, boolean value);
+    }
+
+    private final long[] mTimestamps;
+    private final boolean[] mValues;
+    private final int mMask;
+
+    // Next slot to write, only advanced by the producer.
+    private final AtomicLong mHead = new AtomicLong();
+    // Next slot to read, only advanced by the consumer.
+    private final AtomicLong mTail = new AtomicLong();
+
+    EdgeRing(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two : " + capacity);
+        }
+        mTimestamps = new long[capacity];
+        mValues = new boolean[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false if the ring is full and the edge was dropped.
+     */
+    boolean offer(long timestampNanos, boolean value) {
+
+        long head = mHead.get();
+        if (head - mTail.get() > mMask) {
+            return false;
+        }
+
+        int index = (int) head & mMask;
+        mTimestamps[index] = timestampNanos;
+        mValues[index] = value;
+
+        // Ordered store publishes the slot before the consumer can see the new head.
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side. Hands every published edge to the sink in order.
+     *
+     * @return number of edges drained.
+     */
+    int drain(Sink sink) {
+
+        long tail = mTail.get();
+        long head = mHead.get();
+
+        for (long i = tail; i < head; i++) {
+            int index = (int) i & mMask;
+            sink.onEdge(mTimestamps[index], mValues[index]);
+        }
+
+        mTail.lazySet(head);
+        return (int) (head - tail);
+    }
+
+    boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+}
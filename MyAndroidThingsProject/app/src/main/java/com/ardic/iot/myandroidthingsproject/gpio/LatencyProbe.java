@@ -0,0 +1,61 @@
+package com.ardic.iot.myandroidthingsproject.gpio;
+
+import com.ardic.iot.myandroidthingsproject.metrics.LatencyHistogram;
+import com.ardic.iot.myandroidthingsproject.metrics.MetricsRegistry;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Measures button edge to led write and edge to sendData latency per input mode,
+ * exported as gateway_button_latency_seconds{mode,stage} by the given metrics registry.
+ */
+public class LatencyProbe {
+
+    public enum Stage {
+        EDGE_TO_LED,
+        EDGE_TO_SEND
+    }
+
+    private final Map<ButtonInputMode, LatencyHistogram[]> mHistograms = new EnumMap<>(ButtonInputMode.class);
+
+    public LatencyProbe(MetricsRegistry registry) {
+        for (ButtonInputMode mode : ButtonInputMode.values()) {
+            LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+            for (Stage stage : Stage.values()) {
+                stages[stage.ordinal()] = registry.histogram("gateway_button_latency_seconds",
+                        "Button edge to led write and edge to sendData latency.",
+                        "mode", mode.name(), "stage", stage.name());
+            }
+            mHistograms.put(mode, stages);
+        }
+    }
+
+    /**
+     * @param edgeNanos System.nanoTime() of the edge, ignored if 0 (unknown).
+     */
+    public void record(ButtonInputMode mode, Stage stage, long edgeNanos) {
+        if (edgeNanos != 0) {
+            mHistograms.get(mode)[stage.ordinal()].recordSince(edgeNanos);
+        }
+    }
+
+    public long getCount(ButtonInputMode mode, Stage stage) {
+        return mHistograms.get(mode)[stage.ordinal()].getCount();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<ButtonInputMode, LatencyHistogram[]> entry : mHistograms.entrySet()) {
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = entry.getValue()[stage.ordinal()];
+                if (histogram.getCount() > 0) {
+                    builder.append(entry.getKey()).append(' ').append(stage).append(' ')
+                            .append(histogram).append('\n');
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
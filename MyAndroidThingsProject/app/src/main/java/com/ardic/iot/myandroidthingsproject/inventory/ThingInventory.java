@@ -0,0 +1,288 @@
+package com.ardic.iot.myandroidthingsproject.inventory;
+
+import com.ardic.android.iotignite.enumerations.NodeType;
+import com.ardic.android.iotignite.enumerations.ThingCategory;
+import com.ardic.android.iotignite.enumerations.ThingDataType;
+import com.ardic.android.iotignite.things.ThingType;
+import com.ardic.iot.myandroidthingsproject.registration.RegistrationSnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable description of the nodes, things, thing types and hardware bindings a gateway
+ * registers on IoT-Ignite, built with {@link #builder()}.
+ *
+ * Things are addressed by index, grouped by node. The definition is kept in parallel arrays :
+ * thing types are shared between things, category, actuator, lazy and binding flags are packed
+ * into one byte, so hundreds of GPIO / I2C things cost a few dozen bytes each. Node and Thing
+ * objects themselves are created by the handler, not here.
+ */
+public final class ThingInventory {
+
+    /**
+     * Hardware a thing is bound to. Address is the pin name or "bus:address" for I2C.
+     */
+    public enum Binding {
+        NONE, GPIO_OUTPUT, GPIO_INPUT, I2C
+    }
+
+    private static final ThingCategory[] CATEGORIES = ThingCategory.values();
+    private static final Binding[] BINDINGS = Binding.values();
+
+    private static final int CATEGORY_MASK = 0x03;
+    private static final int FLAG_ACTUATOR = 0x04;
+    private static final int FLAG_LAZY = 0x08;
+    private static final int BINDING_SHIFT = 4;
+
+    private final String[] mNodeIds;
+    private final NodeType[] mNodeTypes;
+    private final int[] mNodeFirstThing;
+
+    private final String[] mThingIds;
+    private final short[] mThingNode;
+    private final short[] mThingType;
+    private final byte[] mThingFlags;
+    private final String[] mBindingAddresses;
+
+    private final ThingType[] mTypes;
+    private final String[] mTypeDescriptors;
+
+    private final Map<String, Integer> mThingIndex;
+
+    private ThingInventory(Builder builder) {
+
+        int nodes = builder.mNodeIds.size();
+        mNodeIds = builder.mNodeIds.toArray(new String[nodes]);
+        mNodeTypes = builder.mNodeTypes.toArray(new NodeType[nodes]);
+        mNodeFirstThing = new int[nodes + 1];
+        for (int i = 0; i < nodes; i++) {
+            mNodeFirstThing[i] = builder.mNodeFirstThing.get(i);
+        }
+
+        int things = builder.mThingIds.size();
+        mNodeFirstThing[nodes] = things;
+        mThingIds = builder.mThingIds.toArray(new String[things]);
+        mThingNode = new short[things];
+        mThingType = new short[things];
+        mThingFlags = new byte[things];
+        mBindingAddresses = new String[things];
+        mThingIndex = new HashMap<>(things * 2);
+
+        for (int i = 0; i < things; i++) {
+            mThingNode[i] = builder.mThingNode.get(i);
+            mThingType[i] = builder.mThingType.get(i);
+            mThingFlags[i] = builder.mThingFlags.get(i);
+            mBindingAddresses[i] = builder.mBindingAddresses.get(i);
+            mThingIndex.put(mThingIds[i], i);
+        }
+
+        mTypes = builder.mTypes.toArray(new ThingType[builder.mTypes.size()]);
+        mTypeDescriptors = builder.mTypeKeys.toArray(new String[builder.mTypeKeys.size()]);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getNodeCount() {
+        return mNodeIds.length;
+    }
+
+    public String getNodeId(int node) {
+        return mNodeIds[node];
+    }
+
+    public NodeType getNodeType(int node) {
+        return mNodeTypes[node];
+    }
+
+    /**
+     * Things of a node are the indexes from getFirstThing(node) until getFirstThing(node + 1).
+     */
+    public int getFirstThing(int node) {
+        return mNodeFirstThing[node];
+    }
+
+    public int getThingCount() {
+        return mThingIds.length;
+    }
+
+    /**
+     * @return index of the thing, -1 if it is not in the inventory.
+     */
+    public int indexOf(String thingId) {
+        Integer index = mThingIndex.get(thingId);
+        return index != null ? index : -1;
+    }
+
+    public String getThingId(int thing) {
+        return mThingIds[thing];
+    }
+
+    public int getNode(int thing) {
+        return mThingNode[thing];
+    }
+
+    public ThingType getThingType(int thing) {
+        return mTypes[mThingType[thing]];
+    }
+
+    public ThingCategory getCategory(int thing) {
+        return CATEGORIES[mThingFlags[thing] & CATEGORY_MASK];
+    }
+
+    public boolean isActuator(int thing) {
+        return (mThingFlags[thing] & FLAG_ACTUATOR) != 0;
+    }
+
+    /**
+     * Lazy things are created and registered on their first data, not on connect.
+     */
+    public boolean isLazy(int thing) {
+        return (mThingFlags[thing] & FLAG_LAZY) != 0;
+    }
+
+    public Binding getBinding(int thing) {
+        return BINDINGS[(mThingFlags[thing] >> BINDING_SHIFT) & 0x03];
+    }
+
+    public String getBindingAddress(int thing) {
+        return mBindingAddresses[thing];
+    }
+
+    /**
+     * RegistrationSnapshot descriptors, every field IoT-Ignite keeps about the entity.
+     */
+    public String nodeDescriptor(int node) {
+        return RegistrationSnapshot.descriptor(mNodeIds[node], mNodeIds[node], mNodeTypes[node]);
+    }
+
+    public String thingDescriptor(int thing) {
+        return RegistrationSnapshot.descriptor(mThingIds[thing], mTypeDescriptors[mThingType[thing]],
+                getCategory(thing), isActuator(thing));
+    }
+
+    /**
+     * Collects the definition in lists and freezes it into arrays on build().
+     * Thing ids must be unique across the whole inventory.
+     */
+    public static final class Builder {
+
+        private final List<String> mNodeIds = new ArrayList<>();
+        private final List<NodeType> mNodeTypes = new ArrayList<>();
+        private final List<Integer> mNodeFirstThing = new ArrayList<>();
+
+        private final List<String> mThingIds = new ArrayList<>();
+        private final List<Short> mThingNode = new ArrayList<>();
+        private final List<Short> mThingType = new ArrayList<>();
+        private final List<Byte> mThingFlags = new ArrayList<>();
+        private final List<String> mBindingAddresses = new ArrayList<>();
+
+        private final List<ThingType> mTypes = new ArrayList<>();
+        private final List<String> mTypeKeys = new ArrayList<>();
+        private final Map<String, Short> mTypeIndex = new HashMap<>();
+        private final Set<String> mIds = new HashSet<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Start a node, following things belong to it.
+         */
+        public Builder node(String nodeId, NodeType nodeType) {
+            if (nodeId == null || mNodeIds.contains(nodeId)) {
+                throw new IllegalArgumentException("Invalid or duplicate node : " + nodeId);
+            }
+            mNodeIds.add(nodeId);
+            mNodeTypes.add(nodeType);
+            mNodeFirstThing.add(mThingIds.size());
+            return this;
+        }
+
+        public Builder thing(String thingId, String type, String vendor, ThingDataType dataType,
+                             ThingCategory category, boolean actuator) {
+
+            if (mNodeIds.isEmpty()) {
+                throw new IllegalStateException("Thing " + thingId + " defined before any node");
+            }
+            if (thingId == null || !mIds.add(thingId)) {
+                throw new IllegalArgumentException("Invalid or duplicate thing : " + thingId);
+            }
+            if (mThingIds.size() == Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many things : " + thingId);
+            }
+
+            String typeKey = type + '\u0000' + vendor + '\u0000' + dataType;
+            Short typeIndex = mTypeIndex.get(typeKey);
+            if (typeIndex == null) {
+                typeIndex = (short) mTypes.size();
+                mTypes.add(new ThingType(type, vendor, dataType));
+                mTypeKeys.add(typeKey);
+                mTypeIndex.put(typeKey, typeIndex);
+            }
+
+            mThingIds.add(thingId);
+            mThingNode.add((short) (mNodeIds.size() - 1));
+            mThingType.add(typeIndex);
+            mThingFlags.add((byte) (category.ordinal() | (actuator ? FLAG_ACTUATOR : 0)));
+            mBindingAddresses.add(null);
+            return this;
+        }
+
+        /**
+         * Open the pin as an output when the previous thing is registered.
+         */
+        public Builder gpioOutput(String pin) {
+            return bind(Binding.GPIO_OUTPUT, pin);
+        }
+
+        /**
+         * Watch the pin for debounced edges when the previous thing is registered.
+         */
+        public Builder gpioInput(String pin) {
+            return bind(Binding.GPIO_INPUT, pin);
+        }
+
+        /**
+         * Record the I2C address of the previous thing, its driver pushes data through the handler.
+         */
+        public Builder i2c(String bus, int address) {
+            return bind(Binding.I2C, bus + ":0x" + Integer.toHexString(address));
+        }
+
+        /**
+         * Create and register the previous thing on its first data instead of on connect.
+         */
+        public Builder lazy() {
+            int last = lastThing();
+            mThingFlags.set(last, (byte) (mThingFlags.get(last) | FLAG_LAZY));
+            return this;
+        }
+
+        private Builder bind(Binding binding, String address) {
+            int last = lastThing();
+            if (((mThingFlags.get(last) >> BINDING_SHIFT) & 0x03) != 0) {
+                throw new IllegalStateException("Thing " + mThingIds.get(last) + " is already bound");
+            }
+            mThingFlags.set(last, (byte) (mThingFlags.get(last) | binding.ordinal() << BINDING_SHIFT));
+            mBindingAddresses.set(last, address);
+            return this;
+        }
+
+        private int lastThing() {
+            if (mThingIds.isEmpty()) {
+                throw new IllegalStateException("No thing defined yet");
+            }
+            return mThingIds.size() - 1;
+        }
+
+        public ThingInventory build() {
+            return new ThingInventory(this);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.ardic.iot.myandroidthingsproject.log;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured log for hot callbacks.
+ *
+ * Callers only copy references into a preallocated ring of records, no message string is
+ * built on the calling thread. A background writer formats the records with a reused
+ * StringBuilder and hands them to android.util.Log. Records are dropped, and counted,
+ * when the ring is full. Every category can be switched off and every level can be sampled.
+ */
+public class EventLog {
+
+    private static final String TAG = EventLog.class.getSimpleName();
+
+    private static final long WRITER_IDLE_NANOS = 10000000L;
+    private static final int LEVELS = Log.ASSERT + 1;
+
+    /**
+     * Where formatted records go. Log.println by default.
+     */
+    public interface Writer {
+        void write(int level, String tag, String message);
+    }
+
+    /**
+     * Named group of records, usually one per callback. Disabled categories cost one volatile read.
+     */
+    public static class Category {
+
+        private final String mName;
+        private volatile boolean mEnabled = true;
+
+        private Category(String name) {
+            this.mName = name;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.mEnabled = enabled;
+        }
+
+        public boolean isEnabled() {
+            return mEnabled;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    private final String mTag;
+    private final Writer mWriter;
+    private final int mMask;
+
+    private final int[] mLevels;
+    private final Category[] mCategories;
+    private final String[] mFirst;
+    private final String[] mSecond;
+    private final Object[] mDetails;
+    private final long[] mTimestamps;
+
+    // Slot i is readable when its sequence is the claim number + 1.
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mHead = new AtomicLong();
+    private volatile long mTail;
+
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLongArray mSampleCounters = new AtomicLongArray(LEVELS);
+    private final int[] mSampleEvery = new int[LEVELS];
+    private volatile int mMinLevel = Log.VERBOSE;
+
+    private final StringBuilder mBuilder = new StringBuilder(256);
+    private Thread mWriterThread;
+    private volatile boolean mRunning;
+
+    public EventLog(String tag, int capacity) {
+        this(tag, capacity, new Writer() {
+            @Override
+            public void write(int level, String tag, String message) {
+                Log.println(level, tag, message);
+            }
+        });
+    }
+
+    public EventLog(String tag, int capacity, Writer writer) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two : " + capacity);
+        }
+        this.mTag = tag;
+        this.mWriter = writer;
+        this.mMask = capacity - 1;
+
+        mLevels = new int[capacity];
+        mCategories = new Category[capacity];
+        mFirst = new String[capacity];
+        mSecond = new String[capacity];
+        mDetails = new Object[capacity];
+        mTimestamps = new long[capacity];
+        mSequences = new AtomicLongArray(capacity);
+
+        for (int i = 0; i < LEVELS; i++) {
+            mSampleEvery[i] = 1;
+        }
+    }
+
+    public Category category(String name) {
+        return new Category(name);
+    }
+
+    /**
+     * Records below this level are discarded on the calling thread.
+     */
+    public void setMinLevel(int level) {
+        this.mMinLevel = level;
+    }
+
+    /**
+     * Keep only one of every n records of the level. 1 keeps all.
+     */
+    public void setSampling(int level, int every) {
+        if (every < 1) {
+            throw new IllegalArgumentException("Invalid sampling : " + every);
+        }
+        mSampleEvery[level] = every;
+    }
+
+    /**
+     * Record an event. Formatting, including detail.toString(), happens on the writer thread,
+     * so detail must not be modified after it is logged.
+     *
+     * @return false if the record was filtered, sampled out or dropped.
+     */
+    public boolean log(int level, Category category, String first, String second, Object detail) {
+
+        if (level < mMinLevel || !category.mEnabled) {
+            return false;
+        }
+
+        int every = mSampleEvery[level];
+        if (every > 1 && mSampleCounters.getAndIncrement(level) % every != 0) {
+            return false;
+        }
+
+        long claim;
+        do {
+            claim = mHead.get();
+            if (claim - mTail > mMask) {
+                mDropped.incrementAndGet();
+                return false;
+            }
+        } while (!mHead.compareAndSet(claim, claim + 1));
+
+        int index = (int) claim & mMask;
+        mLevels[index] = level;
+        mCategories[index] = category;
+        mFirst[index] = first;
+        mSecond[index] = second;
+        mDetails[index] = detail;
+        mTimestamps[index] = System.currentTimeMillis();
+
+        // Publish after the slot is written.
+        mSequences.lazySet(index, claim + 1);
+        return true;
+    }
+
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    public synchronized void start() {
+
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long reportedDrops = 0;
+                while (mRunning) {
+                    if (drain() == 0) {
+                        LockSupport.parkNanos(this, WRITER_IDLE_NANOS);
+                    }
+                    long dropped = mDropped.get();
+                    if (dropped != reportedDrops) {
+                        mWriter.write(Log.WARN, TAG, (dropped - reportedDrops) + " log records dropped");
+                        reportedDrops = dropped;
+                    }
+                }
+                drain();
+            }
+        }, "EventLogWriter");
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+    }
+
+    public synchronized void stop() {
+        mRunning = false;
+        if (mWriterThread != null) {
+            LockSupport.unpark(mWriterThread);
+            mWriterThread = null;
+        }
+    }
+
+    /**
+     * Write every published record. Called by the writer thread only.
+     *
+     * @return number of records written.
+     */
+    int drain() {
+
+        int written = 0;
+        long tail = mTail;
+
+        while (true) {
+            int index = (int) tail & mMask;
+            if (mSequences.get(index) != tail + 1) {
+                break;
+            }
+
+            StringBuilder builder = mBuilder;
+            builder.setLength(0);
+            builder.append(mCategories[index].mName)
+                    .append(" [").append(mFirst[index])
+                    .append("][").append(mSecond[index])
+                    .append("][").append(mDetails[index])
+                    .append("] @").append(mTimestamps[index]);
+
+            int level = mLevels[index];
+
+            // Release references before the slot is handed back to producers.
+            mCategories[index] = null;
+            mFirst[index] = null;
+            mSecond[index] = null;
+            mDetails[index] = null;
+
+            tail++;
+            mTail = tail;
+            written++;
+
+            mWriter.write(level, mTag, builder.toString());
+        }
+
+        return written;
+    }
+}
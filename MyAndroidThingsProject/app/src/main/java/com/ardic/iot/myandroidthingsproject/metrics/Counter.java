@@ -0,0 +1,27 @@
+package com.ardic.iot.myandroidthingsproject.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter. Increments from many threads hit striped cells instead of one
+ * contended word, reads sum the cells.
+ */
+public final class Counter {
+
+    private final LongAdder mValue = new LongAdder();
+
+    Counter() {
+    }
+
+    public void inc() {
+        mValue.increment();
+    }
+
+    public void add(long delta) {
+        mValue.add(delta);
+    }
+
+    public long get() {
+        return mValue.sum();
+    }
+}
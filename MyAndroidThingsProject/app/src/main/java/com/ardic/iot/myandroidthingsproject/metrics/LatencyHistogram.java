@@ -0,0 +1,92 @@
+package com.ardic.iot.myandroidthingsproject.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two microsecond buckets : bucket i counts
+ * (2^(i-1), 2^i] us, bucket 0 everything up to 1us, the last one everything above 2^(BUCKETS-2) us
+ * (about 67s). Recording is one bucket increment and one sum add, no allocation, no lock.
+ */
+public final class LatencyHistogram {
+
+    static final int BUCKETS = 28;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder mSumNanos = new LongAdder();
+
+    LatencyHistogram() {
+    }
+
+    public void record(long nanos) {
+        long micros = Math.max(0, (nanos + 999) / 1000);
+        mBuckets.incrementAndGet(bucket(micros));
+        mSumNanos.add(Math.max(0, nanos));
+    }
+
+    /**
+     * Record the time since startNanos, a System.nanoTime() value.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int bucket(long micros) {
+        return micros <= 1 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+    }
+
+    /**
+     * Upper bound of the bucket in microseconds, Long.MAX_VALUE for the last one.
+     */
+    static long upperBoundMicros(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    long getBucket(int bucket) {
+        return mBuckets.get(bucket);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mBuckets.get(i);
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return mSumNanos.sum();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile in microseconds, 0 if empty.
+     * Long.MAX_VALUE if it is in the last bucket.
+     */
+    public long percentileMicros(double percentile) {
+
+        long rank = (long) Math.ceil(getCount() * percentile);
+        if (rank == 0) {
+            return 0;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return upperBoundMicros(i);
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        long count = getCount();
+        if (count == 0) {
+            return "count=0";
+        }
+        return "count=" + count
+                + " mean=" + getSumNanos() / count / 1000 + "us"
+                + " p50<=" + percentileMicros(0.5) + "us"
+                + " p99<=" + percentileMicros(0.99) + "us";
+    }
+}
@@ -0,0 +1,160 @@
+package com.ardic.iot.myandroidthingsproject.metrics;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+
+/**
+ * Minimal HTTP endpoint serving GET /metrics in the Prometheus text format.
+ *
+ * One thread, one request per connection, so a scraper can never make it use more than a
+ * socket and a string buffer. Anything but GET /metrics gets 404. Binds to loopback unless
+ * another address is given.
+ */
+public class MetricsHttpServer {
+
+    private static final String TAG = MetricsHttpServer.class.getSimpleName();
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final int READ_TIMEOUT = 2000;
+    private static final int MAX_HEADER_LINES = 100;
+
+    private final MetricsRegistry mRegistry;
+    private final InetAddress mBindAddress;
+    private final int mPort;
+
+    private ServerSocket mServerSocket;
+    private Thread mThread;
+
+    /**
+     * Serve on the loopback interface only.
+     *
+     * @param port TCP port, 0 picks a free one.
+     */
+    public MetricsHttpServer(MetricsRegistry registry, int port) {
+        this(registry, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * @param bindAddress local address to listen on, the wildcard address serves every interface.
+     */
+    public MetricsHttpServer(MetricsRegistry registry, InetAddress bindAddress, int port) {
+        this.mRegistry = registry;
+        this.mBindAddress = bindAddress;
+        this.mPort = port;
+    }
+
+    public synchronized void start() throws IOException {
+
+        if (mServerSocket != null) {
+            return;
+        }
+
+        final ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(mBindAddress, mPort));
+        mServerSocket = serverSocket;
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve(serverSocket);
+            }
+        }, "MetricsHttp");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+
+        if (mServerSocket == null) {
+            return;
+        }
+
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Close : " + e);
+        }
+        mServerSocket = null;
+        mThread = null;
+    }
+
+    /**
+     * @return bound port, -1 if not started.
+     */
+    public synchronized int getPort() {
+        return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+    }
+
+    private void serve(ServerSocket serverSocket) {
+
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(READ_TIMEOUT);
+                handle(socket);
+            } catch (SocketException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.e(TAG, "Request : " + e);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Request : " + e);
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ISO_8859_1));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+
+        // Headers are not needed, read them so the client sees a complete exchange.
+        String line;
+        int headers = 0;
+        while ((line = reader.readLine()) != null && !line.isEmpty() && ++headers < MAX_HEADER_LINES) {
+            // Skip.
+        }
+
+        String[] parts = requestLine.split(" ");
+        String path = parts.length > 1 ? parts[1] : "";
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        OutputStream out = socket.getOutputStream();
+        if (parts.length > 1 && "GET".equals(parts[0]) && PATH.equals(path)) {
+            StringBuilder body = new StringBuilder(8192);
+            mRegistry.write(body);
+            respond(out, "200 OK", CONTENT_TYPE, body.toString().getBytes(UTF_8));
+        } else {
+            respond(out, "404 Not Found", "text/plain; charset=utf-8", "Not found\n".getBytes(UTF_8));
+        }
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, byte[] body) throws IOException {
+
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(head.getBytes(ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+}
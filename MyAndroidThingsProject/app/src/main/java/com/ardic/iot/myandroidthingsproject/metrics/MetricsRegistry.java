@@ -0,0 +1,199 @@
+package com.ardic.iot.myandroidthingsproject.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Named counters, gauges and latency histograms of the gateway, rendered in the Prometheus
+ * text format by {@link #write(StringBuilder)}.
+ *
+ * Look metrics up once and keep them in a field, hot paths then only touch the metric itself.
+ * A name with labels is one series, the same name with other labels is another series of the
+ * same family. Thread safe.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    /**
+     * Read on scrape, for values kept elsewhere (queue sizes, counters of other classes).
+     */
+    public interface Gauge {
+        double value();
+    }
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        private final String mText;
+
+        Type(String text) {
+            this.mText = text;
+        }
+    }
+
+    private static final class Family {
+
+        private final String mName;
+        private final String mHelp;
+        private final Type mType;
+        private final ConcurrentMap<String, Object> mSeries = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, Type type) {
+            this.mName = name;
+            this.mHelp = help;
+            this.mType = type;
+        }
+    }
+
+    private final ConcurrentMap<String, Family> mFamilies = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registry shared by the handler, the ESP listeners and the metrics endpoint.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param labels label name and value pairs.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        Family family = family(name, help, Type.COUNTER);
+        Object series = family.mSeries.get(labels(labels));
+        if (series == null) {
+            Object created = new Counter();
+            series = family.mSeries.putIfAbsent(labels(labels), created);
+            series = series != null ? series : created;
+        }
+        return (Counter) series;
+    }
+
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        Family family = family(name, help, Type.HISTOGRAM);
+        Object series = family.mSeries.get(labels(labels));
+        if (series == null) {
+            Object created = new LatencyHistogram();
+            series = family.mSeries.putIfAbsent(labels(labels), created);
+            series = series != null ? series : created;
+        }
+        return (LatencyHistogram) series;
+    }
+
+    /**
+     * Register a gauge, replacing the previous gauge of the same series.
+     */
+    public void gauge(String name, String help, Gauge gauge, String... labels) {
+        family(name, help, Type.GAUGE).mSeries.put(labels(labels), gauge);
+    }
+
+    /**
+     * Append every metric in the Prometheus text exposition format 0.0.4.
+     */
+    public void write(StringBuilder out) {
+
+        for (Family family : mFamilies.values()) {
+
+            out.append("# HELP ").append(family.mName).append(' ').append(escapeHelp(family.mHelp)).append('\n');
+            out.append("# TYPE ").append(family.mName).append(' ').append(family.mType.mText).append('\n');
+
+            for (Map.Entry<String, Object> series : family.mSeries.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+
+                if (metric instanceof Counter) {
+                    sample(out, family.mName, labels, null, ((Counter) metric).get());
+                } else if (metric instanceof Gauge) {
+                    sample(out, family.mName, labels, null, ((Gauge) metric).value());
+                } else {
+                    writeHistogram(out, family.mName, labels, (LatencyHistogram) metric);
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+
+        // Cumulative buckets, the count is their sum so +Inf and _count always agree.
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            cumulative += histogram.getBucket(i);
+            long upper = LatencyHistogram.upperBoundMicros(i);
+            String le = upper == Long.MAX_VALUE ? "+Inf" : Double.toString(upper / 1e6);
+            sample(out, name + "_bucket", labels, "le=\"" + le + "\"", cumulative);
+        }
+        sample(out, name + "_sum", labels, null, histogram.getSumNanos() / 1e9);
+        sample(out, name + "_count", labels, null, cumulative);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extraLabel, double value) {
+
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private Family family(String name, String help, Type type) {
+
+        Family family = mFamilies.get(name);
+        if (family == null) {
+            Family created = new Family(name, help, type);
+            family = mFamilies.putIfAbsent(name, created);
+            family = family != null ? family : created;
+        }
+        if (family.mType != type) {
+            throw new IllegalArgumentException(name + " is a " + family.mType.mText + ", not a " + type.mText);
+        }
+        return family;
+    }
+
+    /**
+     * Rendered label set, the key of a series : name="value",name="value".
+     */
+    private static String labels(String... labels) {
+
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name / value pairs");
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    builder.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    builder.append("\\n");
+                } else {
+                    builder.append(ch);
+                }
+            }
+            builder.append('"');
+        }
+        return builder.toString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,48 @@
+package com.ardic.iot.myandroidthingsproject.reconnect;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter. The first attempt waits a random time up to
+ * firstRetry so short blips recover fast, later attempts a random time between zero and
+ * base * 2^(attempt - 2), capped, so a fleet of gateways does not reconnect together.
+ */
+public class ExponentialBackoffPolicy implements ReconnectPolicy {
+
+    public static final long DEFAULT_FIRST_RETRY = 1000L;
+    public static final long DEFAULT_BASE = 2000L;
+    public static final long DEFAULT_CAP = 5 * 60 * 1000L;
+
+    private final long mFirstRetryMillis;
+    private final long mBaseMillis;
+    private final long mCapMillis;
+    private final Random mRandom;
+
+    public ExponentialBackoffPolicy() {
+        this(DEFAULT_FIRST_RETRY, DEFAULT_BASE, DEFAULT_CAP, new Random());
+    }
+
+    public ExponentialBackoffPolicy(long firstRetryMillis, long baseMillis, long capMillis, Random random) {
+        if (firstRetryMillis < 0 || baseMillis <= 0 || capMillis < baseMillis) {
+            throw new IllegalArgumentException("Invalid backoff : " + firstRetryMillis + "/" + baseMillis + "/" + capMillis);
+        }
+        this.mFirstRetryMillis = firstRetryMillis;
+        this.mBaseMillis = baseMillis;
+        this.mCapMillis = capMillis;
+        this.mRandom = random;
+    }
+
+    @Override
+    public long nextDelay(int attempt) {
+
+        if (attempt <= 1) {
+            return (long) (mRandom.nextDouble() * (mFirstRetryMillis + 1));
+        }
+
+        // Shift is bounded so the ceiling can not overflow before it is capped.
+        int shift = Math.min(attempt - 2, 30);
+        long ceiling = Math.min(mCapMillis, mBaseMillis << shift);
+
+        return (long) (mRandom.nextDouble() * (ceiling + 1));
+    }
+}
@@ -0,0 +1,18 @@
+package com.ardic.iot.myandroidthingsproject.reconnect;
+
+/**
+ * Same delay before every attempt.
+ */
+public class FixedIntervalPolicy implements ReconnectPolicy {
+
+    private final long mIntervalMillis;
+
+    public FixedIntervalPolicy(long intervalMillis) {
+        this.mIntervalMillis = intervalMillis;
+    }
+
+    @Override
+    public long nextDelay(int attempt) {
+        return mIntervalMillis;
+    }
+}
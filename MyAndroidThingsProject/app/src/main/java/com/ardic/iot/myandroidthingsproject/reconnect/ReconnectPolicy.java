@@ -0,0 +1,13 @@
+package com.ardic.iot.myandroidthingsproject.reconnect;
+
+/**
+ * Decides how long to wait before the next IoT-Ignite reconnect attempt.
+ */
+public interface ReconnectPolicy {
+
+    /**
+     * @param attempt 1 for the first attempt after a disconnect.
+     * @return delay in milliseconds before the attempt.
+     */
+    long nextDelay(int attempt);
+}
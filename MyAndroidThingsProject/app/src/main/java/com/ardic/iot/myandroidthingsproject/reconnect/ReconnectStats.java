@@ -0,0 +1,93 @@
+package com.ardic.iot.myandroidthingsproject.reconnect;
+
+import com.ardic.iot.myandroidthingsproject.metrics.Counter;
+import com.ardic.iot.myandroidthingsproject.metrics.LatencyHistogram;
+import com.ardic.iot.myandroidthingsproject.metrics.MetricsRegistry;
+
+/**
+ * Counters and time to reconnect histogram of IoT-Ignite reconnects, exported by the
+ * given metrics registry. Attempts per reconnect are the ratio of the attempt and
+ * reconnect counters, attempts of the ongoing outage are a gauge.
+ */
+public class ReconnectStats {
+
+    private final Counter mDisconnects;
+    private final Counter mReconnects;
+    private final Counter mAttempts;
+    private final LatencyHistogram mTimeToReconnect;
+
+    private long mDisconnectedAt = -1;
+    private int mCurrentAttempts;
+
+    public ReconnectStats(MetricsRegistry registry) {
+        mDisconnects = registry.counter("gateway_ignite_disconnects_total", "IoT-Ignite disconnect callbacks.");
+        mReconnects = registry.counter("gateway_ignite_reconnects_total", "IoT-Ignite connections after a disconnect.");
+        mAttempts = registry.counter("gateway_ignite_reconnect_attempts_total", "IoT-Ignite reconnect attempts.");
+        mTimeToReconnect = registry.histogram("gateway_ignite_reconnect_seconds",
+                "Time from the first disconnect to the next connection.");
+        registry.gauge("gateway_ignite_pending_reconnect_attempts", "Reconnect attempts of the ongoing outage.",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public double value() {
+                        return getPendingAttempts();
+                    }
+                });
+    }
+
+    public synchronized void onDisconnected(long nowMillis) {
+        mDisconnects.inc();
+        if (mDisconnectedAt < 0) {
+            mDisconnectedAt = nowMillis;
+            mCurrentAttempts = 0;
+        }
+    }
+
+    public synchronized void onAttempt() {
+        mAttempts.inc();
+        mCurrentAttempts++;
+    }
+
+    /**
+     * @return time since the disconnect in milliseconds, -1 for the first connection.
+     */
+    public synchronized long onConnected(long nowMillis) {
+
+        if (mDisconnectedAt < 0) {
+            return -1;
+        }
+
+        long elapsed = nowMillis - mDisconnectedAt;
+        mReconnects.inc();
+        mTimeToReconnect.record(elapsed * 1000000L);
+
+        mDisconnectedAt = -1;
+        mCurrentAttempts = 0;
+        return elapsed;
+    }
+
+    public long getDisconnects() {
+        return mDisconnects.get();
+    }
+
+    public long getReconnects() {
+        return mReconnects.get();
+    }
+
+    public long getAttempts() {
+        return mAttempts.get();
+    }
+
+    public synchronized int getPendingAttempts() {
+        return mCurrentAttempts;
+    }
+
+    public LatencyHistogram getTimeToReconnect() {
+        return mTimeToReconnect;
+    }
+
+    @Override
+    public String toString() {
+        return "disconnects=" + getDisconnects() + " reconnects=" + getReconnects() + " attempts=" + getAttempts()
+                + " timeToReconnect=" + mTimeToReconnect;
+    }
+}
@@ -0,0 +1,296 @@
+package com.ardic.iot.myandroidthingsproject.registration;
+
+import android.util.Log;
+
+import com.ardic.android.iotignite.nodes.Node;
+import com.ardic.android.iotignite.things.Thing;
+import com.ardic.iot.myandroidthingsproject.metrics.LatencyHistogram;
+import com.ardic.iot.myandroidthingsproject.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers nodes and their things on IoT-Ignite concurrently.
+ * Independent nodes are registered in parallel, things of a node are registered in
+ * parallel as soon as their parent node is registered. Every registration is timed.
+ *
+ * With a RegistrationSnapshot, nodes and things added with a descriptor which was registered
+ * before are only created and marked connected, neither isRegistered() nor register() is
+ * called (warm start). A descriptor differing from the recorded one is always registered
+ * again, even if IoT-Ignite still reports the old registration.
+ */
+public class RegistrationPipeline {
+
+    private static final String TAG = RegistrationPipeline.class.getSimpleName();
+
+    /**
+     * Creates the node object. Called on a pipeline thread.
+     */
+    public interface NodeStep {
+        Node create();
+    }
+
+    /**
+     * Creates the thing object under its registered node and sets up whatever the thing
+     * needs locally (GPIO etc.) after it is registered. Called on a pipeline thread.
+     */
+    public interface ThingStep {
+        Thing create(Node node);
+
+        void onRegistered(Thing thing);
+    }
+
+    /**
+     * Registration duration of a node or thing.
+     */
+    public static class Timing {
+
+        public final String id;
+        public final boolean registered;
+        public final boolean warm;
+        public final long millis;
+
+        private Timing(String id, boolean registered, boolean warm, long millis) {
+            this.id = id;
+            this.registered = registered;
+            this.warm = warm;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return id + (!registered ? " failed after " : warm ? " refreshed in " : " registered in ") + millis + "ms";
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    private final RegistrationSnapshot mSnapshot;
+    private final List<NodeEntry> mNodes = new ArrayList<>();
+    private final List<Timing> mTimings = Collections.synchronizedList(new ArrayList<Timing>());
+
+    private static final String REGISTRATION_SECONDS = "gateway_registration_seconds";
+    private static final String REGISTRATION_HELP = "Duration of node and thing registration, warm when the snapshot had it.";
+    private final LatencyHistogram mNodeLatency = MetricsRegistry.getDefault()
+            .histogram(REGISTRATION_SECONDS, REGISTRATION_HELP, "entity", "node", "warm", "false");
+    private final LatencyHistogram mWarmNodeLatency = MetricsRegistry.getDefault()
+            .histogram(REGISTRATION_SECONDS, REGISTRATION_HELP, "entity", "node", "warm", "true");
+    private final LatencyHistogram mThingLatency = MetricsRegistry.getDefault()
+            .histogram(REGISTRATION_SECONDS, REGISTRATION_HELP, "entity", "thing", "warm", "false");
+    private final LatencyHistogram mWarmThingLatency = MetricsRegistry.getDefault()
+            .histogram(REGISTRATION_SECONDS, REGISTRATION_HELP, "entity", "thing", "warm", "true");
+    private CountDownLatch mDone;
+
+    public RegistrationPipeline(ExecutorService executor) {
+        this(executor, null);
+    }
+
+    public RegistrationPipeline(ExecutorService executor, RegistrationSnapshot snapshot) {
+        this.mExecutor = executor;
+        this.mSnapshot = snapshot;
+    }
+
+    public NodeEntry addNode(String nodeId, NodeStep step) {
+        return addNode(nodeId, null, step);
+    }
+
+    /**
+     * @param descriptor RegistrationSnapshot.descriptor() of the node, null to always register.
+     */
+    public NodeEntry addNode(String nodeId, String descriptor, NodeStep step) {
+        NodeEntry entry = new NodeEntry(nodeId, descriptor, step);
+        mNodes.add(entry);
+        return entry;
+    }
+
+    /**
+     * Start every registration and wait until all of them are finished.
+     *
+     * @return timings of finished registrations. Registrations still running after the
+     * timeout are not included.
+     */
+    public List<Timing> run(long timeoutMillis) throws InterruptedException {
+
+        int tasks = 0;
+        for (NodeEntry node : mNodes) {
+            tasks += 1 + node.mThings.size();
+        }
+        mDone = new CountDownLatch(tasks);
+
+        for (final NodeEntry node : mNodes) {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    registerNode(node);
+                }
+            }, 1 + node.mThings.size());
+        }
+
+        if (!mDone.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            Log.e(TAG, "Registration timed out, " + mDone.getCount() + " registrations pending");
+        }
+
+        synchronized (mTimings) {
+            for (Timing timing : mTimings) {
+                Log.i(TAG, timing.toString());
+            }
+            return new ArrayList<>(mTimings);
+        }
+    }
+
+    private void registerNode(NodeEntry entry) {
+
+        long start = System.nanoTime();
+        Node node = null;
+        boolean registered = false;
+        String key = RegistrationSnapshot.nodeKey(entry.mNodeId);
+        boolean warm = isCurrent(key, entry.mDescriptor);
+        boolean changed = isChanged(key, entry.mDescriptor);
+
+        try {
+            node = entry.mStep.create();
+
+            if (node != null && (warm || (!changed && node.isRegistered()) || node.register())) {
+                node.setConnected(true, "");
+                registered = true;
+                record(key, entry.mDescriptor);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Node registration failed " + entry.mNodeId + " : " + e);
+            forget(key);
+        }
+
+        (warm ? mWarmNodeLatency : mNodeLatency).recordSince(start);
+        mTimings.add(new Timing(entry.mNodeId, registered, warm, elapsedMillis(start)));
+        mDone.countDown();
+
+        if (!registered) {
+            // Things of an unregistered node can not be registered.
+            for (int i = 0; i < entry.mThings.size(); i++) {
+                mDone.countDown();
+            }
+            return;
+        }
+
+        final Node registeredNode = node;
+        final String nodeId = entry.mNodeId;
+
+        for (final ThingEntry thing : entry.mThings) {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    registerThing(nodeId, registeredNode, thing);
+                }
+            }, 1);
+        }
+    }
+
+    private void registerThing(String nodeId, Node node, ThingEntry entry) {
+
+        long start = System.nanoTime();
+        boolean registered = false;
+        String key = RegistrationSnapshot.thingKey(nodeId, entry.mThingId);
+        boolean warm = isCurrent(key, entry.mDescriptor);
+        boolean changed = isChanged(key, entry.mDescriptor);
+
+        try {
+            Thing thing = entry.mStep.create(node);
+
+            if (thing != null && (warm || (!changed && thing.isRegistered()) || thing.register())) {
+                thing.setConnected(true, "");
+                registered = true;
+                record(key, entry.mDescriptor);
+                entry.mStep.onRegistered(thing);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Thing registration failed " + entry.mThingId + " : " + e);
+            forget(key);
+        } finally {
+            (warm ? mWarmThingLatency : mThingLatency).recordSince(start);
+            mTimings.add(new Timing(entry.mThingId, registered, warm, elapsedMillis(start)));
+            mDone.countDown();
+        }
+    }
+
+    private boolean isCurrent(String key, String descriptor) {
+        return mSnapshot != null && mSnapshot.isCurrent(key, descriptor);
+    }
+
+    private boolean isChanged(String key, String descriptor) {
+        return mSnapshot != null && mSnapshot.isChanged(key, descriptor);
+    }
+
+    private void record(String key, String descriptor) {
+        if (mSnapshot != null) {
+            mSnapshot.record(key, descriptor);
+        }
+    }
+
+    /**
+     * A failed warm start falls back to a full registration.
+     */
+    private void forget(String key) {
+        if (mSnapshot != null) {
+            mSnapshot.remove(key);
+        }
+    }
+
+    private void submit(Runnable task, int taskCount) {
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Registration rejected : " + e);
+            for (int i = 0; i < taskCount; i++) {
+                mDone.countDown();
+            }
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    public static class NodeEntry {
+
+        private final String mNodeId;
+        private final String mDescriptor;
+        private final NodeStep mStep;
+        private final List<ThingEntry> mThings = new ArrayList<>();
+
+        private NodeEntry(String nodeId, String descriptor, NodeStep step) {
+            this.mNodeId = nodeId;
+            this.mDescriptor = descriptor;
+            this.mStep = step;
+        }
+
+        public NodeEntry addThing(String thingId, ThingStep step) {
+            return addThing(thingId, null, step);
+        }
+
+        /**
+         * @param descriptor RegistrationSnapshot.descriptor() of the thing, null to always register.
+         */
+        public NodeEntry addThing(String thingId, String descriptor, ThingStep step) {
+            mThings.add(new ThingEntry(thingId, descriptor, step));
+            return this;
+        }
+    }
+
+    private static class ThingEntry {
+
+        private final String mThingId;
+        private final String mDescriptor;
+        private final ThingStep mStep;
+
+        private ThingEntry(String thingId, String descriptor, ThingStep step) {
+            this.mThingId = thingId;
+            this.mDescriptor = descriptor;
+            this.mStep = step;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.ardic.iot.myandroidthingsproject.registration;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+/**
+ * Persisted content hashes of the nodes and things registered in earlier sessions.
+ *
+ * A node or thing whose descriptor (ids, thing type, category, actuator flag) hashes to the
+ * stored value was registered before with the same content, so on reconnect it only needs its
+ * connection state refreshed. A node or thing whose stored hash differs was registered with
+ * other content and has to be registered again. Entries are removed when IoT-Ignite
+ * unregisters them and are recorded again after the next successful register(). Thread safe.
+ */
+public class RegistrationSnapshot {
+
+    private static final String TAG = RegistrationSnapshot.class.getSimpleName();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String NODE_PREFIX = "node:";
+    private static final String THING_PREFIX = "thing:";
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Part of every descriptor, change it to force a full registration once.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private final File mFile;
+    private final Properties mHashes = new Properties();
+    private boolean mDirty;
+
+    public RegistrationSnapshot(File file) {
+        this.mFile = file;
+        load();
+    }
+
+    public static String nodeKey(String nodeId) {
+        return NODE_PREFIX + nodeId;
+    }
+
+    public static String thingKey(String nodeId, String thingId) {
+        return THING_PREFIX + nodeId + SEPARATOR + thingId;
+    }
+
+    /**
+     * Content hash of the given registration fields.
+     */
+    public static String descriptor(Object... fields) {
+
+        StringBuilder builder = new StringBuilder().append(FORMAT_VERSION);
+        for (Object field : fields) {
+            builder.append(SEPARATOR).append(field);
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(builder.toString().getBytes(UTF8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-1, keep working without warm start anyway.
+            Log.e(TAG, "SHA-1 : " + e);
+            return builder.toString();
+        }
+    }
+
+    /**
+     * @return true if the entity was registered with the same descriptor before.
+     */
+    public synchronized boolean isCurrent(String key, String descriptor) {
+        return descriptor != null && descriptor.equals(mHashes.getProperty(key));
+    }
+
+    /**
+     * @return true if the entity was registered before with a different descriptor.
+     */
+    public synchronized boolean isChanged(String key, String descriptor) {
+        String stored = mHashes.getProperty(key);
+        return stored != null && !stored.equals(descriptor);
+    }
+
+    public synchronized void record(String key, String descriptor) {
+        if (descriptor != null && !descriptor.equals(mHashes.setProperty(key, descriptor))) {
+            mDirty = true;
+        }
+    }
+
+    public synchronized void remove(String key) {
+        if (mHashes.remove(key) != null) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Remove a node and all of its things.
+     */
+    public synchronized void removeNode(String nodeId) {
+        remove(nodeKey(nodeId));
+        String thingPrefix = thingKey(nodeId, "");
+        for (String key : new ArrayList<>(mHashes.stringPropertyNames())) {
+            if (key.startsWith(thingPrefix)) {
+                remove(key);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return mHashes.size();
+    }
+
+    /**
+     * Write the snapshot if it changed since the last save.
+     */
+    public synchronized void save() throws IOException {
+
+        if (!mDirty) {
+            return;
+        }
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            mHashes.store(out, null);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Rename failed : " + temp + " -> " + mFile);
+        }
+        mDirty = false;
+    }
+
+    private void load() {
+
+        if (!mFile.exists()) {
+            return;
+        }
+
+        try (InputStream in = new FileInputStream(mFile)) {
+            mHashes.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            // Start cold, every entity is registered again.
+            Log.e(TAG, "Load : " + e);
+            mHashes.clear();
+        }
+    }
+}
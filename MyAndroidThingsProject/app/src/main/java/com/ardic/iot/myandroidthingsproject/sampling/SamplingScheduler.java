@@ -0,0 +1,260 @@
+package com.ardic.iot.myandroidthingsproject.sampling;
+
+import android.util.Log;
+
+import com.ardic.iot.timer.TimingWheel;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls local things at their configured data reading frequency on one shared timer thread.
+ * Their timers live in a timing wheel, so rescheduling thousands of things stays O(1) each.
+ *
+ * A thing is sampled while it has both a sampler (how to read it, set when its hardware is
+ * opened) and a period (from its ThingConfiguration), in either order. Sampling is fixed rate :
+ * a slow sampler or a stalled thread skips the missed periods instead of sampling in a burst.
+ * Samplers run on the timer thread and should only do short local reads.
+ */
+public class SamplingScheduler {
+
+    private static final String TAG = SamplingScheduler.class.getSimpleName();
+
+    public interface Sampler {
+        /**
+         * @return current value of the thing, null to skip this period.
+         */
+        Object sample(String thingId) throws IOException;
+    }
+
+    public interface Sink {
+        /**
+         * Called on the timer thread.
+         */
+        void onSample(String thingId, Object value);
+    }
+
+    private static final class Entry {
+
+        final String thingId;
+        final Sampler sampler;
+        final long periodMillis;
+        long dueMillis;
+        TimingWheel.Timeout<Entry> timeout;
+        boolean cancelled;
+
+        Entry(String thingId, Sampler sampler, long periodMillis, long dueMillis) {
+            this.thingId = thingId;
+            this.sampler = sampler;
+            this.periodMillis = periodMillis;
+            this.dueMillis = dueMillis;
+        }
+    }
+
+    private final Sink mSink;
+
+    private final Object mLock = new Object();
+    private final Map<String, Sampler> mSamplers = new HashMap<>();
+    private final Map<String, Long> mPeriods = new HashMap<>();
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final TimingWheel<Entry> mWheel = new TimingWheel<>(now());
+    private final ArrayDeque<Entry> mExpired = new ArrayDeque<>();
+
+    private Thread mThread;
+    private long mSamples;
+    private long mSkippedPeriods;
+
+    public SamplingScheduler(Sink sink) {
+        this.mSink = sink;
+    }
+
+    /**
+     * Set how a thing is read, replacing the previous sampler.
+     */
+    public void setSampler(String thingId, Sampler sampler) {
+        synchronized (mLock) {
+            mSamplers.put(thingId, sampler);
+            update(thingId);
+        }
+    }
+
+    public void removeSampler(String thingId) {
+        synchronized (mLock) {
+            mSamplers.remove(thingId);
+            update(thingId);
+        }
+    }
+
+    /**
+     * Sample the thing every periodMillis, rescheduling it if it is already sampled.
+     * Zero or negative period stops polling, the thing is then only reported on change.
+     */
+    public void schedule(String thingId, long periodMillis) {
+        synchronized (mLock) {
+            if (periodMillis > 0) {
+                mPeriods.put(thingId, periodMillis);
+            } else {
+                mPeriods.remove(thingId);
+            }
+            update(thingId);
+        }
+    }
+
+    public void cancel(String thingId) {
+        schedule(thingId, 0);
+    }
+
+    /**
+     * @return sampling period of the thing, 0 if it is not polled.
+     */
+    public long getPeriod(String thingId) {
+        synchronized (mLock) {
+            Entry entry = mEntries.get(thingId);
+            return entry != null ? entry.periodMillis : 0;
+        }
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            if (mThread != null) {
+                return;
+            }
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "Sampling");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stop the timer thread. Samplers and periods are kept for the next start().
+     */
+    public void stop() {
+
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+            mThread = null;
+            mLock.notifyAll();
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public long getSamples() {
+        synchronized (mLock) {
+            return mSamples;
+        }
+    }
+
+    public long getSkippedPeriods() {
+        synchronized (mLock) {
+            return mSkippedPeriods;
+        }
+    }
+
+    /**
+     * Next due time at the original phase, skipping the periods which already passed.
+     */
+    static long nextDue(long dueMillis, long periodMillis, long nowMillis) {
+        if (nowMillis < dueMillis) {
+            return dueMillis + periodMillis;
+        }
+        return dueMillis + ((nowMillis - dueMillis) / periodMillis + 1) * periodMillis;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private void update(String thingId) {
+
+        Sampler sampler = mSamplers.get(thingId);
+        Long period = mPeriods.get(thingId);
+
+        Entry previous = mEntries.remove(thingId);
+        if (previous != null) {
+            // May already be expired and waiting in mExpired.
+            previous.cancelled = true;
+            mWheel.cancel(previous.timeout);
+        }
+
+        if (sampler != null && period != null) {
+            Entry entry = new Entry(thingId, sampler, period, now() + period);
+            entry.timeout = mWheel.schedule(entry, entry.dueMillis);
+            mEntries.put(thingId, entry);
+        }
+        mLock.notifyAll();
+    }
+
+    private void loop() {
+
+        Thread self = Thread.currentThread();
+        Entry entry;
+        while ((entry = takeDue(self)) != null) {
+
+            Object value;
+            try {
+                value = entry.sampler.sample(entry.thingId);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, entry.thingId + " could not be sampled : " + e);
+                continue;
+            }
+
+            if (value != null) {
+                try {
+                    mSink.onSample(entry.thingId, value);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Sample sink failed : " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the next due entry and move it to its next period. Null when stopped.
+     */
+    private Entry takeDue(Thread self) {
+
+        synchronized (mLock) {
+            while (mThread == self) {
+
+                long now = now();
+                mWheel.advance(now, mExpired);
+
+                Entry head;
+                while ((head = mExpired.poll()) != null) {
+                    if (head.cancelled) {
+                        continue;
+                    }
+                    mSkippedPeriods += Math.max(0, now - head.dueMillis) / head.periodMillis;
+                    mSamples++;
+                    head.dueMillis = nextDue(head.dueMillis, head.periodMillis, now);
+                    head.timeout = mWheel.schedule(head, head.dueMillis);
+                    return head;
+                }
+
+                long wakeup = mWheel.nextWakeupMillis();
+                try {
+                    mLock.wait(wakeup < 0 ? 0 : Math.max(1, wakeup - now));
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.ardic.iot.myandroidthingsproject.uplink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Report-by-exception in front of Thing.sendData.
+ *
+ * A send of a configured thing is suppressed unless its latest numeric value moved more than
+ * the deadband away from the last reported value. The deadband is the larger of the absolute
+ * deadband and the percent deadband of the last reported value. A thing which stayed
+ * silent for maxSilenceMillis is reported again with its last values (heartbeat).
+ * Things without a configuration and non-numeric values always pass.
+ */
+public class DeadbandFilter {
+
+    public static class Config {
+
+        private final double mAbsolute;
+        private final double mPercent;
+        private final long mMaxSilenceMillis;
+
+        /**
+         * @param absolute         minimum absolute change, 0 reports every change.
+         * @param percent          minimum change in percent of the last reported value, 0 disables.
+         * @param maxSilenceMillis heartbeat interval, 0 disables.
+         */
+        public Config(double absolute, double percent, long maxSilenceMillis) {
+            if (absolute < 0 || percent < 0 || maxSilenceMillis < 0) {
+                throw new IllegalArgumentException("Invalid deadband : " + absolute + "/" + percent + "%/" + maxSilenceMillis);
+            }
+            this.mAbsolute = absolute;
+            this.mPercent = percent;
+            this.mMaxSilenceMillis = maxSilenceMillis;
+        }
+    }
+
+    private static class State {
+
+        private final Config config;
+        private boolean reported;
+        private double lastValue;
+        private long lastSentMillis;
+        private List<Object> lastValues;
+
+        private State(Config config) {
+            this.config = config;
+        }
+    }
+
+    private final ConcurrentHashMap<String, State> mStates = new ConcurrentHashMap<>();
+
+    private final AtomicLong mSent = new AtomicLong();
+    private final AtomicLong mSuppressed = new AtomicLong();
+    private final AtomicLong mHeartbeats = new AtomicLong();
+
+    public void configure(String thingId, Config config) {
+        mStates.put(thingId, new State(config));
+    }
+
+    public void configureIfAbsent(String thingId, Config config) {
+        mStates.putIfAbsent(thingId, new State(config));
+    }
+
+    public void remove(String thingId) {
+        mStates.remove(thingId);
+    }
+
+    /**
+     * @return true if the values must be sent, false if they are suppressed.
+     */
+    public boolean shouldSend(String thingId, List<Object> values, long nowMillis) {
+
+        State state = mStates.get(thingId);
+        if (state == null || values.isEmpty()) {
+            mSent.incrementAndGet();
+            return true;
+        }
+
+        Object latest = values.get(values.size() - 1);
+        if (!(latest instanceof Number)) {
+            mSent.incrementAndGet();
+            return true;
+        }
+
+        double value = ((Number) latest).doubleValue();
+
+        synchronized (state) {
+            Config config = state.config;
+            double deadband = Math.max(config.mAbsolute, Math.abs(state.lastValue) * config.mPercent / 100);
+
+            boolean send = !state.reported
+                    || Math.abs(value - state.lastValue) > deadband
+                    || (config.mMaxSilenceMillis > 0 && nowMillis - state.lastSentMillis >= config.mMaxSilenceMillis);
+
+            if (!send) {
+                mSuppressed.incrementAndGet();
+                return false;
+            }
+
+            state.reported = true;
+            state.lastValue = value;
+            state.lastSentMillis = nowMillis;
+            state.lastValues = new ArrayList<>(values);
+        }
+
+        mSent.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Things whose heartbeat is due, with the values to repeat. Marks them as sent.
+     */
+    public List<Heartbeat> dueHeartbeats(long nowMillis) {
+
+        List<Heartbeat> due = new ArrayList<>();
+
+        for (Map.Entry<String, State> entry : mStates.entrySet()) {
+            State state = entry.getValue();
+            synchronized (state) {
+                long maxSilence = state.config.mMaxSilenceMillis;
+                if (state.reported && maxSilence > 0 && nowMillis - state.lastSentMillis >= maxSilence) {
+                    state.lastSentMillis = nowMillis;
+                    due.add(new Heartbeat(entry.getKey(), state.lastValues));
+                }
+            }
+        }
+
+        mHeartbeats.addAndGet(due.size());
+        return due;
+    }
+
+    public long getSent() {
+        return mSent.get();
+    }
+
+    public long getSuppressed() {
+        return mSuppressed.get();
+    }
+
+    public long getHeartbeats() {
+        return mHeartbeats.get();
+    }
+
+    public static class Heartbeat {
+
+        public final String thingId;
+        public final List<Object> values;
+
+        private Heartbeat(String thingId, List<Object> values) {
+            this.thingId = thingId;
+            this.values = values;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "sent=" + mSent.get() + " suppressed=" + mSuppressed.get() + " heartbeats=" + mHeartbeats.get();
+    }
+}
@@ -0,0 +1,489 @@
+package com.ardic.iot.myandroidthingsproject.uplink;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory mapped store-and-forward queue for thing data which could not be
+ * sent while IoT-Ignite is disconnected.
+ *
+ * Data is written into fixed size segment files. When the journal reaches its segment
+ * limit the oldest segment is dropped. The read offset is kept in a separate mapped file
+ * and is only advanced after the data was sent, so delivery is at-least-once after a crash.
+ *
+ * Record layout : [int length][int crc32][payload]. A zero length marks the end of a segment.
+ */
+public class OfflineJournal {
+
+    private static final String TAG = OfflineJournal.class.getSimpleName();
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String OFFSET_FILE = "journal.offset";
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int OFFSET_FILE_SIZE = 16;
+
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_FLOAT = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING = 6;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives journaled data in write order. Return false to stop draining,
+     * the same data will be offered again on the next drain.
+     */
+    public interface Consumer {
+        boolean accept(String thingId, List<Object> values);
+    }
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+
+    private final TreeMap<Long, MappedByteBuffer> mSegments = new TreeMap<>();
+    private MappedByteBuffer mOffsetBuffer;
+
+    private long mWriteSegment;
+    private long mReadSegment;
+    private int mReadPosition;
+
+    public OfflineJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public OfflineJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < 256 || maxSegments < 2) {
+            throw new IllegalArgumentException("Invalid journal size : " + segmentSize + " x " + maxSegments);
+        }
+        this.mDirectory = directory;
+        this.mSegmentSize = segmentSize;
+        this.mMaxSegments = maxSegments;
+        open();
+    }
+
+    /**
+     * Write data to the end of the journal.
+     *
+     * @return false if the data can not be encoded or does not fit into a segment.
+     */
+    public synchronized boolean append(String thingId, List<Object> values) {
+
+        byte[] payload;
+        try {
+            payload = encode(thingId, values);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Journal record could not be encoded : " + e);
+            return false;
+        }
+
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+
+        // Keep room for the end of segment marker.
+        if (recordSize + 4 > mSegmentSize) {
+            Log.e(TAG, "Journal record too large : " + recordSize);
+            return false;
+        }
+
+        try {
+            MappedByteBuffer segment = mSegments.get(mWriteSegment);
+            if (segment.remaining() < recordSize + 4) {
+                segment = rotate();
+            }
+
+            int position = segment.position();
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+
+            segment.putInt(position + 4, (int) crc.getValue());
+            segment.position(position + RECORD_HEADER_SIZE);
+            segment.put(payload);
+
+            // Length is written last, a torn record is never visible to the reader.
+            segment.putInt(position, payload.length);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Journal append failed : " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Offer journaled data to the consumer in write order. Consecutive single value records of
+     * the same thing are merged up to maxValuesPerSend values so a long outage drains in few
+     * sends. Records with several values are sent one per send to keep them intact.
+     *
+     * @return number of sends accepted by the consumer.
+     */
+    public synchronized int drain(Consumer consumer, int maxValuesPerSend) {
+
+        int accepted = 0;
+
+        while (true) {
+
+            MappedByteBuffer segment = mSegments.get(mReadSegment);
+            skipInvalid(segment);
+
+            String thingId = null;
+            List<Object> values = new ArrayList<>();
+            int position = mReadPosition;
+
+            while (values.size() < maxValuesPerSend) {
+                int length = readLength(segment, position);
+                if (length <= 0 || !checksumMatches(segment, position, length)) {
+                    // A corrupted record ends the batch, the next round skips it.
+                    break;
+                }
+                List<Object> record = new ArrayList<>();
+                String recordThingId = decode(segment, position + RECORD_HEADER_SIZE, length, record, thingId);
+                if (recordThingId == null || (record.size() != 1 && !values.isEmpty())) {
+                    break;
+                }
+                values.addAll(record);
+                thingId = recordThingId;
+                position += RECORD_HEADER_SIZE + length;
+                if (record.size() != 1) {
+                    // A tuple like an aggregate window is sent on its own, never merged.
+                    break;
+                }
+            }
+
+            if (thingId == null) {
+                // Nothing readable left in this segment.
+                if (mReadSegment == mWriteSegment) {
+                    return accepted;
+                }
+                deleteSegment(mReadSegment);
+                mReadSegment = mSegments.firstKey();
+                mReadPosition = 0;
+                persistOffset();
+                continue;
+            }
+
+            if (!consumer.accept(thingId, values)) {
+                return accepted;
+            }
+
+            accepted++;
+            mReadPosition = position;
+            persistOffset();
+        }
+    }
+
+    /**
+     * True if no readable record is left. Corrupted records at the read offset are skipped
+     * first, so a torn record can not keep the journal non-empty but undrainable.
+     */
+    public synchronized boolean isEmpty() {
+
+        if (mReadSegment != mWriteSegment) {
+            return false;
+        }
+        MappedByteBuffer segment = mSegments.get(mReadSegment);
+        skipInvalid(segment);
+        return readLength(segment, mReadPosition) <= 0;
+    }
+
+    /**
+     * Advance the read offset over records with a bad checksum or content. In the write
+     * segment the offset never passes the write position.
+     */
+    private void skipInvalid(MappedByteBuffer segment) {
+
+        int end = mReadSegment == mWriteSegment ? segment.position() : mSegmentSize;
+        int length;
+        while (mReadPosition < end && (length = readLength(segment, mReadPosition)) > 0
+                && !isValid(segment, mReadPosition, length)) {
+            Log.w(TAG, "Skipping corrupted journal record at " + mReadSegment + ":" + mReadPosition);
+            mReadPosition = Math.min(end, mReadPosition + RECORD_HEADER_SIZE + length);
+            persistOffset();
+        }
+    }
+
+    private static boolean isValid(ByteBuffer segment, int position, int length) {
+        return checksumMatches(segment, position, length)
+                && decode(segment, position + RECORD_HEADER_SIZE, length, new ArrayList<Object>(), null) != null;
+    }
+
+    /**
+     * Flush mapped pages to disk.
+     */
+    public synchronized void sync() {
+        for (MappedByteBuffer segment : mSegments.values()) {
+            segment.force();
+        }
+        mOffsetBuffer.force();
+    }
+
+    private void open() throws IOException {
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Journal directory can not be created : " + mDirectory);
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length()));
+                        mSegments.put(sequence, map(file, mSegmentSize));
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "Unknown file in journal directory : " + name);
+                    }
+                }
+            }
+        }
+
+        if (mSegments.isEmpty()) {
+            mSegments.put(0L, createSegment(0L));
+        }
+
+        mWriteSegment = mSegments.lastKey();
+
+        // Find the end of the last segment, stop at the first torn or corrupted record.
+        MappedByteBuffer segment = mSegments.get(mWriteSegment);
+        int position = 0;
+        int length;
+        while ((length = readLength(segment, position)) > 0
+                && checksumMatches(segment, position, length)) {
+            position += RECORD_HEADER_SIZE + length;
+        }
+        segment.putInt(position, 0);
+        segment.position(position);
+
+        mOffsetBuffer = map(new File(mDirectory, OFFSET_FILE), OFFSET_FILE_SIZE);
+        restoreOffset(position);
+
+        Log.i(TAG, "Journal opened with " + mSegments.size() + " segments, read offset "
+                + mReadSegment + ":" + mReadPosition);
+    }
+
+    /**
+     * @param writeEnd recovered end of the write segment, the read offset is clamped to it.
+     */
+    private void restoreOffset(int writeEnd) {
+
+        long segment = mOffsetBuffer.getLong(0);
+        int position = mOffsetBuffer.getInt(8);
+        int crc = mOffsetBuffer.getInt(12);
+
+        if (crc == offsetChecksum(segment, position) && mSegments.containsKey(segment) && position >= 0) {
+            mReadSegment = segment;
+            mReadPosition = segment == mWriteSegment ? Math.min(position, writeEnd) : position;
+        } else {
+            // Start over from the oldest data we still have.
+            mReadSegment = mSegments.firstKey();
+            mReadPosition = 0;
+        }
+    }
+
+    private void persistOffset() {
+        mOffsetBuffer.putLong(0, mReadSegment);
+        mOffsetBuffer.putInt(8, mReadPosition);
+        mOffsetBuffer.putInt(12, offsetChecksum(mReadSegment, mReadPosition));
+    }
+
+    private MappedByteBuffer rotate() throws IOException {
+
+        mSegments.get(mWriteSegment).force();
+
+        mWriteSegment++;
+        MappedByteBuffer segment = createSegment(mWriteSegment);
+        mSegments.put(mWriteSegment, segment);
+
+        while (mSegments.size() > mMaxSegments) {
+            long oldest = mSegments.firstKey();
+            Log.w(TAG, "Journal is full, dropping segment " + oldest);
+            deleteSegment(oldest);
+            if (mReadSegment == oldest) {
+                mReadSegment = mSegments.firstKey();
+                mReadPosition = 0;
+                persistOffset();
+            }
+        }
+        return segment;
+    }
+
+    private MappedByteBuffer createSegment(long sequence) throws IOException {
+        File file = segmentFile(sequence);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Stale journal segment can not be deleted : " + file);
+        }
+        return map(file, mSegmentSize);
+    }
+
+    private void deleteSegment(long sequence) {
+        mSegments.remove(sequence);
+        if (!segmentFile(sequence).delete()) {
+            Log.w(TAG, "Journal segment could not be deleted : " + sequence);
+        }
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(mDirectory, String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            // Mapping stays valid after the channel is closed.
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int readLength(ByteBuffer segment, int position) {
+        if (position + RECORD_HEADER_SIZE > mSegmentSize) {
+            return 0;
+        }
+        int length = segment.getInt(position);
+        if (length < 0 || position + RECORD_HEADER_SIZE + length > mSegmentSize) {
+            return 0;
+        }
+        return length;
+    }
+
+    private static boolean checksumMatches(ByteBuffer segment, int position, int length) {
+        CRC32 crc = new CRC32();
+        for (int i = position + RECORD_HEADER_SIZE; i < position + RECORD_HEADER_SIZE + length; i++) {
+            crc.update(segment.get(i));
+        }
+        return (int) crc.getValue() == segment.getInt(position + 4);
+    }
+
+    private static int offsetChecksum(long segment, int position) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putLong(segment).putInt(position);
+        crc.update(buffer.array(), 0, 12);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(String thingId, List<Object> values) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + values.size() * 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeUTF(thingId);
+        out.writeShort(values.size());
+
+        for (Object value : values) {
+            if (value instanceof Integer) {
+                out.writeByte(TYPE_INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof String) {
+                out.writeByte(TYPE_STRING);
+                out.writeUTF((String) value);
+            } else {
+                throw new IllegalArgumentException("Unsupported value type : " + value);
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a record and add its values to the list.
+     *
+     * @param expectedThingId only records of this thing are decoded, null accepts any thing.
+     * @return thing id of the record, null if it belongs to another thing or is corrupted.
+     */
+    private static String decode(ByteBuffer segment, int position, int length,
+                                 List<Object> values, String expectedThingId) {
+
+        ByteBuffer record = segment.duplicate();
+        record.position(position);
+        record.limit(position + length);
+
+        try {
+            String thingId = readUTF(record);
+            if (expectedThingId != null && !expectedThingId.equals(thingId)) {
+                return null;
+            }
+
+            int count = record.getShort() & 0xFFFF;
+            List<Object> decoded = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                byte type = record.get();
+                switch (type) {
+                    case TYPE_INTEGER:
+                        decoded.add(record.getInt());
+                        break;
+                    case TYPE_LONG:
+                        decoded.add(record.getLong());
+                        break;
+                    case TYPE_FLOAT:
+                        decoded.add(record.getFloat());
+                        break;
+                    case TYPE_DOUBLE:
+                        decoded.add(record.getDouble());
+                        break;
+                    case TYPE_BOOLEAN:
+                        decoded.add(record.get() != 0);
+                        break;
+                    case TYPE_STRING:
+                        decoded.add(readUTF(record));
+                        break;
+                    default:
+                        Log.e(TAG, "Corrupted journal record, unknown type : " + type);
+                        return null;
+                }
+            }
+
+            values.addAll(decoded);
+            return thingId;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Corrupted journal record : " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Counterpart of DataOutputStream.writeUTF for the ASCII/UTF-8 subset used by thing ids and values.
+     */
+    private static String readUTF(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,177 @@
+package com.ardic.iot.myandroidthingsproject.uplink;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.ardic.android.iotignite.things.Thing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects thing samples over a short time window and hands them to the sender as one
+ * multi-value batch. Actuator state collapses to its latest value, sensor samples are kept in order.
+ * A batch is flushed when its window expires or when it reaches the maximum sample count.
+ */
+public class ThingDataBatcher {
+
+    private static final String TAG = ThingDataBatcher.class.getSimpleName();
+
+    public static final long DEFAULT_WINDOW_MILLIS = 250L;
+    public static final int DEFAULT_MAX_SAMPLES = 16;
+
+    /**
+     * Final stage of the batcher. Returns true if the data was sent or stored for a later send.
+     */
+    public interface Sender {
+        boolean send(Thing thing, List<Object> values);
+    }
+
+    private final Handler mHandler;
+    private final Sender mSender;
+    private final Map<String, Batch> mBatches = new HashMap<>();
+
+    private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+    private int mMaxSamples = DEFAULT_MAX_SAMPLES;
+
+    public ThingDataBatcher(Handler handler, Sender sender) {
+        this.mHandler = handler;
+        this.mSender = sender;
+    }
+
+    /**
+     * @param windowMillis how long the first sample of a batch may wait before it is sent.
+     * @param maxSamples   batch size which triggers an immediate flush.
+     */
+    public synchronized void setWindow(long windowMillis, int maxSamples) {
+        if (windowMillis < 0 || maxSamples < 1) {
+            throw new IllegalArgumentException("Invalid batch window : " + windowMillis + "ms / " + maxSamples);
+        }
+        this.mWindowMillis = windowMillis;
+        this.mMaxSamples = maxSamples;
+    }
+
+    /**
+     * Add a sample for the given thing.
+     *
+     * @param latestWins if true only the last value of the window is sent (actuator state).
+     */
+    public void enqueue(Thing thing, Object value, boolean latestWins) {
+
+        if (thing == null) {
+            return;
+        }
+
+        Batch ready = null;
+
+        synchronized (this) {
+            Batch batch = mBatches.get(thing.getThingID());
+
+            if (batch == null) {
+                batch = new Batch(thing.getThingID());
+                mBatches.put(batch.thingId, batch);
+            }
+
+            // Things are recreated on every reconnect, always send to the latest instance.
+            batch.thing = thing;
+
+            if (latestWins) {
+                batch.values.clear();
+            }
+            batch.values.add(value);
+
+            if (batch.values.size() >= mMaxSamples || mWindowMillis == 0) {
+                ready = detach(batch);
+            } else if (!batch.scheduled) {
+                batch.scheduled = true;
+                mHandler.postDelayed(batch, mWindowMillis);
+            }
+        }
+
+        if (ready != null) {
+            send(ready);
+        }
+    }
+
+    /**
+     * Send every pending batch immediately.
+     */
+    public void flushAll() {
+
+        List<Batch> ready = new ArrayList<>();
+
+        synchronized (this) {
+            for (Batch batch : mBatches.values()) {
+                if (!batch.values.isEmpty()) {
+                    ready.add(detach(batch));
+                }
+            }
+        }
+
+        for (Batch batch : ready) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Drop every pending sample without sending.
+     */
+    public synchronized void clear() {
+        for (Batch batch : mBatches.values()) {
+            mHandler.removeCallbacks(batch);
+        }
+        mBatches.clear();
+    }
+
+    /**
+     * Take the samples out of the batch so new samples start a new window.
+     * Must be called while holding the batcher lock.
+     */
+    private Batch detach(Batch batch) {
+        if (batch.scheduled) {
+            mHandler.removeCallbacks(batch);
+            batch.scheduled = false;
+        }
+        Batch ready = new Batch(batch.thingId);
+        ready.thing = batch.thing;
+        ready.values.addAll(batch.values);
+        batch.values.clear();
+        return ready;
+    }
+
+    private void send(Batch batch) {
+        if (!mSender.send(batch.thing, batch.values)) {
+            Log.e(TAG, "Batch of " + batch.values.size() + " samples could not be sent for " + batch.thingId);
+        }
+    }
+
+    private class Batch implements Runnable {
+
+        private final String thingId;
+        private final List<Object> values = new ArrayList<>();
+        private Thing thing;
+        private boolean scheduled;
+
+        private Batch(String thingId) {
+            this.thingId = thingId;
+        }
+
+        @Override
+        public void run() {
+
+            Batch ready;
+
+            synchronized (ThingDataBatcher.this) {
+                scheduled = false;
+                if (values.isEmpty()) {
+                    return;
+                }
+                ready = detach(this);
+            }
+
+            send(ready);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.ardic.iot.myandroidthingsproject.action;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ActionRouterTest {
+
+    private final ActionRouter mRouter = new ActionRouter(4, 1000);
+
+    @After
+    public void tearDown() {
+        mRouter.shutdown(1000);
+    }
+
+    @Test
+    public void keepsOrderPerThing() throws Exception {
+
+        final List<String> led = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(500);
+        mRouter.register("Node", "Led", new ActionRouter.Handler() {
+            @Override
+            public void onAction(String nodeId, String thingId, String message) {
+                led.add(message);
+                done.countDown();
+            }
+        });
+
+        for (int i = 0; i < 500; i++) {
+            assertTrue(mRouter.dispatch("Node", "Led", String.valueOf(i)));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 500; i++) {
+            assertEquals(String.valueOf(i), led.get(i));
+        }
+    }
+
+    @Test
+    public void blockedThingDoesNotBlockOthers() throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch relayDone = new CountDownLatch(1);
+
+        mRouter.register("Node", "Slow Motor", new ActionRouter.Handler() {
+            @Override
+            public void onAction(String nodeId, String thingId, String message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        mRouter.register("Node", "Relay", new ActionRouter.Handler() {
+            @Override
+            public void onAction(String nodeId, String thingId, String message) {
+                relayDone.countDown();
+            }
+        });
+
+        mRouter.dispatch("Node", "Slow Motor", "on");
+        mRouter.dispatch("Node", "Slow Motor", "off");
+        mRouter.dispatch("Node", "Relay", "on");
+
+        assertTrue(relayDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void routesByNodeAndThing() throws Exception {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        mRouter.register("Node 1", "Led", new ActionRouter.Handler() {
+            @Override
+            public void onAction(String nodeId, String thingId, String message) throws IOException {
+                throw new IOException("gpio closed");
+            }
+        });
+        mRouter.register("Node 1", "Led", new SwitchHandler() {
+            @Override
+            protected void onSwitch(String nodeId, String thingId, boolean on) {
+                assertTrue(on);
+                done.countDown();
+            }
+        });
+
+        assertFalse(mRouter.dispatch("Node 2", "Led", "on"));
+        assertFalse(mRouter.isRouted("Node 2", "Led"));
+        assertTrue(mRouter.dispatch("Node 1", "Led", "{\"status\":true}"));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mRouter.getUnrouted());
+
+        mRouter.unregister("Node 1", "Led");
+        assertFalse(mRouter.dispatch("Node 1", "Led", "on"));
+    }
+
+    @Test
+    public void rejectsBeyondMaxPending() throws Exception {
+
+        ActionRouter router = new ActionRouter(1, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        router.register("Node", "Led", new ActionRouter.Handler() {
+            @Override
+            public void onAction(String nodeId, String thingId, String message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertTrue(router.dispatch("Node", "Led", "1"));
+        assertTrue(router.dispatch("Node", "Led", "2"));
+        assertFalse(router.dispatch("Node", "Led", "3"));
+        assertEquals(1, router.getRejected());
+
+        release.countDown();
+        router.shutdown(1000);
+        assertFalse(router.dispatch("Node", "Led", "4"));
+    }
+
+    @Test
+    public void restartsAfterShutdown() throws Exception {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        mRouter.register("Node", "Led", new ActionRouter.Handler() {
+            @Override
+            public void onAction(String nodeId, String thingId, String message) {
+                done.countDown();
+            }
+        }, true);
+
+        mRouter.shutdown(1000);
+        assertFalse(mRouter.dispatch("Node", "Led", "on"));
+
+        mRouter.start();
+        assertTrue(mRouter.dispatch("Node", "Led", "on"));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void latestWinsDropsStaleCommands() throws Exception {
+
+        final List<String> applied = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+
+        mRouter.register("Node", "Led", new ActionRouter.Handler() {
+            @Override
+            public void onAction(String nodeId, String thingId, String message) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                applied.add(message);
+                done.countDown();
+            }
+        }, true);
+
+        assertTrue(mRouter.dispatch("Node", "Led", "0"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // A burst while the first command is applied, only the last one may run.
+        for (int i = 1; i <= 9; i++) {
+            assertTrue(mRouter.dispatch("Node", "Led", String.valueOf(i)));
+        }
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("0", "9"), applied);
+        assertEquals(8, mRouter.getCoalesced());
+        assertEquals(2, mRouter.getApplied());
+    }
+
+    @Test
+    public void parsesSwitchMessages() {
+
+        assertEquals(Boolean.TRUE, SwitchHandler.parse("{\"status\":true}"));
+        assertEquals(Boolean.FALSE, SwitchHandler.parse("{\"status\":0}"));
+        assertEquals(Boolean.TRUE, SwitchHandler.parse("{\"value\":\"on\"}"));
+        assertEquals(Boolean.FALSE, SwitchHandler.parse(" OFF "));
+        assertEquals(Boolean.TRUE, SwitchHandler.parse("1"));
+        assertNull(SwitchHandler.parse("{\"color\":\"red\"}"));
+        assertNull(SwitchHandler.parse("{\"status\":"));
+        assertNull(SwitchHandler.parse("blink"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.ardic.iot.myandroidthingsproject.aggregation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WindowAggregatorTest {
+
+    private final List<String> results = new ArrayList<>();
+
+    private final WindowAggregator.Listener listener = new WindowAggregator.Listener() {
+        @Override
+        public void onWindow(WindowResult result) {
+            results.add(result.thingId + " " + result.count + " " + result.min + " " + result.max
+                    + " " + result.mean + " " + result.last);
+        }
+    };
+
+    @Test
+    public void tumblingWindowEmitsWhenNextWindowStarts() {
+        WindowAggregator aggregator = new WindowAggregator(WindowPolicy.tumbling(1000), listener);
+
+        aggregator.add("n", "t", 0, 2f);
+        aggregator.add("n", "t", 400, 6f);
+        aggregator.add("n", "t", 900, 4f);
+        assertTrue(results.isEmpty());
+
+        aggregator.add("n", "t", 1000, 10f);
+        assertEquals("t 3 2.0 6.0 4.0 4.0", results.get(0));
+
+        aggregator.flushExpired(1500);
+        assertEquals(1, results.size());
+        aggregator.flushExpired(2000);
+        assertEquals("t 1 10.0 10.0 10.0 10.0", results.get(1));
+    }
+
+    @Test
+    public void slidingWindowTracksMinAndMaxAfterEviction() {
+        WindowAggregator aggregator = new WindowAggregator(WindowPolicy.sliding(1000, 500, 16), listener);
+
+        aggregator.add("n", "t", 0, 1f);
+        aggregator.add("n", "t", 100, 9f);
+        aggregator.add("n", "t", 200, 5f);
+        assertTrue(results.isEmpty());
+
+        aggregator.add("n", "t", 500, 3f);
+        assertEquals("t 4 1.0 9.0 4.5 3.0", results.get(0));
+
+        // Samples at 0 and 100 are evicted, window keeps 5 and 3.
+        aggregator.flushExpired(1100);
+        assertEquals("t 2 3.0 5.0 4.0 3.0", results.get(1));
+    }
+
+    @Test
+    public void slidingWindowEvictsBeyondCapacity() {
+        WindowAggregator aggregator = new WindowAggregator(WindowPolicy.sliding(10000, 100, 2), listener);
+
+        aggregator.add("n", "t", 0, 100f);
+        aggregator.add("n", "t", 10, 1f);
+        aggregator.add("n", "t", 100, 2f);
+        assertEquals("t 2 1.0 2.0 1.5 2.0", results.get(0));
+    }
+
+    @Test
+    public void policyChangeReplacesWindow() {
+        WindowAggregator aggregator = new WindowAggregator(WindowPolicy.tumbling(1000), listener);
+        aggregator.add("n", "t", 0, 1f);
+
+        // The old window is long due, it is emitted before the policy changes.
+        aggregator.setPolicy("n", "t", WindowPolicy.tumbling(100));
+        assertEquals("t 1 1.0 1.0 1.0 1.0", results.get(0));
+
+        aggregator.add("n", "t", 10, 2f);
+        aggregator.add("n", "t", 100, 3f);
+        assertEquals(2, results.size());
+        assertEquals("t 1 2.0 2.0 2.0 2.0", results.get(1));
+    }
+}
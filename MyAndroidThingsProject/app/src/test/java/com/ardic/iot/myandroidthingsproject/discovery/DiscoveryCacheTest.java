@@ -0,0 +1,100 @@
+package com.ardic.iot.myandroidthingsproject.discovery;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DiscoveryCacheTest {
+
+    private static final long TTL = 1000L;
+    private static final long MAX_STALE = 10000L;
+    private static final Map<String, String> TXT = Collections.singletonMap("type", "DHT11");
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("discovery", ".json");
+        assertTrue(mFile.delete());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void survivesRestartMostRecentFirst() throws Exception {
+
+        DiscoveryCache cache = new DiscoveryCache(mFile, TTL, MAX_STALE);
+        assertTrue(cache.load(0).isEmpty());
+
+        assertNotNull(cache.seen("node-1", "192.168.1.10", 8080, TXT, 100));
+        assertNotNull(cache.seen("node-2", "192.168.1.11", 8080, null, 200));
+        cache.save();
+
+        List<DiscoveryCache.Entry> loaded = new DiscoveryCache(mFile, TTL, MAX_STALE).load(300);
+        assertEquals(2, loaded.size());
+        assertEquals("node-2", loaded.get(0).getServiceName());
+        assertEquals("192.168.1.10", loaded.get(1).getHost());
+        assertEquals(8080, loaded.get(1).getPort());
+        assertEquals(TXT, loaded.get(1).getTxt());
+        assertEquals(100, loaded.get(1).getLastSeenMillis());
+    }
+
+    @Test
+    public void reportsOnlyAddressChanges() {
+
+        DiscoveryCache cache = new DiscoveryCache(mFile, TTL, MAX_STALE);
+
+        assertNotNull(cache.seen("node-1", "192.168.1.10", 8080, TXT, 0));
+        assertNull(cache.seen("node-1", "192.168.1.10", 8080, TXT, 500));
+        assertEquals(500, cache.get("node-1").getLastSeenMillis());
+
+        assertNotNull(cache.seen("node-1", "192.168.1.20", 8080, TXT, 600));
+        assertNotNull(cache.seen("node-1", "192.168.1.20", 8080, null, 700));
+    }
+
+    @Test
+    public void refreshesBeforeTtlAndEvictsWhenStale() throws Exception {
+
+        DiscoveryCache cache = new DiscoveryCache(mFile, TTL, MAX_STALE);
+        cache.seen("node-1", "192.168.1.10", 8080, TXT, 0);
+
+        assertTrue(cache.dueForRefresh(700).isEmpty());
+        assertEquals(1, cache.dueForRefresh(800).size());
+        assertTrue(cache.isFresh(cache.get("node-1"), 999));
+        assertFalse(cache.isFresh(cache.get("node-1"), 1000));
+
+        assertTrue(cache.evictStale(MAX_STALE).isEmpty());
+        assertEquals(1, cache.evictStale(MAX_STALE + 1).size());
+        assertEquals(0, cache.size());
+
+        cache.seen("node-1", "192.168.1.10", 8080, TXT, 0);
+        cache.save();
+        assertTrue(new DiscoveryCache(mFile, TTL, MAX_STALE).load(MAX_STALE + 1).isEmpty());
+    }
+
+    @Test
+    public void ignoresCorruptFile() throws Exception {
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write("{\"entries\":[{\"serviceName\":".getBytes("UTF-8"));
+        out.close();
+
+        DiscoveryCache cache = new DiscoveryCache(mFile, TTL, MAX_STALE);
+        assertTrue(cache.load(0).isEmpty());
+
+        cache.seen("node-1", "192.168.1.10", 8080, TXT, 0);
+        cache.save();
+        assertEquals(1, new DiscoveryCache(mFile, TTL, MAX_STALE).load(0).size());
+    }
+}
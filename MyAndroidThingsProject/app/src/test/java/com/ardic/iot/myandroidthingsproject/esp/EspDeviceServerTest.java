@@ -0,0 +1,221 @@
+package com.ardic.iot.myandroidthingsproject.esp;
+
+import com.ardic.android.iot.hwnodeapptemplate.listener.ThingEventListener;
+import com.ardic.android.iotignite.things.ThingConfiguration;
+import com.ardic.android.iotignite.things.ThingData;
+import com.ardic.iot.protocol.BinaryFrame;
+import com.ardic.iot.protocol.JsonNodeCodec;
+import com.ardic.iot.protocol.NodeMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EspDeviceServerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String NODE = "EE:00:00:00:00:01";
+
+    private final BlockingQueue<String> mEvents = new LinkedBlockingQueue<>();
+    private final JsonNodeCodec mCodec = new JsonNodeCodec();
+    private EspDeviceServer mServer;
+
+    private final ThingEventListener mListener = new ThingEventListener() {
+        @Override
+        public void onDataReceived(String s, String s1, ThingData thingData) {
+            if ("Broken".equals(s1)) {
+                throw new IllegalStateException("listener failed");
+            }
+            mEvents.add("data " + s + " " + s1 + " " + thingData.getDataList());
+        }
+
+        @Override
+        public void onConnectionStateChanged(String s, boolean b) {
+            mEvents.add("connected " + s + " " + b);
+        }
+
+        @Override
+        public void onActionReceived(String s, String s1, String s2) {
+            mEvents.add("action " + s + " " + s1 + " " + s2);
+        }
+
+        @Override
+        public void onConfigReceived(String s, String s1, ThingConfiguration thingConfiguration) {
+            mEvents.add("config " + s + " " + s1);
+        }
+
+        @Override
+        public void onUnknownMessageReceived(String s, String s1) {
+            mEvents.add("unknown " + s1);
+        }
+
+        @Override
+        public void onNodeUnregistered(String s) {
+        }
+
+        @Override
+        public void onThingUnregistered(String s, String s1) {
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new EspDeviceServer(0, 2, mListener);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    private String next() throws InterruptedException {
+        String event = mEvents.poll(5, TimeUnit.SECONDS);
+        assertNotNull("No event", event);
+        return event;
+    }
+
+    private void sendInventory(OutputStream out) throws Exception {
+        List<NodeMessage.InventoryThing> things = new ArrayList<>();
+        things.add(new NodeMessage.InventoryThing("Temperature", "Temperature", "D4", false, "DHT11", "FLOAT"));
+        things.add(new NodeMessage.InventoryThing("Humidity", "Humidity", "D4", false, "DHT11", "FLOAT"));
+        out.write(mCodec.encode(NodeMessage.inventory(NODE, "DYNAMIC NODE - DHT11 SENSOR", things)));
+        out.flush();
+    }
+
+    @Test
+    public void feedsListenerFromJsonAndBinaryLines() throws Exception {
+
+        mServer.setOfferBinary(true);
+
+        Socket socket = new Socket("127.0.0.1", mServer.getPort());
+        OutputStream out = socket.getOutputStream();
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+
+        sendInventory(out);
+        assertEquals("connected " + NODE + " true", next());
+        assertTrue(in.readLine().contains(NodeMessage.WIRE_FORMAT));
+
+        out.write(mCodec.encode(NodeMessage.data("Humidity", "45.5")));
+        out.write(new BinaryFrame.Writer().floats(0, new float[]{23.25f}, 1, 0));
+        out.write("not a message\n".getBytes(UTF_8));
+        out.flush();
+
+        assertEquals("data " + NODE + " Humidity [45.5]", next());
+        assertEquals("data " + NODE + " Temperature [23.25]", next());
+        assertEquals("unknown not a message", next());
+        assertEquals(1, mServer.getInvalidLines());
+
+        assertTrue(mServer.sendAction(NODE, "Humidity", "{\"status\":true}"));
+        assertEquals("action " + NODE + " Humidity {\"status\":true}", next());
+        String line = in.readLine();
+        NodeMessage action = mCodec.decode(line.getBytes(UTF_8), 0, line.length());
+        assertEquals(NodeMessage.ACTION, action.getMessageType());
+        assertEquals("Humidity", action.getThingId());
+
+        socket.close();
+        assertEquals("connected " + NODE + " false", next());
+        assertFalse(mServer.isConnected(NODE));
+    }
+
+    @Test
+    public void failingLineDoesNotStopTheIoLoop() throws Exception {
+
+        mServer.setOfferBinary(false);
+
+        Socket socket = new Socket("127.0.0.1", mServer.getPort());
+        OutputStream out = socket.getOutputStream();
+        sendInventory(out);
+        assertEquals("connected " + NODE + " true", next());
+
+        out.write(mCodec.encode(NodeMessage.data("Broken", "1")));
+        out.write("{\"messageType\":\"data\",\"thingId\":\"\\uZZZZ\",\"data\":[1]}\n".getBytes(UTF_8));
+        out.write(mCodec.encode(NodeMessage.data("Humidity", "45.5")));
+        out.flush();
+
+        assertEquals("unknown {\"messageType\":\"data\",\"thingId\":\"\\uZZZZ\",\"data\":[1]}", next());
+        assertEquals("data " + NODE + " Humidity [45.5]", next());
+        // The line the listener failed on and the malformed line.
+        assertEquals(2, mServer.getInvalidLines());
+        assertTrue(mServer.isConnected(NODE));
+
+        socket.close();
+        assertEquals("connected " + NODE + " false", next());
+    }
+
+    @Test
+    public void reconnectReplacesStaleConnection() throws Exception {
+
+        mServer.setOfferBinary(false);
+
+        Socket first = new Socket("127.0.0.1", mServer.getPort());
+        sendInventory(first.getOutputStream());
+        assertEquals("connected " + NODE + " true", next());
+
+        Socket second = new Socket("127.0.0.1", mServer.getPort());
+        sendInventory(second.getOutputStream());
+        assertEquals("connected " + NODE + " true", next());
+
+        // The stale connection is closed by the server without reporting the node as gone.
+        assertEquals(-1, first.getInputStream().read());
+        assertNull(mEvents.poll(200, TimeUnit.MILLISECONDS));
+        assertTrue(mServer.isConnected(NODE));
+        assertEquals(1, mServer.getNodeCount());
+
+        assertFalse(mServer.reset("EE:00:00:00:00:02"));
+        assertTrue(mServer.reset(NODE));
+        String reset = new BufferedReader(new InputStreamReader(second.getInputStream(), UTF_8)).readLine();
+        assertEquals(NodeMessage.RESET, mCodec.decode(reset.getBytes(UTF_8), 0, reset.length()).getMessageType());
+
+        second.close();
+        assertEquals("connected " + NODE + " false", next());
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test
+    public void connectsToListeningNodeAndAsksForInventory() throws Exception {
+
+        mServer.setOfferBinary(false);
+
+        ServerSocket node = new ServerSocket(0);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", node.getLocalPort());
+
+        assertTrue(mServer.connect(address));
+        assertFalse(mServer.connect(address));
+
+        Socket socket = node.accept();
+        String line = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8)).readLine();
+        assertEquals(NodeMessage.INVENTORY_STATUS, mCodec.decode(line.getBytes(UTF_8), 0, line.length()).getMessageType());
+
+        sendInventory(socket.getOutputStream());
+        assertEquals("connected " + NODE + " true", next());
+
+        socket.close();
+        node.close();
+        assertEquals("connected " + NODE + " false", next());
+
+        // Closed connections no longer block a reconnect to the same address.
+        long deadline = System.currentTimeMillis() + 5000;
+        boolean reconnected = mServer.connect(address);
+        while (!reconnected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            reconnected = mServer.connect(address);
+        }
+        assertTrue(reconnected);
+    }
+}
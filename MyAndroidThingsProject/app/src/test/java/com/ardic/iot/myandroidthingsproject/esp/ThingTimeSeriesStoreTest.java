@@ -0,0 +1,54 @@
+package com.ardic.iot.myandroidthingsproject.esp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThingTimeSeriesStoreTest {
+
+    @Test
+    public void keepsLatestSamplesOldestFirst() {
+        ThingTimeSeriesStore store = new ThingTimeSeriesStore(4, 3);
+
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(store.append("node", "temperature", i * 1000L, i));
+        }
+
+        ThingTimeSeriesStore.Series series = store.get("node", "temperature");
+        assertEquals(5, series.count());
+        assertEquals(5f, series.last(), 0f);
+        assertEquals(5000L, series.lastTimestamp());
+
+        float[] values = new float[10];
+        long[] timestamps = new long[10];
+        assertEquals(3, series.lastN(10, values, timestamps));
+        assertArrayEquals(new float[]{3f, 4f, 5f}, new float[]{values[0], values[1], values[2]}, 0f);
+        assertEquals(3000L, timestamps[0]);
+
+        assertEquals(2, series.lastN(2, values, null));
+        assertEquals(4f, values[0], 0f);
+    }
+
+    @Test
+    public void thingsAreSeparatedAndBudgetIsEnforced() {
+        ThingTimeSeriesStore store = new ThingTimeSeriesStore(2, 8);
+
+        assertTrue(store.append("a", "t", 1, 1f));
+        assertTrue(store.append("b", "t", 1, 2f));
+        assertFalse(store.append("c", "t", 1, 3f));
+
+        assertEquals(1f, store.get("a", "t").last(), 0f);
+        assertEquals(2f, store.get("b", "t").last(), 0f);
+        assertNull(store.get("c", "t"));
+        assertEquals(1, store.getRejected());
+        assertEquals(2, store.getThingCount());
+
+        // Rejected things do not use up slots.
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(store.append("d", "t" + i, 1, 4f));
+        }
+        assertEquals(1001, store.getRejected());
+        assertEquals(2, store.getThingCount());
+        assertTrue(store.append("a", "t", 2, 5f));
+    }
+}
@@ -0,0 +1,63 @@
+package com.ardic.iot.myandroidthingsproject.gpio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EdgePipelineTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void ringKeepsOrderAndRejectsWhenFull() {
+        EdgeRing ring = new EdgeRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i, i % 2 == 0));
+        }
+        assertFalse(ring.offer(4, true));
+
+        final List<Long> timestamps = new ArrayList<>();
+        assertEquals(4, ring.drain(new EdgeRing.Sink() {
+            @Override
+            public void onEdge(long timestampNanos, boolean value) {
+                timestamps.add(timestampNanos);
+            }
+        }));
+        assertEquals(4, timestamps.size());
+        assertEquals(Long.valueOf(3), timestamps.get(3));
+        assertTrue(ring.isEmpty());
+        assertTrue(ring.offer(5, true));
+    }
+
+    @Test
+    public void firstEdgeIsDeliveredAndBounceIsSuppressed() {
+        EdgeDebouncer debouncer = new EdgeDebouncer(20 * MS, false);
+
+        assertTrue(debouncer.onEdge(0, true));
+        assertFalse(debouncer.onEdge(1 * MS, false));
+        assertFalse(debouncer.onEdge(2 * MS, true));
+        assertFalse(debouncer.hasPending());
+
+        assertTrue(debouncer.onEdge(30 * MS, false));
+        assertFalse(debouncer.value());
+    }
+
+    @Test
+    public void coalescedStateSettlesAfterWindow() {
+        EdgeDebouncer debouncer = new EdgeDebouncer(20 * MS, false);
+
+        assertTrue(debouncer.onEdge(0, true));
+        assertFalse(debouncer.onEdge(5 * MS, false));
+        assertTrue(debouncer.hasPending());
+        assertFalse(debouncer.settle(10 * MS));
+        assertEquals(10 * MS, debouncer.remainingNanos(10 * MS));
+
+        assertTrue(debouncer.settle(20 * MS));
+        assertFalse(debouncer.value());
+        assertEquals(5 * MS, debouncer.edgeNanos());
+        assertFalse(debouncer.hasPending());
+    }
+}
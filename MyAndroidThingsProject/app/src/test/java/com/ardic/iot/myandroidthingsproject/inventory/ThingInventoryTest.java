@@ -0,0 +1,106 @@
+package com.ardic.iot.myandroidthingsproject.inventory;
+
+import com.ardic.android.iotignite.enumerations.NodeType;
+import com.ardic.android.iotignite.enumerations.ThingCategory;
+import com.ardic.android.iotignite.enumerations.ThingDataType;
+import com.ardic.iot.myandroidthingsproject.registration.RegistrationSnapshot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThingInventoryTest {
+
+    private static ThingInventory gateway() {
+        return ThingInventory.builder()
+                .node("Android Things Node", NodeType.GENERIC)
+                .thing("Led", "LED", "GPIO", ThingDataType.INTEGER, ThingCategory.BUILTIN, true).gpioOutput("BCM21")
+                .thing("Button", "BUTTON", "GPIO", ThingDataType.INTEGER, ThingCategory.BUILTIN, false).gpioInput("BCM6")
+                .node("Sensor Board", NodeType.RASPBERRY_PI)
+                .thing("Temperature 1", "TEMPERATURE", "BME280", ThingDataType.FLOAT, ThingCategory.EXTERNAL, false)
+                .i2c("I2C1", 0x76).lazy()
+                .thing("Temperature 2", "TEMPERATURE", "BME280", ThingDataType.FLOAT, ThingCategory.EXTERNAL, false)
+                .i2c("I2C1", 0x77)
+                .build();
+    }
+
+    @Test
+    public void groupsThingsByNode() {
+
+        ThingInventory inventory = gateway();
+
+        assertEquals(2, inventory.getNodeCount());
+        assertEquals(4, inventory.getThingCount());
+        assertEquals(0, inventory.getFirstThing(0));
+        assertEquals(2, inventory.getFirstThing(1));
+        assertEquals(4, inventory.getFirstThing(2));
+
+        int sensor = inventory.indexOf("Temperature 2");
+        assertEquals(3, sensor);
+        assertEquals(1, inventory.getNode(sensor));
+        assertEquals("Sensor Board", inventory.getNodeId(1));
+        assertEquals(NodeType.RASPBERRY_PI, inventory.getNodeType(1));
+        assertEquals(-1, inventory.indexOf("Unknown"));
+    }
+
+    @Test
+    public void packsFlagsAndBindings() {
+
+        ThingInventory inventory = gateway();
+
+        int led = inventory.indexOf("Led");
+        assertEquals(ThingCategory.BUILTIN, inventory.getCategory(led));
+        assertTrue(inventory.isActuator(led));
+        assertFalse(inventory.isLazy(led));
+        assertEquals(ThingInventory.Binding.GPIO_OUTPUT, inventory.getBinding(led));
+        assertEquals("BCM21", inventory.getBindingAddress(led));
+
+        int button = inventory.indexOf("Button");
+        assertFalse(inventory.isActuator(button));
+        assertEquals(ThingInventory.Binding.GPIO_INPUT, inventory.getBinding(button));
+
+        int sensor = inventory.indexOf("Temperature 1");
+        assertEquals(ThingCategory.EXTERNAL, inventory.getCategory(sensor));
+        assertTrue(inventory.isLazy(sensor));
+        assertEquals(ThingInventory.Binding.I2C, inventory.getBinding(sensor));
+        assertEquals("I2C1:0x76", inventory.getBindingAddress(sensor));
+    }
+
+    @Test
+    public void sharesThingTypes() {
+
+        ThingInventory inventory = gateway();
+
+        assertSame(inventory.getThingType(2), inventory.getThingType(3));
+        assertNotSame(inventory.getThingType(0), inventory.getThingType(1));
+    }
+
+    @Test
+    public void descriptorsMatchFieldByFieldHashes() {
+
+        ThingInventory inventory = gateway();
+
+        assertEquals(RegistrationSnapshot.descriptor("Led", "LED", "GPIO", ThingDataType.INTEGER, ThingCategory.BUILTIN, true),
+                inventory.thingDescriptor(inventory.indexOf("Led")));
+        assertEquals(RegistrationSnapshot.descriptor("Sensor Board", "Sensor Board", NodeType.RASPBERRY_PI),
+                inventory.nodeDescriptor(1));
+        assertNotEquals(inventory.thingDescriptor(2), inventory.thingDescriptor(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateThingIds() {
+        ThingInventory.builder()
+                .node("A", NodeType.GENERIC)
+                .thing("Led", "LED", "GPIO", ThingDataType.INTEGER, ThingCategory.BUILTIN, true)
+                .node("B", NodeType.GENERIC)
+                .thing("Led", "LED", "GPIO", ThingDataType.INTEGER, ThingCategory.BUILTIN, true);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsSecondBinding() {
+        ThingInventory.builder()
+                .node("A", NodeType.GENERIC)
+                .thing("Led", "LED", "GPIO", ThingDataType.INTEGER, ThingCategory.BUILTIN, true)
+                .gpioOutput("BCM21").gpioInput("BCM6");
+    }
+}
@@ -0,0 +1,69 @@
+package com.ardic.iot.myandroidthingsproject.log;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventLogTest {
+
+    private final List<String> written = new ArrayList<>();
+
+    private final EventLog.Writer writer = new EventLog.Writer() {
+        @Override
+        public void write(int level, String tag, String message) {
+            written.add(message);
+        }
+    };
+
+    @Test
+    public void recordsAreFormattedOnDrain() {
+        EventLog log = new EventLog("test", 8, writer);
+        EventLog.Category data = log.category("onDataReceived");
+
+        assertTrue(log.log(Log.INFO, data, "node", "thing", 42));
+        assertTrue(written.isEmpty());
+
+        assertEquals(1, log.drain());
+        assertTrue(written.get(0).startsWith("onDataReceived [node][thing][42]"));
+    }
+
+    @Test
+    public void fullRingDropsRecords() {
+        EventLog log = new EventLog("test", 4, writer);
+        EventLog.Category data = log.category("data");
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(log.log(Log.INFO, data, "n", "t", i));
+        }
+        assertFalse(log.log(Log.INFO, data, "n", "t", 4));
+        assertEquals(1, log.getDropped());
+
+        assertEquals(4, log.drain());
+        assertTrue(log.log(Log.INFO, data, "n", "t", 5));
+    }
+
+    @Test
+    public void disabledCategoriesAndSamplingFilterRecords() {
+        EventLog log = new EventLog("test", 16, writer);
+        EventLog.Category data = log.category("data");
+        EventLog.Category action = log.category("action");
+
+        action.setEnabled(false);
+        assertFalse(log.log(Log.INFO, action, "n", "t", null));
+
+        log.setSampling(Log.INFO, 3);
+        int accepted = 0;
+        for (int i = 0; i < 9; i++) {
+            if (log.log(Log.INFO, data, "n", "t", i)) {
+                accepted++;
+            }
+        }
+        assertEquals(3, accepted);
+        assertEquals(3, log.drain());
+    }
+}
@@ -0,0 +1,114 @@
+package com.ardic.iot.myandroidthingsproject.metrics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry mRegistry = new MetricsRegistry();
+
+    @Test
+    public void bucketsArePowersOfTwoMicros() {
+
+        assertEquals(0, LatencyHistogram.bucket(0));
+        assertEquals(0, LatencyHistogram.bucket(1));
+        assertEquals(1, LatencyHistogram.bucket(2));
+        assertEquals(2, LatencyHistogram.bucket(3));
+        assertEquals(2, LatencyHistogram.bucket(4));
+        assertEquals(3, LatencyHistogram.bucket(5));
+        assertEquals(10, LatencyHistogram.bucket(1024));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE / 2));
+
+        LatencyHistogram histogram = mRegistry.histogram("call_seconds", "Calls.");
+        histogram.record(1500000);
+        histogram.record(-5);
+        assertEquals(2, histogram.getCount());
+        assertEquals(1, histogram.getBucket(11));
+        assertEquals(1500000, histogram.getSumNanos());
+        assertEquals(1, histogram.percentileMicros(0.5));
+        assertEquals(2048, histogram.percentileMicros(0.99));
+        assertEquals(0, mRegistry.histogram("empty_seconds", "Empty.").percentileMicros(0.5));
+    }
+
+    @Test
+    public void writesPrometheusText() {
+
+        mRegistry.counter("events_total", "Events.", "callback", "onData").add(3);
+        mRegistry.counter("events_total", "Events.", "callback", "on\"Action\"").inc();
+        mRegistry.gauge("pending", "Pending tasks.", new MetricsRegistry.Gauge() {
+            @Override
+            public double value() {
+                return 7;
+            }
+        });
+        mRegistry.histogram("call_seconds", "Calls.", "call", "sendData").record(3000);
+
+        StringBuilder out = new StringBuilder();
+        mRegistry.write(out);
+        String text = out.toString();
+
+        assertTrue(text.contains("# TYPE events_total counter\n"));
+        assertTrue(text.contains("events_total{callback=\"onData\"} 3\n"));
+        assertTrue(text.contains("events_total{callback=\"on\\\"Action\\\"\"} 1\n"));
+        assertTrue(text.contains("# TYPE pending gauge\npending 7\n"));
+        assertTrue(text.contains("call_seconds_bucket{call=\"sendData\",le=\"2.0E-6\"} 0\n"));
+        assertTrue(text.contains("call_seconds_bucket{call=\"sendData\",le=\"4.0E-6\"} 1\n"));
+        assertTrue(text.contains("call_seconds_bucket{call=\"sendData\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("call_seconds_sum{call=\"sendData\"} 3.0E-6\n"));
+        assertTrue(text.contains("call_seconds_count{call=\"sendData\"} 1\n"));
+    }
+
+    @Test
+    public void sameSeriesIsShared() {
+
+        assertSame(mRegistry.counter("a_total", "A.", "x", "1"), mRegistry.counter("a_total", "A.", "x", "1"));
+        assertNotSame(mRegistry.counter("a_total", "A.", "x", "1"), mRegistry.counter("a_total", "A.", "x", "2"));
+
+        try {
+            mRegistry.histogram("a_total", "A.");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // A counter family.
+        }
+    }
+
+    @Test
+    public void servesMetricsOverHttp() throws Exception {
+
+        mRegistry.counter("served_total", "Served.").inc();
+        MetricsHttpServer server = new MetricsHttpServer(mRegistry, 0);
+        server.start();
+        try {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://127.0.0.1:" + server.getPort() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            assertTrue(read(connection.getInputStream()).contains("served_total 1\n"));
+
+            connection = (HttpURLConnection)
+                    new URL("http://127.0.0.1:" + server.getPort() + "/other").openConnection();
+            assertEquals(404, connection.getResponseCode());
+        } finally {
+            server.stop();
+        }
+        assertEquals(-1, server.getPort());
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+}
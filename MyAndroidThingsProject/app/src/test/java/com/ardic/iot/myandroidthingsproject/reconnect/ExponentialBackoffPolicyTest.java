@@ -0,0 +1,71 @@
+package com.ardic.iot.myandroidthingsproject.reconnect;
+
+import com.ardic.iot.myandroidthingsproject.metrics.MetricsRegistry;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ExponentialBackoffPolicyTest {
+
+    @Test
+    public void firstRetryIsFastAndJittered() {
+        ExponentialBackoffPolicy policy = new ExponentialBackoffPolicy(500L, 1000L, 60000L, new Random(1));
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 200; i++) {
+            long delay = policy.nextDelay(1);
+            assertTrue(delay >= 0 && delay <= 500L);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        // Gateways losing the same broker do not retry in lockstep.
+        assertTrue(max - min > 250L);
+    }
+
+    @Test
+    public void delaysStayUnderExponentialCeilingAndCap() {
+        ExponentialBackoffPolicy policy = new ExponentialBackoffPolicy(500L, 1000L, 60000L, new Random(1));
+
+        for (int attempt = 2; attempt < 100; attempt++) {
+            long ceiling = Math.min(60000L, 1000L << Math.min(attempt - 2, 30));
+            for (int i = 0; i < 50; i++) {
+                long delay = policy.nextDelay(attempt);
+                assertTrue(delay >= 0 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void statsTrackReconnects() {
+        MetricsRegistry registry = new MetricsRegistry();
+        ReconnectStats stats = new ReconnectStats(registry);
+        assertEquals(-1, stats.onConnected(0));
+
+        stats.onDisconnected(1000);
+        stats.onDisconnected(2000);
+        stats.onAttempt();
+        stats.onAttempt();
+        stats.onAttempt();
+        assertEquals(3, stats.getPendingAttempts());
+        assertEquals(4000, stats.onConnected(5000));
+
+        assertEquals(2, stats.getDisconnects());
+        assertEquals(1, stats.getReconnects());
+        assertEquals(3, stats.getAttempts());
+        assertEquals(0, stats.getPendingAttempts());
+        assertEquals(1, stats.getTimeToReconnect().getCount());
+        assertEquals(4000000000L, stats.getTimeToReconnect().getSumNanos());
+        assertEquals(4194304, stats.getTimeToReconnect().percentileMicros(0.5));
+
+        StringBuilder out = new StringBuilder();
+        registry.write(out);
+        String text = out.toString();
+        assertTrue(text.contains("gateway_ignite_reconnect_attempts_total 3\n"));
+        assertTrue(text.contains("gateway_ignite_reconnect_seconds_count 1\n"));
+        assertTrue(text.contains("gateway_ignite_reconnect_seconds_sum 4\n"));
+    }
+}
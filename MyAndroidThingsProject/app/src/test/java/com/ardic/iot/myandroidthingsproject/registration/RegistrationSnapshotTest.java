@@ -0,0 +1,111 @@
+package com.ardic.iot.myandroidthingsproject.registration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class RegistrationSnapshotTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("registration", ".snapshot");
+        assertTrue(mFile.delete());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void descriptorChangesWithAnyField() {
+
+        String led = RegistrationSnapshot.descriptor("Led", "LED", "Raspberry Pi 3 GPIO", "INTEGER", "BUILTIN", true);
+
+        assertEquals(led, RegistrationSnapshot.descriptor("Led", "LED", "Raspberry Pi 3 GPIO", "INTEGER", "BUILTIN", true));
+        assertNotEquals(led, RegistrationSnapshot.descriptor("Led", "LED", "Raspberry Pi 3 GPIO", "INTEGER", "BUILTIN", false));
+        assertNotEquals(led, RegistrationSnapshot.descriptor("Led", "LED", "Raspberry Pi 3 GPIO", "FLOAT", "BUILTIN", true));
+        // Fields are separated, moving text between them is a change.
+        assertNotEquals(RegistrationSnapshot.descriptor("ab", "c"), RegistrationSnapshot.descriptor("a", "bc"));
+    }
+
+    @Test
+    public void unchangedEntitiesAreCurrentAfterRestart() throws Exception {
+
+        String node = RegistrationSnapshot.nodeKey("Android Things Node");
+        String led = RegistrationSnapshot.thingKey("Android Things Node", "Led");
+
+        RegistrationSnapshot snapshot = new RegistrationSnapshot(mFile);
+        assertFalse(snapshot.isCurrent(node, "a"));
+        snapshot.record(node, "a");
+        snapshot.record(led, "b");
+        snapshot.save();
+
+        RegistrationSnapshot restarted = new RegistrationSnapshot(mFile);
+        assertTrue(restarted.isCurrent(node, "a"));
+        assertTrue(restarted.isCurrent(led, "b"));
+        assertFalse(restarted.isCurrent(led, "changed"));
+        assertFalse(restarted.isCurrent(led, null));
+    }
+
+    @Test
+    public void changedDescriptorIsRegisteredAgain() throws Exception {
+
+        String led = RegistrationSnapshot.thingKey("Android Things Node", "Led");
+
+        RegistrationSnapshot snapshot = new RegistrationSnapshot(mFile);
+        // Never registered, IoT-Ignite decides.
+        assertFalse(snapshot.isCurrent(led, "a"));
+        assertFalse(snapshot.isChanged(led, "a"));
+
+        snapshot.record(led, "a");
+        snapshot.save();
+
+        RegistrationSnapshot restarted = new RegistrationSnapshot(mFile);
+        assertFalse(restarted.isChanged(led, "a"));
+        assertTrue(restarted.isChanged(led, "b"));
+        assertFalse(restarted.isCurrent(led, "b"));
+
+        // Recorded after register(), current again.
+        restarted.record(led, "b");
+        assertTrue(restarted.isCurrent(led, "b"));
+        assertFalse(restarted.isChanged(led, "b"));
+    }
+
+    @Test
+    public void unregisteredNodeDropsItsThings() throws Exception {
+
+        RegistrationSnapshot snapshot = new RegistrationSnapshot(mFile);
+        snapshot.record(RegistrationSnapshot.nodeKey("Node"), "n");
+        snapshot.record(RegistrationSnapshot.thingKey("Node", "Led"), "l");
+        snapshot.record(RegistrationSnapshot.thingKey("Node", "Button"), "b");
+        snapshot.record(RegistrationSnapshot.thingKey("Node 2", "Led"), "l");
+
+        snapshot.removeNode("Node");
+
+        assertEquals(1, snapshot.size());
+        assertTrue(snapshot.isCurrent(RegistrationSnapshot.thingKey("Node 2", "Led"), "l"));
+    }
+
+    @Test
+    public void unreadableFileStartsCold() throws Exception {
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write("node\\:x=\\u00zz".getBytes("UTF-8"));
+        out.close();
+
+        RegistrationSnapshot snapshot = new RegistrationSnapshot(mFile);
+        assertEquals(0, snapshot.size());
+
+        snapshot.record(RegistrationSnapshot.nodeKey("x"), "a");
+        snapshot.save();
+        assertTrue(new RegistrationSnapshot(mFile).isCurrent(RegistrationSnapshot.nodeKey("x"), "a"));
+    }
+}
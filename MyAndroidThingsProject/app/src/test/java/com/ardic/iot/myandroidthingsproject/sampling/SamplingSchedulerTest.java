@@ -0,0 +1,110 @@
+package com.ardic.iot.myandroidthingsproject.sampling;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SamplingSchedulerTest {
+
+    private final List<String> mSamples = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch mLatch = new CountDownLatch(0);
+
+    private final SamplingScheduler mScheduler = new SamplingScheduler(new SamplingScheduler.Sink() {
+        @Override
+        public void onSample(String thingId, Object value) {
+            mSamples.add(thingId + "=" + value);
+            mLatch.countDown();
+        }
+    });
+
+    private static SamplingScheduler.Sampler constant(final Object value) {
+        return new SamplingScheduler.Sampler() {
+            @Override
+            public Object sample(String thingId) {
+                return value;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.stop();
+    }
+
+    @Test
+    public void skipsMissedPeriodsAtTheSamePhase() {
+
+        assertEquals(1100, SamplingScheduler.nextDue(1000, 100, 1000));
+        assertEquals(1100, SamplingScheduler.nextDue(1000, 100, 1099));
+        assertEquals(1400, SamplingScheduler.nextDue(1000, 100, 1350));
+        assertEquals(1100, SamplingScheduler.nextDue(1000, 100, 900));
+    }
+
+    @Test
+    public void samplesOnlyWithSamplerAndPeriod() throws Exception {
+
+        mScheduler.start();
+        mScheduler.schedule("Led", 10);
+        assertEquals(0, mScheduler.getPeriod("Led"));
+
+        mLatch = new CountDownLatch(3);
+        mScheduler.setSampler("Led", constant(1));
+        assertEquals(10, mScheduler.getPeriod("Led"));
+        assertTrue(mLatch.await(2, TimeUnit.SECONDS));
+        assertEquals("Led=1", mSamples.get(0));
+    }
+
+    @Test
+    public void reschedulesAndCancels() throws Exception {
+
+        mScheduler.setSampler("Button", constant(0));
+        mScheduler.schedule("Button", TimeUnit.HOURS.toMillis(1));
+        mScheduler.start();
+
+        Thread.sleep(50);
+        assertTrue(mSamples.isEmpty());
+
+        mLatch = new CountDownLatch(2);
+        mScheduler.schedule("Button", 10);
+        assertTrue(mLatch.await(2, TimeUnit.SECONDS));
+
+        mScheduler.cancel("Button");
+        assertEquals(0, mScheduler.getPeriod("Button"));
+        int samples = mSamples.size();
+        Thread.sleep(50);
+        // At most one sample which was already taken when cancel() ran.
+        assertTrue(mSamples.size() <= samples + 1);
+    }
+
+    @Test
+    public void failingSamplerKeepsOthersRunning() throws Exception {
+
+        mScheduler.setSampler("Broken", new SamplingScheduler.Sampler() {
+            @Override
+            public Object sample(String thingId) throws IOException {
+                throw new IOException("bus error");
+            }
+        });
+        mScheduler.setSampler("Skipped", constant(null));
+        mScheduler.setSampler("Temperature", constant(21.5f));
+        mScheduler.schedule("Broken", 5);
+        mScheduler.schedule("Skipped", 5);
+
+        mLatch = new CountDownLatch(2);
+        mScheduler.schedule("Temperature", 5);
+        mScheduler.start();
+
+        assertTrue(mLatch.await(2, TimeUnit.SECONDS));
+        for (String sample : mSamples) {
+            assertEquals("Temperature=21.5", sample);
+        }
+        assertTrue(mScheduler.getSamples() >= 2);
+    }
+}
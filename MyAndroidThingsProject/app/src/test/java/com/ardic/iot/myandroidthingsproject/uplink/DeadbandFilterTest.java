@@ -0,0 +1,65 @@
+package com.ardic.iot.myandroidthingsproject.uplink;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeadbandFilterTest {
+
+    private static List<Object> values(Object... values) {
+        return Arrays.asList(values);
+    }
+
+    @Test
+    public void unconfiguredThingsAlwaysPass() {
+        DeadbandFilter filter = new DeadbandFilter();
+        assertTrue(filter.shouldSend("Button", values(1), 0));
+        assertTrue(filter.shouldSend("Button", values(1), 1));
+        assertEquals(2, filter.getSent());
+    }
+
+    @Test
+    public void zeroDeadbandSuppressesRepeats() {
+        DeadbandFilter filter = new DeadbandFilter();
+        filter.configure("Led", new DeadbandFilter.Config(0, 0, 0));
+
+        assertTrue(filter.shouldSend("Led", values(1), 0));
+        assertFalse(filter.shouldSend("Led", values(1), 10));
+        assertTrue(filter.shouldSend("Led", values(0), 20));
+        assertEquals(1, filter.getSuppressed());
+    }
+
+    @Test
+    public void largerOfAbsoluteAndPercentDeadbandApplies() {
+        DeadbandFilter filter = new DeadbandFilter();
+        filter.configure("Temperature", new DeadbandFilter.Config(0.1, 5, 0));
+
+        assertTrue(filter.shouldSend("Temperature", values(20f), 0));
+        // 5% of 20 is 1.0
+        assertFalse(filter.shouldSend("Temperature", values(20.9f), 1));
+        assertTrue(filter.shouldSend("Temperature", values(21.5f), 2));
+        // Latest value of a multi-value send is the reference.
+        assertFalse(filter.shouldSend("Temperature", values(30f, 21.6f), 3));
+    }
+
+    @Test
+    public void heartbeatRepeatsLastValuesAfterSilence() {
+        DeadbandFilter filter = new DeadbandFilter();
+        filter.configure("Led", new DeadbandFilter.Config(0, 0, 1000));
+
+        assertTrue(filter.shouldSend("Led", values(1), 0));
+        assertFalse(filter.shouldSend("Led", values(1), 500));
+        assertTrue(filter.dueHeartbeats(900).isEmpty());
+
+        List<DeadbandFilter.Heartbeat> due = filter.dueHeartbeats(1000);
+        assertEquals(1, due.size());
+        assertEquals(values(1), due.get(0).values);
+        assertEquals(1, filter.getHeartbeats());
+
+        assertFalse(filter.shouldSend("Led", values(1), 1500));
+        assertTrue(filter.shouldSend("Led", values(1), 2000));
+    }
+}
@@ -0,0 +1,165 @@
+package com.ardic.iot.myandroidthingsproject.uplink;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OfflineJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void drainsInWriteOrderAndMergesSameThing() throws Exception {
+        OfflineJournal journal = new OfflineJournal(folder.getRoot());
+
+        journal.append("Button", Arrays.<Object>asList(1));
+        journal.append("Button", Arrays.<Object>asList(0));
+        journal.append("Led", Arrays.<Object>asList(1));
+        journal.append("Button", Arrays.<Object>asList("x", 2.5f, true));
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        assertEquals(3, journal.drain(consumer, 16));
+
+        assertEquals(Arrays.asList("Button", "Led", "Button"), consumer.thingIds);
+        assertEquals(Arrays.<Object>asList(1, 0), consumer.values.get(0));
+        assertEquals(Arrays.<Object>asList("x", 2.5f, true), consumer.values.get(2));
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void multiValueRecordsAreNotMerged() throws Exception {
+        OfflineJournal journal = new OfflineJournal(folder.getRoot());
+
+        journal.append("Esp/Temperature", Arrays.<Object>asList(20f, 24f, 22f, 10f, 23f));
+        journal.append("Esp/Temperature", Arrays.<Object>asList(21f, 25f, 23f, 10f, 24f));
+        journal.append("Esp/Temperature", Arrays.<Object>asList(1));
+        journal.append("Esp/Temperature", Arrays.<Object>asList(2));
+        journal.append("Esp/Temperature", Arrays.<Object>asList(22f, 26f, 24f, 10f, 25f));
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        assertEquals(4, journal.drain(consumer, 16));
+
+        assertEquals(Arrays.<Object>asList(20f, 24f, 22f, 10f, 23f), consumer.values.get(0));
+        assertEquals(Arrays.<Object>asList(21f, 25f, 23f, 10f, 24f), consumer.values.get(1));
+        assertEquals(Arrays.<Object>asList(1, 2), consumer.values.get(2));
+        assertEquals(Arrays.<Object>asList(22f, 26f, 24f, 10f, 25f), consumer.values.get(3));
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void rejectedDataIsOfferedAgainAfterReopen() throws Exception {
+        OfflineJournal journal = new OfflineJournal(folder.getRoot());
+        journal.append("Led", Arrays.<Object>asList(1));
+        journal.append("Button", Arrays.<Object>asList(1));
+
+        RecordingConsumer first = new RecordingConsumer();
+        first.acceptCount = 1;
+        assertEquals(1, journal.drain(first, 16));
+        journal.sync();
+
+        OfflineJournal reopened = new OfflineJournal(folder.getRoot());
+        RecordingConsumer second = new RecordingConsumer();
+        assertEquals(1, reopened.drain(second, 16));
+        assertEquals(Arrays.asList("Button"), second.thingIds);
+    }
+
+    @Test
+    public void dropsOldestSegmentWhenFull() throws Exception {
+        File dir = folder.getRoot();
+        OfflineJournal journal = new OfflineJournal(dir, 256, 2);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(journal.append("Button", Arrays.<Object>asList(i)));
+        }
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        journal.drain(consumer, 1);
+
+        List<Object> drained = new ArrayList<>();
+        for (List<Object> values : consumer.values) {
+            drained.addAll(values);
+        }
+        assertTrue(drained.size() < 100);
+        assertEquals(99, drained.get(drained.size() - 1));
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void skipsCorruptedRecords() throws Exception {
+        File dir = folder.getRoot();
+        OfflineJournal journal = new OfflineJournal(dir, 256, 4);
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(journal.append("Button", Arrays.<Object>asList(i)));
+        }
+        journal.sync();
+        // Break the checksum of the first record in the oldest segment.
+        corrupt(new File(dir, String.format("segment-%016d.log", 0)), 4);
+
+        OfflineJournal reopened = new OfflineJournal(dir, 256, 4);
+        assertFalse(reopened.isEmpty());
+        RecordingConsumer consumer = new RecordingConsumer();
+        reopened.drain(consumer, 1);
+
+        assertEquals(19, consumer.values.size());
+        assertEquals(Arrays.<Object>asList(1), consumer.values.get(0));
+        assertTrue(reopened.isEmpty());
+    }
+
+    @Test
+    public void clampsReadOffsetToRecoveredEnd() throws Exception {
+        File dir = folder.getRoot();
+        OfflineJournal journal = new OfflineJournal(dir);
+        journal.append("Led", Arrays.<Object>asList(1));
+        journal.append("Led", Arrays.<Object>asList(0));
+        journal.drain(new RecordingConsumer(), 16);
+        journal.sync();
+        // Torn last record, the saved read offset is now past the end of the data.
+        corrupt(new File(dir, String.format("segment-%016d.log", 0)), 20 + 4);
+
+        OfflineJournal reopened = new OfflineJournal(dir);
+        assertTrue(reopened.isEmpty());
+        reopened.append("Button", Arrays.<Object>asList(1));
+        assertFalse(reopened.isEmpty());
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        assertEquals(1, reopened.drain(consumer, 16));
+        assertEquals(Arrays.asList("Button"), consumer.thingIds);
+        assertTrue(reopened.isEmpty());
+    }
+
+    private static void corrupt(File segment, int position) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(position);
+            int value = file.readInt();
+            file.seek(position);
+            file.writeInt(~value);
+        }
+    }
+
+    private static class RecordingConsumer implements OfflineJournal.Consumer {
+
+        private final List<String> thingIds = new ArrayList<>();
+        private final List<List<Object>> values = new ArrayList<>();
+        private int acceptCount = Integer.MAX_VALUE;
+
+        @Override
+        public boolean accept(String thingId, List<Object> values) {
+            if (thingIds.size() >= acceptCount) {
+                return false;
+            }
+            this.thingIds.add(thingId);
+            this.values.add(values);
+            return true;
+        }
+    }
+}
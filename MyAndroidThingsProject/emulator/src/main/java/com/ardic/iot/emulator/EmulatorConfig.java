@@ -0,0 +1,107 @@
+package com.ardic.iot.emulator;
+
+/**
+ * Load profile of an emulator run, parsed from command line options.
+ */
+public class EmulatorConfig {
+
+    public static final String DEFAULT_NODE_TYPE = "DYNAMIC NODE - DHT11 SENSOR";
+
+    public String host = "127.0.0.1";
+    public int port = -1;
+    public int nodes = 100;
+    public long readingIntervalMillis = 1000L;
+    public long rampMillis = 10000L;
+    public long durationSeconds = 60L;
+    public long reportSeconds = 5L;
+    public long reconnectMillis = 5000L;
+    public int threads = Runtime.getRuntime().availableProcessors();
+    public String nodeType = DEFAULT_NODE_TYPE;
+    public boolean binaryWire = true;
+
+    public static EmulatorConfig parse(String[] args) {
+
+        EmulatorConfig config = new EmulatorConfig();
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+
+            switch (option) {
+                case "--host":
+                    config.host = value;
+                    break;
+                case "--port":
+                    config.port = Integer.parseInt(value);
+                    break;
+                case "--nodes":
+                    config.nodes = Integer.parseInt(value);
+                    break;
+                case "--interval-ms":
+                    config.readingIntervalMillis = Long.parseLong(value);
+                    break;
+                case "--ramp-ms":
+                    config.rampMillis = Long.parseLong(value);
+                    break;
+                case "--duration-s":
+                    config.durationSeconds = Long.parseLong(value);
+                    break;
+                case "--report-s":
+                    config.reportSeconds = Long.parseLong(value);
+                    break;
+                case "--reconnect-ms":
+                    config.reconnectMillis = Long.parseLong(value);
+                    break;
+                case "--threads":
+                    config.threads = Integer.parseInt(value);
+                    break;
+                case "--node-type":
+                    config.nodeType = value;
+                    break;
+                case "--binary":
+                    config.binaryWire = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+
+        config.validate();
+        return config;
+    }
+
+    public void validate() {
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("Gateway port is required : --port <port>");
+        }
+        if (nodes < 1 || threads < 1 || readingIntervalMillis < 1 || reportSeconds < 1) {
+            throw new IllegalArgumentException("Invalid load profile : " + this);
+        }
+    }
+
+    /**
+     * Data messages per second the nodes try to send, two things per node.
+     */
+    public double offeredRate() {
+        return nodes * SimulatedNode.THINGS.size() * 1000.0 / readingIntervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return nodes + " nodes -> " + host + ":" + port
+                + ", reading every " + readingIntervalMillis + "ms"
+                + ", ramp " + rampMillis + "ms"
+                + ", " + threads + " io threads"
+                + (binaryWire ? ", binary wire format if offered" : ", json only");
+    }
+
+    public static String usage() {
+        return "Usage: emulator --port <gateway port> [--host 127.0.0.1] [--nodes 100]"
+                + " [--interval-ms 1000] [--ramp-ms 10000] [--duration-s 60] [--report-s 5]"
+                + " [--reconnect-ms 5000] [--threads <cpus>] [--node-type \"" + DEFAULT_NODE_TYPE + "\"]"
+                + " [--binary true|false (accept binary wire format offers)]";
+    }
+}
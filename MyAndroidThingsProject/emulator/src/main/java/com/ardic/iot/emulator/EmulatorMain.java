@@ -0,0 +1,48 @@
+package com.ardic.iot.emulator;
+
+import com.ardic.iot.protocol.JsonNodeCodec;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry of the gateway load test. Prints a throughput line every report
+ * interval and a summary at the end of the run.
+ */
+public class EmulatorMain {
+
+    private EmulatorMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        EmulatorConfig config;
+        try {
+            config = EmulatorConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(EmulatorConfig.usage());
+            System.exit(2);
+            return;
+        }
+
+        System.out.println("Emulating " + config);
+
+        NodeEmulator emulator = new NodeEmulator(config, new JsonNodeCodec());
+        LoadReport report = emulator.getReport();
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        emulator.start();
+
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(config.reportSeconds), TimeUnit.NANOSECONDS.toMillis(end - now) + 1));
+            System.out.println(String.format("[%4ds] ", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)) + report.interval());
+        }
+
+        emulator.stop();
+
+        System.out.println();
+        System.out.println(report.summary((System.nanoTime() - start) / 1e9));
+    }
+}
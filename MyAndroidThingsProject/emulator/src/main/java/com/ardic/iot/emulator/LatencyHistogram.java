@@ -0,0 +1,99 @@
+package com.ardic.iot.emulator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with four sub-buckets per power of two microseconds.
+ * Percentiles are reported as the upper bound of their bucket, at most 25% above the real value.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long nanos) {
+
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+
+        mCounts.incrementAndGet(bucket(micros));
+        mCount.incrementAndGet();
+        mSum.addAndGet(micros);
+
+        long max;
+        do {
+            max = mMax.get();
+        } while (micros > max && !mMax.compareAndSet(max, micros));
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @param percentile 0 - 100
+     * @return latency in microseconds, 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    @Override
+    public String toString() {
+        long count = mCount.get();
+        if (count == 0) {
+            return "n=0";
+        }
+        return "n=" + count
+                + " mean=" + formatMicros(mSum.get() / count)
+                + " p50=" + formatMicros(percentile(50))
+                + " p99=" + formatMicros(percentile(99))
+                + " max=" + formatMicros(mMax.get());
+    }
+
+    private static String formatMicros(long micros) {
+        if (micros < 1000) {
+            return micros + "us";
+        }
+        return String.format("%.1fms", micros / 1000.0);
+    }
+}
@@ -0,0 +1,128 @@
+package com.ardic.iot.emulator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of an emulator run.
+ *
+ * Sent throughput falling behind the offered rate, a growing number of skipped readings or
+ * long write stalls show that the gateway does not read its sockets fast enough.
+ */
+public class LoadReport {
+
+    final AtomicLong connectAttempts = new AtomicLong();
+    final AtomicLong connectFailures = new AtomicLong();
+    final AtomicLong disconnects = new AtomicLong();
+    final AtomicInteger connected = new AtomicInteger();
+    final AtomicInteger registered = new AtomicInteger();
+
+    final AtomicLong messagesSent = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+    final AtomicLong readingsSkipped = new AtomicLong();
+
+    final AtomicLong configurations = new AtomicLong();
+    final AtomicLong actions = new AtomicLong();
+    final AtomicLong resets = new AtomicLong();
+    final AtomicLong inventoryRequests = new AtomicLong();
+    final AtomicLong wireFormatOffers = new AtomicLong();
+    final AtomicLong unknownMessages = new AtomicLong();
+    final AtomicLong invalidMessages = new AtomicLong();
+
+    /**
+     * Socket connect.
+     */
+    final LatencyHistogram connectLatency = new LatencyHistogram();
+
+    /**
+     * Inventory sent until the first configuration is received.
+     */
+    final LatencyHistogram registrationLatency = new LatencyHistogram();
+
+    /**
+     * Time a partially written message waited for the gateway to read its socket.
+     */
+    final LatencyHistogram writeStall = new LatencyHistogram();
+
+    private final double mOfferedRate;
+    private long mLastNanos;
+    private long mLastSent;
+    private long mLastBytes;
+    private long mLastSkipped;
+
+    public LoadReport(double offeredRate) {
+        this.mOfferedRate = offeredRate;
+        this.mLastNanos = System.nanoTime();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public long getReadingsSkipped() {
+        return readingsSkipped.get();
+    }
+
+    public int getConnected() {
+        return connected.get();
+    }
+
+    public int getRegistered() {
+        return registered.get();
+    }
+
+    public long getConfigurations() {
+        return configurations.get();
+    }
+
+    public LatencyHistogram getRegistrationLatency() {
+        return registrationLatency;
+    }
+
+    /**
+     * One line with the rates since the previous call.
+     */
+    public synchronized String interval() {
+
+        long now = System.nanoTime();
+        long sent = messagesSent.get();
+        long bytes = bytesSent.get();
+        long skipped = readingsSkipped.get();
+        double seconds = Math.max(1, now - mLastNanos) / 1e9;
+
+        String line = String.format("connected=%d registered=%d sent=%.0f/s (offered %.0f/s) %.1f KB/s skipped=%.0f/s",
+                connected.get(), registered.get(),
+                (sent - mLastSent) / seconds, mOfferedRate,
+                (bytes - mLastBytes) / seconds / 1024,
+                (skipped - mLastSkipped) / seconds);
+
+        mLastNanos = now;
+        mLastSent = sent;
+        mLastBytes = bytes;
+        mLastSkipped = skipped;
+        return line;
+    }
+
+    public String summary(double elapsedSeconds) {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Throughput   : %.0f msg/s sent, %.0f msg/s offered, %d readings skipped%n",
+                messagesSent.get() / elapsedSeconds, mOfferedRate, readingsSkipped.get()));
+        builder.append("Connections  : ").append(connectAttempts.get()).append(" attempts, ")
+                .append(connectFailures.get()).append(" failed, ")
+                .append(disconnects.get()).append(" dropped, ")
+                .append(connected.get()).append(" open, ")
+                .append(registered.get()).append(" registered").append(String.format("%n"));
+        builder.append("Received     : ").append(configurations.get()).append(" configuration, ")
+                .append(actions.get()).append(" action, ")
+                .append(resets.get()).append(" reset, ")
+                .append(inventoryRequests.get()).append(" inventory-status, ")
+                .append(wireFormatOffers.get()).append(" wire-format, ")
+                .append(unknownMessages.get()).append(" unknown, ")
+                .append(invalidMessages.get()).append(" invalid").append(String.format("%n"));
+        builder.append("Connect      : ").append(connectLatency).append(String.format("%n"));
+        builder.append("Registration : ").append(registrationLatency).append(String.format("%n"));
+        builder.append("Write stall  : ").append(writeStall);
+        return builder.toString();
+    }
+}
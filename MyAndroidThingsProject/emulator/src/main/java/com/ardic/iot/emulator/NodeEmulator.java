@@ -0,0 +1,447 @@
+package com.ardic.iot.emulator;
+
+import com.ardic.iot.protocol.BinaryFrame;
+import com.ardic.iot.protocol.LineFramer;
+import com.ardic.iot.protocol.NodeMessage;
+import com.ardic.iot.protocol.NodeMessageCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emulates many NodeMCU devices against a gateway.
+ *
+ * Nodes are spread over a few io threads, each with its own selector and timer queue,
+ * so thousands of nodes need neither thousands of threads nor blocking writes. Like the real
+ * node, a node sends its inventory after connecting and then a temperature and a humidity
+ * reading every interval, as JSON or as binary frames if the gateway offers them. A reading
+ * is skipped while the previous one is still unread by the gateway.
+ */
+public class NodeEmulator {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final EmulatorConfig mConfig;
+    private final NodeMessageCodec mCodec;
+    private final LoadReport mReport;
+    private final InetSocketAddress mGateway;
+    private final List<IoLoop> mLoops = new ArrayList<>();
+
+    public NodeEmulator(EmulatorConfig config, NodeMessageCodec codec) {
+        this.mConfig = config;
+        this.mCodec = codec;
+        this.mReport = new LoadReport(config.offeredRate());
+        this.mGateway = new InetSocketAddress(config.host, config.port);
+    }
+
+    public LoadReport getReport() {
+        return mReport;
+    }
+
+    public synchronized void start() throws IOException {
+
+        if (!mLoops.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.min(mConfig.threads, mConfig.nodes);
+        for (int i = 0; i < threads; i++) {
+            mLoops.add(new IoLoop(i));
+        }
+
+        long now = System.nanoTime();
+        long interval = TimeUnit.MILLISECONDS.toNanos(mConfig.readingIntervalMillis);
+        long ramp = TimeUnit.MILLISECONDS.toNanos(mConfig.rampMillis);
+
+        for (int i = 0; i < mConfig.nodes; i++) {
+            SimulatedNode node = new SimulatedNode(i, interval);
+            // Nodes are switched on evenly over the ramp.
+            node.nextDueNanos = now + ramp * i / mConfig.nodes;
+            mLoops.get(i % threads).mTimers.add(node);
+        }
+
+        for (IoLoop loop : mLoops) {
+            loop.mThread.start();
+        }
+    }
+
+    public synchronized void stop() throws InterruptedException {
+
+        for (IoLoop loop : mLoops) {
+            loop.mRunning = false;
+            loop.mSelector.wakeup();
+        }
+        for (IoLoop loop : mLoops) {
+            loop.mThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        mLoops.clear();
+    }
+
+    private class IoLoop implements Runnable {
+
+        private final Selector mSelector;
+        private final Thread mThread;
+        private final PriorityQueue<SimulatedNode> mTimers = new PriorityQueue<>(64, new Comparator<SimulatedNode>() {
+            @Override
+            public int compare(SimulatedNode a, SimulatedNode b) {
+                return Long.compare(a.nextDueNanos, b.nextDueNanos);
+            }
+        });
+        private final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final BinaryFrame.Writer mFrameWriter = new BinaryFrame.Writer();
+        private volatile boolean mRunning = true;
+
+        private SimulatedNode mReading;
+        private final LineFramer.LineHandler mLineHandler = new LineFramer.LineHandler() {
+            @Override
+            public void onLine(byte[] buffer, int offset, int length) {
+                onMessage(mReading, buffer, offset, length);
+            }
+        };
+
+        private IoLoop(int id) throws IOException {
+            this.mSelector = Selector.open();
+            this.mThread = new Thread(this, "EmulatorIo-" + id);
+            this.mThread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                while (mRunning) {
+                    long now = System.nanoTime();
+                    runTimers(now);
+
+                    long waitMillis = 1000;
+                    SimulatedNode next = mTimers.peek();
+                    if (next != null) {
+                        waitMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.nextDueNanos - now));
+                    }
+
+                    mSelector.select(waitMillis);
+
+                    for (SelectionKey key : mSelector.selectedKeys()) {
+                        handleKey(key);
+                    }
+                    mSelector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                System.err.println("Emulator io loop failed : " + e);
+            } finally {
+                for (SelectionKey key : new ArrayList<>(mSelector.keys())) {
+                    close((SimulatedNode) key.attachment(), false);
+                }
+                try {
+                    mSelector.close();
+                } catch (IOException e) {
+                    // Closing anyway.
+                }
+            }
+        }
+
+        private void runTimers(long now) {
+
+            SimulatedNode node;
+            while ((node = mTimers.peek()) != null && node.nextDueNanos <= now) {
+                mTimers.poll();
+
+                if (node.state == SimulatedNode.State.IDLE) {
+                    connect(node, now);
+                } else if (node.state == SimulatedNode.State.CONNECTED) {
+                    sendReadings(node, now);
+                    node.nextDueNanos += node.readingIntervalNanos;
+                    if (node.nextDueNanos < now) {
+                        // Fell behind, do not burst to catch up.
+                        node.nextDueNanos = now + node.readingIntervalNanos;
+                    }
+                    mTimers.add(node);
+                }
+            }
+        }
+
+        private void connect(SimulatedNode node, long now) {
+
+            mReport.connectAttempts.incrementAndGet();
+            node.connectStartNanos = now;
+
+            node.state = SimulatedNode.State.CONNECTING;
+
+            try {
+                SocketChannel channel = SocketChannel.open();
+                node.channel = channel;
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                if (channel.connect(mGateway)) {
+                    node.key = channel.register(mSelector, SelectionKey.OP_READ, node);
+                    connected(node);
+                } else {
+                    node.key = channel.register(mSelector, SelectionKey.OP_CONNECT, node);
+                }
+            } catch (IOException e) {
+                mReport.connectFailures.incrementAndGet();
+                close(node, true);
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+
+            SimulatedNode node = (SimulatedNode) key.attachment();
+
+            try {
+                if (!key.isValid()) {
+                    close(node, true);
+                    return;
+                }
+                if (key.isConnectable()) {
+                    if (node.channel.finishConnect()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        connected(node);
+                    }
+                    return;
+                }
+                if (key.isWritable()) {
+                    flush(node);
+                }
+                if (node.state == SimulatedNode.State.CONNECTED && key.isReadable()) {
+                    read(node);
+                }
+            } catch (IOException e) {
+                if (node.state == SimulatedNode.State.CONNECTING) {
+                    mReport.connectFailures.incrementAndGet();
+                }
+                close(node, true);
+            }
+        }
+
+        private void connected(SimulatedNode node) throws IOException {
+
+            long now = System.nanoTime();
+            node.state = SimulatedNode.State.CONNECTED;
+            mReport.connected.incrementAndGet();
+            mReport.connectLatency.record(now - node.connectStartNanos);
+
+            sendInventory(node, now);
+
+            node.nextDueNanos = now + node.readingIntervalNanos;
+            mTimers.add(node);
+        }
+
+        private void sendInventory(SimulatedNode node, long now) throws IOException {
+            node.inventorySentNanos = now;
+            write(node, mCodec.encode(node.inventory(mConfig.nodeType)), now);
+        }
+
+        private void sendReadings(SimulatedNode node, long now) {
+
+            if (node.pending != null) {
+                // The gateway has not read the previous reading yet.
+                mReport.readingsSkipped.incrementAndGet();
+                return;
+            }
+
+            node.read();
+
+            byte[][] encoded;
+            if (node.binaryWire) {
+                encoded = node.binaryReadings(mFrameWriter);
+            } else {
+                NodeMessage[] readings = node.readings();
+                encoded = new byte[readings.length][];
+                for (int i = 0; i < readings.length; i++) {
+                    encoded[i] = mCodec.encode(readings[i]);
+                }
+            }
+
+            int size = 0;
+            for (byte[] message : encoded) {
+                size += message.length;
+            }
+
+            byte[] packet = new byte[size];
+            int offset = 0;
+            for (byte[] message : encoded) {
+                System.arraycopy(message, 0, packet, offset, message.length);
+                offset += message.length;
+            }
+
+            try {
+                write(node, packet, now);
+                mReport.messagesSent.addAndGet(encoded.length);
+            } catch (IOException e) {
+                close(node, true);
+            }
+        }
+
+        private void write(SimulatedNode node, byte[] packet, long now) throws IOException {
+
+            ByteBuffer buffer = ByteBuffer.wrap(packet);
+
+            if (node.pending != null) {
+                // Keep the order, append behind the unread data.
+                ByteBuffer joined = ByteBuffer.allocate(node.pending.remaining() + packet.length);
+                joined.put(node.pending).put(packet).flip();
+                node.pending = joined;
+                return;
+            }
+
+            node.channel.write(buffer);
+            mReport.bytesSent.addAndGet(buffer.position());
+
+            if (buffer.hasRemaining()) {
+                node.pending = buffer;
+                node.pendingSinceNanos = now;
+                node.key.interestOps(node.key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void flush(SimulatedNode node) throws IOException {
+
+            ByteBuffer pending = node.pending;
+            if (pending == null) {
+                node.key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+
+            int before = pending.position();
+            node.channel.write(pending);
+            mReport.bytesSent.addAndGet(pending.position() - before);
+
+            if (!pending.hasRemaining()) {
+                node.pending = null;
+                mReport.writeStall.record(System.nanoTime() - node.pendingSinceNanos);
+                node.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void read(SimulatedNode node) throws IOException {
+
+            while (node.state == SimulatedNode.State.CONNECTED) {
+                mReadBuffer.clear();
+                int read = node.channel.read(mReadBuffer);
+                if (read < 0) {
+                    close(node, true);
+                    return;
+                }
+                if (read == 0) {
+                    return;
+                }
+                mReadBuffer.flip();
+
+                mReading = node;
+                try {
+                    node.framer.feed(mReadBuffer, mLineHandler);
+                } catch (ProtocolException e) {
+                    mReport.invalidMessages.incrementAndGet();
+                } finally {
+                    mReading = null;
+                }
+            }
+        }
+
+        private void onMessage(SimulatedNode node, byte[] line, int offset, int length) {
+
+            if (node.state != SimulatedNode.State.CONNECTED) {
+                // Reset by an earlier line of the same read.
+                return;
+            }
+
+            NodeMessage message;
+            try {
+                message = mCodec.decode(line, offset, length);
+            } catch (ProtocolException e) {
+                mReport.invalidMessages.incrementAndGet();
+                return;
+            }
+
+            long now = System.nanoTime();
+
+            try {
+                switch (message.getMessageType()) {
+                    case NodeMessage.CONFIGURATION:
+                        mReport.configurations.incrementAndGet();
+                        if (!node.registered) {
+                            node.registered = true;
+                            mReport.registered.incrementAndGet();
+                            mReport.registrationLatency.record(now - node.inventorySentNanos);
+                        }
+                        Long frequency = message.getDataReadingFrequency();
+                        if (frequency != null && frequency > 0) {
+                            node.readingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(frequency);
+                        }
+                        break;
+                    case NodeMessage.ACTION:
+                        mReport.actions.incrementAndGet();
+                        break;
+                    case NodeMessage.INVENTORY_STATUS:
+                        mReport.inventoryRequests.incrementAndGet();
+                        sendInventory(node, now);
+                        break;
+                    case NodeMessage.WIRE_FORMAT:
+                        mReport.wireFormatOffers.incrementAndGet();
+                        if (mConfig.binaryWire || !NodeMessage.FORMAT_BINARY.equals(message.getFormat())) {
+                            // Acknowledge in the old format, then switch.
+                            write(node, mCodec.encode(NodeMessage.wireFormat(message.getFormat())), now);
+                            node.binaryWire = NodeMessage.FORMAT_BINARY.equals(message.getFormat());
+                        }
+                        break;
+                    case NodeMessage.RESET:
+                        // Node forgets its registration and starts over.
+                        mReport.resets.incrementAndGet();
+                        close(node, true);
+                        break;
+                    default:
+                        mReport.unknownMessages.incrementAndGet();
+                        break;
+                }
+            } catch (IOException e) {
+                close(node, true);
+            }
+        }
+
+        private void close(SimulatedNode node, boolean reconnect) {
+
+            if (node.state == SimulatedNode.State.IDLE) {
+                return;
+            }
+            if (node.state == SimulatedNode.State.CONNECTED) {
+                mReport.connected.decrementAndGet();
+                mReport.disconnects.incrementAndGet();
+                if (node.registered) {
+                    mReport.registered.decrementAndGet();
+                }
+            }
+
+            if (node.key != null) {
+                node.key.cancel();
+            }
+            if (node.channel != null) {
+                try {
+                    node.channel.close();
+                } catch (IOException e) {
+                    // Already broken.
+                }
+            }
+
+            // Connected nodes are still in the timer queue.
+            mTimers.remove(node);
+            node.closed();
+
+            if (reconnect && mRunning) {
+                node.nextDueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mConfig.reconnectMillis);
+                mTimers.add(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.ardic.iot.emulator;
+
+import com.ardic.iot.protocol.BinaryFrame;
+import com.ardic.iot.protocol.LineFramer;
+import com.ardic.iot.protocol.NodeMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * State of one emulated NodeMCU with a DHT11, same inventory as IgniteEsp8266ThingHandler.
+ * Owned by a single io loop, not thread safe.
+ */
+class SimulatedNode {
+
+    static final String TEMPERATURE_THING = "DHT11 Temperature Sensor";
+    static final String HUMIDITY_THING = "DHT11 Humidity Sensor";
+
+    static final List<NodeMessage.InventoryThing> THINGS = Arrays.asList(
+            new NodeMessage.InventoryThing(TEMPERATURE_THING, "Temperature", "D4", false,
+                    "DHT11 Temperature And Humidity Sensor", "FLOAT"),
+            new NodeMessage.InventoryThing(HUMIDITY_THING, "Humidity", "D4", false,
+                    "DHT11 Temperature And Humidity Sensor", "FLOAT"));
+
+    enum State {
+        IDLE, CONNECTING, CONNECTED
+    }
+
+    final int index;
+    final String nodeId;
+    final LineFramer framer = new LineFramer();
+
+    State state = State.IDLE;
+    SocketChannel channel;
+    SelectionKey key;
+
+    /**
+     * Encoded messages the gateway has not read yet.
+     */
+    ByteBuffer pending;
+    long pendingSinceNanos;
+
+    long readingIntervalNanos;
+    long nextDueNanos;
+    long connectStartNanos;
+    long inventorySentNanos;
+    boolean registered;
+
+    /**
+     * Readings go out as binary frames once the gateway offered the format.
+     */
+    boolean binaryWire;
+
+    private final Random mRandom;
+    private double mTemperature;
+    private double mHumidity;
+
+    SimulatedNode(int index, long readingIntervalNanos) {
+        this.index = index;
+        this.nodeId = macAddress(index);
+        this.readingIntervalNanos = readingIntervalNanos;
+        this.mRandom = new Random(index);
+        this.mTemperature = 20 + mRandom.nextDouble() * 8;
+        this.mHumidity = 35 + mRandom.nextDouble() * 25;
+    }
+
+    /**
+     * Locally administered MAC address, upper case like getMacAddress() on the node.
+     */
+    static String macAddress(int index) {
+        return String.format("EE:00:%02X:%02X:%02X:%02X",
+                (index >>> 24) & 0xff, (index >>> 16) & 0xff, (index >>> 8) & 0xff, index & 0xff);
+    }
+
+    NodeMessage inventory(String nodeType) {
+        return NodeMessage.inventory(nodeId, nodeType, THINGS);
+    }
+
+    /**
+     * Next DHT11 reading, a slow random walk.
+     */
+    void read() {
+        mTemperature = clamp(mTemperature + mRandom.nextGaussian() * 0.1, 0, 50);
+        mHumidity = clamp(mHumidity + mRandom.nextGaussian() * 0.3, 20, 90);
+    }
+
+    /**
+     * Current reading formatted like Arduino's String(float).
+     */
+    NodeMessage[] readings() {
+        return new NodeMessage[]{
+                NodeMessage.data(TEMPERATURE_THING, String.format(Locale.US, "%.2f", mTemperature)),
+                NodeMessage.data(HUMIDITY_THING, String.format(Locale.US, "%.2f", mHumidity))
+        };
+    }
+
+    /**
+     * Current reading as binary frames, things indexed in inventory order.
+     */
+    byte[][] binaryReadings(BinaryFrame.Writer writer) {
+        return new byte[][]{
+                writer.floats(0, new float[]{(float) mTemperature}, 1, 0),
+                writer.floats(1, new float[]{(float) mHumidity}, 1, 0)
+        };
+    }
+
+    void closed() {
+        state = State.IDLE;
+        channel = null;
+        key = null;
+        pending = null;
+        registered = false;
+        binaryWire = false;
+        framer.reset();
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,113 @@
+package com.ardic.iot.emulator;
+
+import com.ardic.iot.protocol.JsonNodeCodec;
+import com.ardic.iot.protocol.NodeMessage;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NodeEmulatorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Minimal gateway: answers every inventory with a configuration, optionally offers the
+     * binary wire format and counts data lines and binary frames.
+     */
+    private static void serve(final Socket socket, final boolean offerBinary,
+                              final AtomicInteger dataLines, final AtomicInteger binaryFrames) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                JsonNodeCodec codec = new JsonNodeCodec();
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+                    OutputStream out = socket.getOutputStream();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.startsWith("{")) {
+                            binaryFrames.incrementAndGet();
+                            continue;
+                        }
+                        byte[] bytes = line.getBytes(UTF_8);
+                        NodeMessage message = codec.decode(bytes, 0, bytes.length);
+                        if (NodeMessage.INVENTORY.equals(message.getMessageType())) {
+                            assertEquals(EmulatorConfig.DEFAULT_NODE_TYPE, message.getNodeType());
+                            out.write(codec.encode(NodeMessage.configuration(SimulatedNode.TEMPERATURE_THING, 20)));
+                            if (offerBinary) {
+                                out.write(codec.encode(NodeMessage.wireFormat(NodeMessage.FORMAT_BINARY)));
+                            }
+                        } else if (NodeMessage.DATA.equals(message.getMessageType())) {
+                            dataLines.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    // Emulator closed the connection.
+                }
+            }
+        }).start();
+    }
+
+    @Test
+    public void nodesRegisterAndSendReadings() throws Exception {
+        run(false);
+    }
+
+    @Test
+    public void nodesSwitchToBinaryFramesWhenOffered() throws Exception {
+        run(true);
+    }
+
+    private void run(final boolean offerBinary) throws Exception {
+
+        final ServerSocket server = new ServerSocket(0);
+        final AtomicInteger dataLines = new AtomicInteger();
+        final AtomicInteger binaryFrames = new AtomicInteger();
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        serve(server.accept(), offerBinary, dataLines, binaryFrames);
+                    }
+                } catch (Exception e) {
+                    // Server closed.
+                }
+            }
+        });
+        acceptor.start();
+
+        EmulatorConfig config = EmulatorConfig.parse(new String[]{
+                "--port", String.valueOf(server.getLocalPort()),
+                "--nodes", "8", "--threads", "2", "--interval-ms", "1000", "--ramp-ms", "0"});
+
+        NodeEmulator emulator = new NodeEmulator(config, new JsonNodeCodec());
+        LoadReport report = emulator.getReport();
+        emulator.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        final AtomicInteger readings = offerBinary ? binaryFrames : dataLines;
+        while ((report.getRegistered() < 8 || readings.get() < 32) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        emulator.stop();
+        server.close();
+
+        assertEquals(8, report.getConfigurations());
+        assertEquals(8, report.getRegistrationLatency().getCount());
+        // Configuration switched the nodes from 1s to 20ms readings.
+        assertTrue(readings.get() >= 32);
+        assertEquals(0, report.getReadingsSkipped());
+    }
+}
@@ -0,0 +1,99 @@
+package com.ardic.iot.jmh;
+
+import com.ardic.iot.protocol.NodeMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Message streams seen by a gateway, generated from a fixed seed so every run and every
+ * codec gets the same messages.
+ */
+public enum MessageMix {
+
+    /**
+     * Single value DHT11 readings, what IgniteEsp8266ThingHandler sends today.
+     */
+    SENSOR {
+        @Override
+        NodeMessage next(Random random, List<String> thingIds) {
+            return reading(random, thingIds, 1);
+        }
+    },
+
+    /**
+     * Multi value readings of nodes which batch samples before sending.
+     */
+    BATCHED {
+        @Override
+        NodeMessage next(Random random, List<String> thingIds) {
+            return reading(random, thingIds, 16);
+        }
+    },
+
+    /**
+     * Mostly readings, with the occasional configuration, action and inventory of a node.
+     */
+    MIXED {
+        @Override
+        NodeMessage next(Random random, List<String> thingIds) {
+            int roll = random.nextInt(100);
+            if (roll < 90) {
+                return reading(random, thingIds, 1);
+            } else if (roll < 95) {
+                return NodeMessage.configuration(pick(random, thingIds), 1000L * (1 + random.nextInt(60)));
+            } else if (roll < 98) {
+                return NodeMessage.action(pick(random, thingIds), "{\"status\":" + random.nextBoolean() + "}");
+            }
+            return inventory(thingIds);
+        }
+    };
+
+    abstract NodeMessage next(Random random, List<String> thingIds);
+
+    /**
+     * Thing ids of the generated messages, in inventory order.
+     */
+    public static List<String> thingIds(int things) {
+        List<String> thingIds = new ArrayList<>();
+        for (int i = 0; i < things; i++) {
+            thingIds.add((i % 2 == 0 ? "DHT11 Temperature Sensor " : "DHT11 Humidity Sensor ") + i / 2);
+        }
+        return thingIds;
+    }
+
+    public NodeMessage[] generate(int count, int things, long seed) {
+
+        List<String> thingIds = thingIds(things);
+
+        Random random = new Random(seed);
+        NodeMessage[] messages = new NodeMessage[count];
+        for (int i = 0; i < count; i++) {
+            messages[i] = next(random, thingIds);
+        }
+        return messages;
+    }
+
+    private static String pick(Random random, List<String> thingIds) {
+        return thingIds.get(random.nextInt(thingIds.size()));
+    }
+
+    private static NodeMessage reading(Random random, List<String> thingIds, int samples) {
+        String[] values = new String[samples];
+        for (int i = 0; i < samples; i++) {
+            values[i] = String.format(Locale.US, "%.2f", 15 + random.nextDouble() * 20);
+        }
+        return NodeMessage.data(pick(random, thingIds), values);
+    }
+
+    private static NodeMessage inventory(List<String> thingIds) {
+        List<NodeMessage.InventoryThing> things = new ArrayList<>();
+        for (String thingId : thingIds) {
+            things.add(new NodeMessage.InventoryThing(thingId, thingId.contains("Temperature") ? "Temperature" : "Humidity",
+                    "D4", false, "DHT11 Temperature And Humidity Sensor", "FLOAT"));
+        }
+        return NodeMessage.inventory("EE:00:00:00:00:01", "DYNAMIC NODE - DHT11 SENSOR", things);
+    }
+}
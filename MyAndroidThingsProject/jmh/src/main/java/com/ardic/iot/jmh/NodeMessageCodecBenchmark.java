@@ -0,0 +1,88 @@
+package com.ardic.iot.jmh;
+
+import com.ardic.iot.protocol.JsonNodeCodec;
+import com.ardic.iot.protocol.NodeMessage;
+import com.ardic.iot.protocol.NodeMessageCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.ProtocolException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode throughput of the node protocol codecs. Run with the gc profiler
+ * (./gradlew :jmh:jmh) to also get gc.alloc.rate.norm, the bytes allocated per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeMessageCodecBenchmark {
+
+    // Power of two, cycled with a mask.
+    private static final int MESSAGES = 1024;
+    private static final long SEED = 42L;
+
+    @Param({"json"})
+    public String codec;
+
+    @Param({"SENSOR", "BATCHED", "MIXED"})
+    public MessageMix mix;
+
+    /**
+     * Distinct thing ids, also the size of an inventory.
+     */
+    @Param({"2", "64"})
+    public int things;
+
+    private NodeMessageCodec mCodec;
+    private NodeMessage[] mMessages;
+    private byte[][] mLines;
+    private int mNext;
+
+    @Setup
+    public void setup() throws ProtocolException {
+
+        mCodec = codec(codec);
+        mMessages = mix.generate(MESSAGES, things, SEED);
+        mLines = new byte[MESSAGES][];
+
+        for (int i = 0; i < MESSAGES; i++) {
+            mLines[i] = mCodec.encode(mMessages[i]);
+            // Fail fast instead of measuring a broken codec.
+            mCodec.decode(mLines[i], 0, mLines[i].length - 1);
+        }
+    }
+
+    static NodeMessageCodec codec(String name) {
+        switch (name) {
+            case "json":
+                return new JsonNodeCodec();
+            default:
+                throw new IllegalArgumentException("Unknown codec " + name);
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return mCodec.encode(mMessages[mNext++ & (MESSAGES - 1)]);
+    }
+
+    @Benchmark
+    public NodeMessage decode() throws ProtocolException {
+        byte[] line = mLines[mNext++ & (MESSAGES - 1)];
+        return mCodec.decode(line, 0, line.length - 1);
+    }
+}
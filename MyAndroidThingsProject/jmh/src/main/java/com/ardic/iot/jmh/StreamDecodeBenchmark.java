@@ -0,0 +1,161 @@
+package com.ardic.iot.jmh;
+
+import com.ardic.iot.protocol.BinaryFrame;
+import com.ardic.iot.protocol.JsonNodeCodec;
+import com.ardic.iot.protocol.LineFramer;
+import com.ardic.iot.protocol.NodeMessage;
+import com.ardic.iot.protocol.StreamingNodeDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gateway side decoding of a socket stream, Gson objects against the streaming decoder, and
+ * the streaming decoder on a binary wire format stream (data as binary frames, the rest JSON).
+ *
+ * One operation is one message, so the score is messages per second per core and
+ * gc.alloc.rate.norm is bytes allocated per message. A gateway at 10k messages/s has a
+ * 100us budget per message for everything, decoding should use a small fraction of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamDecodeBenchmark {
+
+    private static final int MESSAGES = 1024;
+    private static final long SEED = 42L;
+
+    @Param({"SENSOR", "BATCHED", "MIXED"})
+    public MessageMix mix;
+
+    @Param({"2", "64"})
+    public int things;
+
+    private ByteBuffer mStream;
+    private ByteBuffer mBinaryStream;
+    // Inventories of many things are longer than the default line limit.
+    private final LineFramer mFramer = new LineFramer(64 * 1024);
+    private final JsonNodeCodec mGson = new JsonNodeCodec();
+    private Blackhole mBlackhole;
+
+    private final LineFramer.LineHandler mGsonHandler = new LineFramer.LineHandler() {
+        @Override
+        public void onLine(byte[] buffer, int offset, int length) {
+            try {
+                mBlackhole.consume(mGson.decode(buffer, offset, length));
+            } catch (ProtocolException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final StreamingNodeDecoder mStreaming = new StreamingNodeDecoder(new StreamingNodeDecoder.Handler() {
+        @Override
+        public void onData(String thingId, double[] values, int count, long intervalMillis) {
+            mBlackhole.consume(thingId);
+            for (int i = 0; i < count; i++) {
+                mBlackhole.consume(values[i]);
+            }
+        }
+
+        @Override
+        public void onConfiguration(String thingId, long dataReadingFrequency) {
+            mBlackhole.consume(thingId);
+            mBlackhole.consume(dataReadingFrequency);
+        }
+
+        @Override
+        public void onAction(String thingId, String message) {
+            mBlackhole.consume(thingId);
+            mBlackhole.consume(message);
+        }
+
+        @Override
+        public void onOther(String messageType, byte[] line, int offset, int length) {
+            // Inventory etc. still go through Gson, as on the gateway.
+            try {
+                mBlackhole.consume(mGson.decode(line, offset, length));
+            } catch (ProtocolException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onInvalid(byte[] line, int offset, int length) {
+            throw new IllegalStateException("Invalid line");
+        }
+    });
+
+    @Setup
+    public void setup() {
+
+        List<String> thingIds = MessageMix.thingIds(things);
+        mStreaming.setThingIds(thingIds);
+        BinaryFrame.Writer writer = new BinaryFrame.Writer();
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ByteArrayOutputStream binaryStream = new ByteArrayOutputStream();
+
+        for (NodeMessage message : mix.generate(MESSAGES, things, SEED)) {
+            byte[] line = mGson.encode(message);
+            stream.write(line, 0, line.length);
+
+            if (NodeMessage.DATA.equals(message.getMessageType())) {
+                List<String> data = message.getData();
+                float[] values = new float[data.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Float.parseFloat(data.get(i));
+                }
+                line = writer.floats(thingIds.indexOf(message.getThingId()), values, values.length, 1000);
+            }
+            binaryStream.write(line, 0, line.length);
+        }
+
+        mStream = ByteBuffer.wrap(stream.toByteArray());
+        mBinaryStream = ByteBuffer.wrap(binaryStream.toByteArray());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void gson(Blackhole blackhole) throws ProtocolException {
+        mBlackhole = blackhole;
+        mStream.rewind();
+        mFramer.feed(mStream, mGsonHandler);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void streaming(Blackhole blackhole) throws ProtocolException {
+        mBlackhole = blackhole;
+        mStream.rewind();
+        mFramer.feed(mStream, mStreaming);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void binary(Blackhole blackhole) throws ProtocolException {
+        mBlackhole = blackhole;
+        mBinaryStream.rewind();
+        mFramer.feed(mBinaryStream, mStreaming);
+    }
+}
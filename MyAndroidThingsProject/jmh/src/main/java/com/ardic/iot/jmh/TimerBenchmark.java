@@ -0,0 +1,104 @@
+package com.ardic.iot.jmh;
+
+import com.ardic.iot.timer.TimingWheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-thing timers of a gateway : every thing is polled at its own data reading frequency
+ * (1 to 60 seconds), on the timing wheel, an indexed heap and a Handler style sorted list.
+ *
+ * reschedule is one live configuration change, the thing's pending timer is cancelled and
+ * scheduled again. tick is one 10ms tick of the sampling thread, every expired thing is
+ * scheduled again at its next period. Scores are operations per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerBenchmark {
+
+    private static final long SEED = 42L;
+    private static final int PICKS = 4096;
+    private static final long MIN_PERIOD = 1000L;
+    private static final long MAX_PERIOD = 60000L;
+
+    @Param({"WHEEL", "HEAP", "MESSAGE_QUEUE"})
+    public TimerQueue queue;
+
+    @Param({"100", "1000", "10000"})
+    public int things;
+
+    private TimerQueue.Timers mTimers;
+    private Integer[] mTasks;
+    private Object[] mHandles;
+    private long[] mPeriods;
+    private long[] mDeadlines;
+    private int[] mPicks;
+    private int mCursor;
+    private long mNow;
+    private final List<Object> mExpired = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+
+        Random random = new Random(SEED);
+        mTimers = queue.create(0);
+        mTasks = new Integer[things];
+        mHandles = new Object[things];
+        mPeriods = new long[things];
+        mDeadlines = new long[things];
+
+        for (int i = 0; i < things; i++) {
+            mTasks[i] = i;
+            mPeriods[i] = MIN_PERIOD + (long) (random.nextDouble() * (MAX_PERIOD - MIN_PERIOD));
+            mDeadlines[i] = (long) (random.nextDouble() * mPeriods[i]);
+            mHandles[i] = mTimers.schedule(mTasks[i], mDeadlines[i]);
+        }
+
+        mPicks = new int[PICKS];
+        for (int i = 0; i < PICKS; i++) {
+            mPicks[i] = random.nextInt(things);
+        }
+    }
+
+    @Benchmark
+    public Object reschedule() {
+        int thing = mPicks[mCursor++ & (PICKS - 1)];
+        mTimers.cancel(mHandles[thing]);
+        mHandles[thing] = mTimers.schedule(mTasks[thing], mDeadlines[thing]);
+        return mHandles[thing];
+    }
+
+    @Benchmark
+    public int tick() {
+
+        mNow += TimingWheel.DEFAULT_TICK_MILLIS;
+        int expired = mTimers.advance(mNow, mExpired);
+
+        for (int i = 0; i < expired; i++) {
+            int thing = (Integer) mExpired.get(i);
+            mDeadlines[thing] += mPeriods[thing];
+            mHandles[thing] = mTimers.schedule(mTasks[thing], mDeadlines[thing]);
+        }
+        mExpired.clear();
+        return expired;
+    }
+}
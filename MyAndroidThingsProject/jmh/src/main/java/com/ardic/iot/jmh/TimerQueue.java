@@ -0,0 +1,225 @@
+package com.ardic.iot.jmh;
+
+import com.ardic.iot.timer.TimingWheel;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timer structures compared by TimerBenchmark, all driven through the same small interface.
+ */
+public enum TimerQueue {
+
+    /**
+     * TimingWheel with the gateway defaults, O(1) schedule and cancel.
+     */
+    WHEEL {
+        @Override
+        Timers create(long startMillis) {
+            final TimingWheel<Object> wheel = new TimingWheel<>(startMillis);
+            return new Timers() {
+                @Override
+                public Object schedule(Object task, long deadlineMillis) {
+                    return wheel.schedule(task, deadlineMillis);
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public void cancel(Object handle) {
+                    wheel.cancel((TimingWheel.Timeout<Object>) handle);
+                }
+
+                @Override
+                public int advance(long nowMillis, List<Object> expired) {
+                    return wheel.advance(nowMillis, expired);
+                }
+            };
+        }
+    },
+
+    /**
+     * Binary heap with indexes in the entries, as ScheduledThreadPoolExecutor's work queue :
+     * O(log n) schedule and cancel.
+     */
+    HEAP {
+        @Override
+        Timers create(long startMillis) {
+            return new HeapTimers();
+        }
+    },
+
+    /**
+     * Deadline sorted linked list, as android.os.MessageQueue behind Handler.postDelayed and
+     * removeCallbacks : O(n) schedule and cancel, O(1) expiry.
+     */
+    MESSAGE_QUEUE {
+        @Override
+        Timers create(long startMillis) {
+            return new SortedListTimers();
+        }
+    };
+
+    interface Timers {
+
+        Object schedule(Object task, long deadlineMillis);
+
+        void cancel(Object handle);
+
+        int advance(long nowMillis, List<Object> expired);
+    }
+
+    abstract Timers create(long startMillis);
+
+    private static final class HeapTimers implements Timers {
+
+        private static final class Entry {
+            final Object task;
+            final long deadline;
+            int index = -1;
+
+            Entry(Object task, long deadline) {
+                this.task = task;
+                this.deadline = deadline;
+            }
+        }
+
+        private Entry[] mHeap = new Entry[64];
+        private int mSize;
+
+        @Override
+        public Object schedule(Object task, long deadlineMillis) {
+            Entry entry = new Entry(task, deadlineMillis);
+            if (mSize == mHeap.length) {
+                mHeap = Arrays.copyOf(mHeap, mSize * 2);
+            }
+            siftUp(mSize++, entry);
+            return entry;
+        }
+
+        @Override
+        public void cancel(Object handle) {
+            Entry entry = (Entry) handle;
+            int index = entry.index;
+            if (index < 0) {
+                return;
+            }
+            entry.index = -1;
+            Entry last = mHeap[--mSize];
+            mHeap[mSize] = null;
+            if (index != mSize) {
+                siftDown(index, last);
+                if (mHeap[index] == last) {
+                    siftUp(index, last);
+                }
+            }
+        }
+
+        @Override
+        public int advance(long nowMillis, List<Object> expired) {
+            int count = 0;
+            while (mSize > 0 && mHeap[0].deadline <= nowMillis) {
+                Entry head = mHeap[0];
+                cancel(head);
+                expired.add(head.task);
+                count++;
+            }
+            return count;
+        }
+
+        private void siftUp(int index, Entry entry) {
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                Entry e = mHeap[parent];
+                if (entry.deadline >= e.deadline) {
+                    break;
+                }
+                mHeap[index] = e;
+                e.index = index;
+                index = parent;
+            }
+            mHeap[index] = entry;
+            entry.index = index;
+        }
+
+        private void siftDown(int index, Entry entry) {
+            int half = mSize >>> 1;
+            while (index < half) {
+                int child = (index << 1) + 1;
+                Entry c = mHeap[child];
+                int right = child + 1;
+                if (right < mSize && c.deadline > mHeap[right].deadline) {
+                    c = mHeap[child = right];
+                }
+                if (entry.deadline <= c.deadline) {
+                    break;
+                }
+                mHeap[index] = c;
+                c.index = index;
+                index = child;
+            }
+            mHeap[index] = entry;
+            entry.index = index;
+        }
+    }
+
+    private static final class SortedListTimers implements Timers {
+
+        private static final class Message {
+            final Object task;
+            final long when;
+            Message next;
+
+            Message(Object task, long when) {
+                this.task = task;
+                this.when = when;
+            }
+        }
+
+        private Message mHead;
+
+        @Override
+        public Object schedule(Object task, long deadlineMillis) {
+            // MessageQueue.enqueueMessage : walk to the first later message.
+            Message message = new Message(task, deadlineMillis);
+            if (mHead == null || deadlineMillis < mHead.when) {
+                message.next = mHead;
+                mHead = message;
+            } else {
+                Message prev = mHead;
+                while (prev.next != null && prev.next.when <= deadlineMillis) {
+                    prev = prev.next;
+                }
+                message.next = prev.next;
+                prev.next = message;
+            }
+            return message;
+        }
+
+        @Override
+        public void cancel(Object handle) {
+            // MessageQueue.removeMessages : walk the list.
+            Message prev = null;
+            for (Message m = mHead; m != null; prev = m, m = m.next) {
+                if (m == handle) {
+                    if (prev == null) {
+                        mHead = m.next;
+                    } else {
+                        prev.next = m.next;
+                    }
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public int advance(long nowMillis, List<Object> expired) {
+            int count = 0;
+            while (mHead != null && mHead.when <= nowMillis) {
+                expired.add(mHead.task);
+                mHead = mHead.next;
+                count++;
+            }
+            return count;
+        }
+    }
+}
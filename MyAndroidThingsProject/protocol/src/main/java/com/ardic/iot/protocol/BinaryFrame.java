@@ -0,0 +1,286 @@
+package com.ardic.iot.protocol;
+
+/**
+ * Compact data frame, negotiated with a wire-format message, JSON stays the fallback.
+ *
+ * A frame is a line like the JSON messages, so both formats share one stream and one framer:
+ *
+ * <pre>
+ * 0xB1 | varint thing index | type (low nibble) + batch flag (0x10)
+ *      | [varint count | varint sample interval ms]  (batch only)
+ *      | values: float32 little endian, zigzag varint or one byte boolean
+ * '\n'
+ * </pre>
+ *
+ * The thing index is the position of the thing in the node inventory. Bytes 0x00, '\n', '\r'
+ * and the escape byte itself are sent as 0xDB followed by the byte xor 0x20, which keeps frames
+ * free of line ends and of the NUL bytes an Arduino String can not hold. A DHT11 reading takes
+ * 8 bytes (up to 12 with escapes) instead of about 80.
+ */
+public final class BinaryFrame {
+
+    public static final int MAGIC = 0xB1;
+
+    public static final int TYPE_FLOAT32 = 1;
+    public static final int TYPE_SINT = 2;
+    public static final int TYPE_BOOL = 3;
+
+    static final int TYPE_MASK = 0x0f;
+    static final int FLAG_BATCH = 0x10;
+    static final int ESCAPE = 0xDB;
+    static final int ESCAPE_XOR = 0x20;
+
+    private BinaryFrame() {
+    }
+
+    public static boolean isBinary(byte[] line, int offset, int length) {
+        return length > 0 && (line[offset] & 0xff) == MAGIC;
+    }
+
+    static boolean needsEscape(int b) {
+        return b == 0x00 || b == '\n' || b == '\r' || b == ESCAPE;
+    }
+
+    /**
+     * Builds frames into a reused buffer. Not thread safe.
+     */
+    public static class Writer {
+
+        private byte[] mPayload = new byte[64];
+        private int mLength;
+
+        /**
+         * @param intervalMillis spacing of the samples, oldest first. Ignored for one value.
+         * @return the escaped frame with its line end.
+         */
+        public byte[] floats(int thingIndex, float[] values, int count, long intervalMillis) {
+
+            start(thingIndex, TYPE_FLOAT32, count, intervalMillis);
+            for (int i = 0; i < count; i++) {
+                int bits = Float.floatToIntBits(values[i]);
+                put(bits);
+                put(bits >>> 8);
+                put(bits >>> 16);
+                put(bits >>> 24);
+            }
+            return finish();
+        }
+
+        public byte[] ints(int thingIndex, long[] values, int count, long intervalMillis) {
+
+            start(thingIndex, TYPE_SINT, count, intervalMillis);
+            for (int i = 0; i < count; i++) {
+                putVarint((values[i] << 1) ^ (values[i] >> 63));
+            }
+            return finish();
+        }
+
+        public byte[] bool(int thingIndex, boolean value) {
+            start(thingIndex, TYPE_BOOL, 1, 0);
+            put(value ? 1 : 0);
+            return finish();
+        }
+
+        private void start(int thingIndex, int type, int count, long intervalMillis) {
+
+            if (thingIndex < 0 || count < 1) {
+                throw new IllegalArgumentException("Invalid frame : thing " + thingIndex + " count " + count);
+            }
+            mLength = 0;
+            putVarint(thingIndex);
+            if (count == 1) {
+                put(type);
+            } else {
+                put(type | FLAG_BATCH);
+                putVarint(count);
+                putVarint(intervalMillis);
+            }
+        }
+
+        private byte[] finish() {
+
+            int escapes = 0;
+            for (int i = 0; i < mLength; i++) {
+                if (needsEscape(mPayload[i] & 0xff)) {
+                    escapes++;
+                }
+            }
+
+            byte[] frame = new byte[mLength + escapes + 2];
+            int pos = 0;
+            frame[pos++] = (byte) MAGIC;
+            for (int i = 0; i < mLength; i++) {
+                int b = mPayload[i] & 0xff;
+                if (needsEscape(b)) {
+                    frame[pos++] = (byte) ESCAPE;
+                    frame[pos++] = (byte) (b ^ ESCAPE_XOR);
+                } else {
+                    frame[pos++] = (byte) b;
+                }
+            }
+            frame[pos] = '\n';
+            return frame;
+        }
+
+        private void putVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                put((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            put((int) value);
+        }
+
+        private void put(int b) {
+            if (mLength == mPayload.length) {
+                byte[] grown = new byte[mLength * 2];
+                System.arraycopy(mPayload, 0, grown, 0, mLength);
+                mPayload = grown;
+            }
+            mPayload[mLength++] = (byte) b;
+        }
+    }
+
+    /**
+     * Decodes frames into a reused value array, no allocation after warm up. Not thread safe.
+     */
+    public static class Reader {
+
+        private byte[] mPayload = new byte[64];
+        private int mLength;
+        private int mPos;
+
+        private double[] mValues = new double[16];
+        private int mThingIndex;
+        private int mCount;
+        private long mIntervalMillis;
+
+        /**
+         * @param line frame without its line end.
+         * @return false if the frame is malformed.
+         */
+        public boolean read(byte[] line, int offset, int length) {
+
+            if (!isBinary(line, offset, length)) {
+                return false;
+            }
+            if (!unescape(line, offset + 1, length - 1)) {
+                return false;
+            }
+
+            mPos = 0;
+            long index = readVarint();
+            if (mPos >= mLength || index < 0 || index > Integer.MAX_VALUE) {
+                return false;
+            }
+            mThingIndex = (int) index;
+
+            int header = mPayload[mPos++] & 0xff;
+            int type = header & TYPE_MASK;
+
+            long count = 1;
+            mIntervalMillis = 0;
+            if ((header & FLAG_BATCH) != 0) {
+                count = readVarint();
+                mIntervalMillis = readVarint();
+                if (mPos > mLength || count < 1 || count > mLength || mIntervalMillis < 0) {
+                    return false;
+                }
+            }
+
+            if (mValues.length < count) {
+                mValues = new double[(int) count];
+            }
+            mCount = (int) count;
+
+            for (int i = 0; i < mCount; i++) {
+                switch (type) {
+                    case TYPE_FLOAT32:
+                        if (mPos + 4 > mLength) {
+                            return false;
+                        }
+                        int bits = (mPayload[mPos] & 0xff)
+                                | (mPayload[mPos + 1] & 0xff) << 8
+                                | (mPayload[mPos + 2] & 0xff) << 16
+                                | (mPayload[mPos + 3] & 0xff) << 24;
+                        mPos += 4;
+                        mValues[i] = Float.intBitsToFloat(bits);
+                        break;
+                    case TYPE_SINT:
+                        long zigzag = readVarint();
+                        if (mPos > mLength) {
+                            return false;
+                        }
+                        mValues[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+                        break;
+                    case TYPE_BOOL:
+                        if (mPos >= mLength) {
+                            return false;
+                        }
+                        mValues[i] = mPayload[mPos++] != 0 ? 1 : 0;
+                        break;
+                    default:
+                        return false;
+                }
+            }
+            return mPos == mLength;
+        }
+
+        public int getThingIndex() {
+            return mThingIndex;
+        }
+
+        /**
+         * Valid until the next read.
+         */
+        public double[] getValues() {
+            return mValues;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public long getIntervalMillis() {
+            return mIntervalMillis;
+        }
+
+        private boolean unescape(byte[] line, int offset, int length) {
+
+            if (mPayload.length < length) {
+                mPayload = new byte[Math.max(length, mPayload.length * 2)];
+            }
+
+            int out = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int b = line[i] & 0xff;
+                if (b == ESCAPE) {
+                    if (++i == offset + length) {
+                        return false;
+                    }
+                    b = (line[i] & 0xff) ^ ESCAPE_XOR;
+                }
+                mPayload[out++] = (byte) b;
+            }
+            mLength = out;
+            return true;
+        }
+
+        /**
+         * @return the value. If the payload ends inside the varint the position is left past the end.
+         */
+        private long readVarint() {
+            long value = 0;
+            int shift = 0;
+            while (mPos < mLength && shift < 64) {
+                int b = mPayload[mPos++] & 0xff;
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+            mPos = mLength + 1;
+            return -1;
+        }
+    }
+}
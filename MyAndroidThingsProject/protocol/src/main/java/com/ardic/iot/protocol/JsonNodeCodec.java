@@ -0,0 +1,39 @@
+package com.ardic.iot.protocol;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+
+/**
+ * Gson based codec for the newline delimited JSON protocol, the format ArduinoJson
+ * produces on the node.
+ */
+public class JsonNodeCodec implements NodeMessageCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gson mGson = new Gson();
+
+    @Override
+    public byte[] encode(NodeMessage message) {
+        return (mGson.toJson(message) + "\n").getBytes(UTF_8);
+    }
+
+    @Override
+    public NodeMessage decode(byte[] line, int offset, int length) throws ProtocolException {
+
+        NodeMessage message;
+        try {
+            message = mGson.fromJson(new String(line, offset, length, UTF_8), NodeMessage.class);
+        } catch (JsonParseException e) {
+            throw new ProtocolException("Invalid message : " + e.getMessage());
+        }
+
+        if (message == null || message.getMessageType() == null) {
+            throw new ProtocolException("Message without messageType");
+        }
+        return message;
+    }
+}
@@ -0,0 +1,86 @@
+package com.ardic.iot.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a byte stream into lines. Partial lines are kept until the rest arrives.
+ * The line buffer starts small and grows up to the maximum line length, so idle connections
+ * cost little memory. Not thread safe, one framer per connection.
+ */
+public class LineFramer {
+
+    public static final int DEFAULT_MAX_LINE = 4096;
+    private static final int INITIAL_LINE = 256;
+
+    public interface LineHandler {
+        /**
+         * The line is only valid during the call, without its terminator.
+         */
+        void onLine(byte[] buffer, int offset, int length);
+    }
+
+    private final int mMaxLine;
+    private byte[] mLine;
+    private int mLength;
+    private boolean mDiscarding;
+
+    public LineFramer() {
+        this(DEFAULT_MAX_LINE);
+    }
+
+    public LineFramer(int maxLine) {
+        this.mMaxLine = maxLine;
+        this.mLine = new byte[Math.min(INITIAL_LINE, maxLine)];
+    }
+
+    /**
+     * Consume every readable byte of the buffer.
+     *
+     * @throws ProtocolException after the buffer is consumed, if a line was longer than the
+     *                           maximum. The long line is skipped, following lines are still delivered.
+     */
+    public void feed(ByteBuffer in, LineHandler handler) throws ProtocolException {
+
+        boolean overflow = false;
+
+        while (in.hasRemaining()) {
+            byte b = in.get();
+
+            if (b == '\n') {
+                int length = mLength;
+                if (length > 0 && mLine[length - 1] == '\r') {
+                    length--;
+                }
+                mLength = 0;
+                if (mDiscarding) {
+                    mDiscarding = false;
+                } else if (length > 0) {
+                    handler.onLine(mLine, 0, length);
+                }
+            } else if (mDiscarding) {
+                continue;
+            } else if (mLength == mMaxLine) {
+                mLength = 0;
+                mDiscarding = true;
+                overflow = true;
+            } else {
+                if (mLength == mLine.length) {
+                    byte[] grown = new byte[Math.min(mLine.length * 2, mMaxLine)];
+                    System.arraycopy(mLine, 0, grown, 0, mLength);
+                    mLine = grown;
+                }
+                mLine[mLength++] = b;
+            }
+        }
+
+        if (overflow) {
+            throw new ProtocolException("Line longer than " + mMaxLine + " bytes");
+        }
+    }
+
+    public void reset() {
+        mLength = 0;
+        mDiscarding = false;
+    }
+}
@@ -0,0 +1,177 @@
+package com.ardic.iot.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One line of the newline delimited JSON protocol between a NodeMCU (IgniteThingHandler)
+ * and the gateway. Fields which are not used by a message type are null.
+ */
+public class NodeMessage {
+
+    // Gateway -> node
+    public static final String CONFIGURATION = "configuration";
+    public static final String ACTION = "action";
+    public static final String RESET = "reset";
+    public static final String INVENTORY_STATUS = "inventory-status";
+
+    // Node -> gateway
+    public static final String DATA = "data";
+    public static final String INVENTORY = "inventory";
+
+    /**
+     * Wire format negotiation. The gateway offers a format after the inventory, a node which
+     * supports it answers with the same message and switches. Older nodes ignore the offer and
+     * stay on JSON.
+     */
+    public static final String WIRE_FORMAT = "wire-format";
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_BINARY = "binary";
+
+    private String messageType;
+    private String nodeId;
+    private String nodeType;
+    private String thingId;
+    private List<String> data;
+    private List<InventoryThing> things;
+    private String message;
+    private Long dataReadingFrequency;
+    private String format;
+
+    public static NodeMessage data(String thingId, String... values) {
+        NodeMessage msg = new NodeMessage();
+        msg.messageType = DATA;
+        msg.thingId = thingId;
+        msg.data = new ArrayList<>(Arrays.asList(values));
+        return msg;
+    }
+
+    public static NodeMessage inventory(String nodeId, String nodeType, List<InventoryThing> things) {
+        NodeMessage msg = new NodeMessage();
+        msg.messageType = INVENTORY;
+        msg.nodeId = nodeId;
+        msg.nodeType = nodeType;
+        msg.things = things;
+        return msg;
+    }
+
+    public static NodeMessage configuration(String thingId, long dataReadingFrequency) {
+        NodeMessage msg = new NodeMessage();
+        msg.messageType = CONFIGURATION;
+        msg.thingId = thingId;
+        msg.dataReadingFrequency = dataReadingFrequency;
+        return msg;
+    }
+
+    public static NodeMessage action(String thingId, String message) {
+        NodeMessage msg = new NodeMessage();
+        msg.messageType = ACTION;
+        msg.thingId = thingId;
+        msg.message = message;
+        return msg;
+    }
+
+    public static NodeMessage wireFormat(String format) {
+        NodeMessage msg = new NodeMessage();
+        msg.messageType = WIRE_FORMAT;
+        msg.format = format;
+        return msg;
+    }
+
+    public static NodeMessage of(String messageType) {
+        NodeMessage msg = new NodeMessage();
+        msg.messageType = messageType;
+        return msg;
+    }
+
+    public String getMessageType() {
+        return messageType;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getNodeType() {
+        return nodeType;
+    }
+
+    public String getThingId() {
+        return thingId;
+    }
+
+    public List<String> getData() {
+        return data;
+    }
+
+    public List<InventoryThing> getThings() {
+        return things;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return reading period in milliseconds, null if the message does not carry one.
+     */
+    public Long getDataReadingFrequency() {
+        return dataReadingFrequency;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public String toString() {
+        return messageType + " [" + (thingId != null ? thingId : nodeId) + "]" + (data != null ? data : "");
+    }
+
+    /**
+     * Thing description sent in the inventory, same fields as addThingToInventory on the node.
+     */
+    public static class InventoryThing {
+
+        private String id;
+        private String type;
+        private String connectedPin;
+        private boolean actuator;
+        private String vendor;
+        private String dataType;
+
+        public InventoryThing(String id, String type, String connectedPin, boolean actuator, String vendor, String dataType) {
+            this.id = id;
+            this.type = type;
+            this.connectedPin = connectedPin;
+            this.actuator = actuator;
+            this.vendor = vendor;
+            this.dataType = dataType;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getConnectedPin() {
+            return connectedPin;
+        }
+
+        public boolean isActuator() {
+            return actuator;
+        }
+
+        public String getVendor() {
+            return vendor;
+        }
+
+        public String getDataType() {
+            return dataType;
+        }
+    }
+}
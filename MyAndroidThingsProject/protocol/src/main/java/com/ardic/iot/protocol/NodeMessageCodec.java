@@ -0,0 +1,14 @@
+package com.ardic.iot.protocol;
+
+import java.net.ProtocolException;
+
+/**
+ * Converts node messages to and from their wire form. A frame is one line, the encoded form
+ * includes the line terminator, the decoded line does not.
+ */
+public interface NodeMessageCodec {
+
+    byte[] encode(NodeMessage message);
+
+    NodeMessage decode(byte[] line, int offset, int length) throws ProtocolException;
+}
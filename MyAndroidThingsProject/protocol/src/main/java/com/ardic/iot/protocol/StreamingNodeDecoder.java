@@ -0,0 +1,578 @@
+package com.ardic.iot.protocol;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Decodes node protocol lines straight from the framer buffer into typed callbacks.
+ *
+ * Only the fixed schema fields are read (messageType, thingId, data, dataReadingFrequency,
+ * message), everything else is skipped. Message types and thing ids are interned and numeric
+ * data entries, quoted or not, are parsed into a reused double array, so a data line costs
+ * no allocation once its thing id is known. Lines outside the fast path (inventory, text data,
+ * unknown types) are handed over undecoded for a generic codec. Binary data frames of the same
+ * stream are decoded against the thing ids of the node inventory. Not thread safe, one decoder
+ * per connection or io thread.
+ */
+public class StreamingNodeDecoder implements LineFramer.LineHandler {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_SYMBOLS = 4096;
+
+    public interface Handler {
+
+        /**
+         * Numeric data. values[0..count) is only valid during the call.
+         *
+         * @param intervalMillis spacing of batched samples, oldest first. 0 if unknown.
+         */
+        void onData(String thingId, double[] values, int count, long intervalMillis);
+
+        void onConfiguration(String thingId, long dataReadingFrequency);
+
+        void onAction(String thingId, String message);
+
+        /**
+         * Valid messages without a fast path, the line is only valid during the call.
+         */
+        void onOther(String messageType, byte[] line, int offset, int length);
+
+        void onInvalid(byte[] line, int offset, int length);
+    }
+
+    private static final byte[] KEY_MESSAGE_TYPE = ascii("messageType");
+    private static final byte[] KEY_THING_ID = ascii("thingId");
+    private static final byte[] KEY_DATA = ascii("data");
+    private static final byte[] KEY_FREQUENCY = ascii("dataReadingFrequency");
+    private static final byte[] KEY_MESSAGE = ascii("message");
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long MANTISSA_LIMIT = 100000000000000000L;
+
+    private final Handler mHandler;
+    private final SymbolTable mSymbols;
+    private double[] mValues = new double[16];
+    private final BinaryFrame.Reader mBinary = new BinaryFrame.Reader();
+    private String[] mThingIds = new String[0];
+
+    // State of the line being decoded.
+    private byte[] mLine;
+    private int mEnd;
+    private int mStringStart;
+    private int mStringEnd;
+    private boolean mStringEscaped;
+    private double mNumber;
+
+    private String mMessageType;
+    private String mThingId;
+    private String mMessage;
+    private long mFrequency;
+    private int mCount;
+    private boolean mTextData;
+
+    public StreamingNodeDecoder(Handler handler) {
+        this(handler, new SymbolTable(DEFAULT_SYMBOLS));
+    }
+
+    public StreamingNodeDecoder(Handler handler, SymbolTable symbols) {
+        this.mHandler = handler;
+        this.mSymbols = symbols;
+
+        // Interned message types are the NodeMessage constants.
+        for (String type : new String[]{NodeMessage.DATA, NodeMessage.CONFIGURATION, NodeMessage.ACTION,
+                NodeMessage.RESET, NodeMessage.INVENTORY_STATUS, NodeMessage.INVENTORY}) {
+            symbols.intern(type);
+        }
+    }
+
+    /**
+     * Thing ids in inventory order, binary frames refer to things by this index.
+     */
+    public void setThingIds(List<String> thingIds) {
+        String[] ids = new String[thingIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mSymbols.intern(thingIds.get(i));
+        }
+        mThingIds = ids;
+    }
+
+    @Override
+    public void onLine(byte[] buffer, int offset, int length) {
+
+        if (BinaryFrame.isBinary(buffer, offset, length)) {
+            onBinaryLine(buffer, offset, length);
+            return;
+        }
+
+        mLine = buffer;
+        mEnd = offset + length;
+        mMessageType = null;
+        mThingId = null;
+        mMessage = null;
+        mFrequency = -1;
+        mCount = 0;
+        mTextData = false;
+
+        int pos = parseObject(skipWhitespace(offset));
+        if (pos >= 0) {
+            pos = skipWhitespace(pos);
+        }
+
+        if (pos != mEnd || mMessageType == null) {
+            mLine = null;
+            mHandler.onInvalid(buffer, offset, length);
+            return;
+        }
+        mLine = null;
+
+        String type = mMessageType;
+
+        if (NodeMessage.DATA.equals(type) && mThingId != null && !mTextData) {
+            mHandler.onData(mThingId, mValues, mCount, 0);
+        } else if (NodeMessage.CONFIGURATION.equals(type) && mThingId != null && mFrequency >= 0) {
+            mHandler.onConfiguration(mThingId, mFrequency);
+        } else if (NodeMessage.ACTION.equals(type) && mThingId != null) {
+            mHandler.onAction(mThingId, mMessage);
+        } else {
+            mHandler.onOther(type, buffer, offset, length);
+        }
+    }
+
+    private void onBinaryLine(byte[] buffer, int offset, int length) {
+
+        BinaryFrame.Reader frame = mBinary;
+        if (!frame.read(buffer, offset, length) || frame.getThingIndex() >= mThingIds.length) {
+            mHandler.onInvalid(buffer, offset, length);
+            return;
+        }
+        mHandler.onData(mThingIds[frame.getThingIndex()], frame.getValues(), frame.getCount(), frame.getIntervalMillis());
+    }
+
+    /**
+     * @return position after the object, -1 if invalid.
+     */
+    private int parseObject(int pos) {
+
+        if (pos >= mEnd || mLine[pos] != '{') {
+            return -1;
+        }
+        pos = skipWhitespace(pos + 1);
+        if (pos < mEnd && mLine[pos] == '}') {
+            return pos + 1;
+        }
+
+        while (true) {
+            pos = parseString(pos);
+            if (pos < 0) {
+                return -1;
+            }
+            int keyStart = mStringStart;
+            int keyEnd = mStringEnd;
+
+            pos = skipWhitespace(pos);
+            if (pos >= mEnd || mLine[pos] != ':') {
+                return -1;
+            }
+            pos = skipWhitespace(pos + 1);
+
+            if (keyEquals(keyStart, keyEnd, KEY_MESSAGE_TYPE)) {
+                pos = parseString(pos);
+                if (pos >= 0) {
+                    mMessageType = symbol();
+                }
+            } else if (keyEquals(keyStart, keyEnd, KEY_THING_ID)) {
+                pos = parseString(pos);
+                if (pos >= 0) {
+                    mThingId = symbol();
+                }
+            } else if (keyEquals(keyStart, keyEnd, KEY_DATA)) {
+                pos = parseData(pos);
+            } else if (keyEquals(keyStart, keyEnd, KEY_FREQUENCY)) {
+                int next = parseNumber(pos);
+                if (next >= 0) {
+                    mFrequency = (long) mNumber;
+                    pos = next;
+                } else {
+                    pos = skipValue(pos);
+                }
+            } else if (keyEquals(keyStart, keyEnd, KEY_MESSAGE)) {
+                pos = parseMessage(pos);
+            } else {
+                pos = skipValue(pos);
+            }
+
+            if (pos < 0) {
+                return -1;
+            }
+            pos = skipWhitespace(pos);
+            if (pos >= mEnd) {
+                return -1;
+            }
+            if (mLine[pos] == '}') {
+                return pos + 1;
+            }
+            if (mLine[pos] != ',') {
+                return -1;
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+    }
+
+    /**
+     * Data array, numbers go to mValues. Any other entry marks the line as text data.
+     */
+    private int parseData(int pos) {
+
+        if (pos >= mEnd || mLine[pos] != '[') {
+            mTextData = true;
+            return skipValue(pos);
+        }
+        pos = skipWhitespace(pos + 1);
+        if (pos < mEnd && mLine[pos] == ']') {
+            return pos + 1;
+        }
+
+        while (true) {
+            int next = parseNumber(pos);
+            if (next < 0) {
+                mTextData = true;
+                next = skipValue(pos);
+                if (next < 0) {
+                    return -1;
+                }
+            } else {
+                if (mCount == mValues.length) {
+                    double[] grown = new double[mCount * 2];
+                    System.arraycopy(mValues, 0, grown, 0, mCount);
+                    mValues = grown;
+                }
+                mValues[mCount++] = mNumber;
+            }
+
+            pos = skipWhitespace(next);
+            if (pos >= mEnd) {
+                return -1;
+            }
+            if (mLine[pos] == ']') {
+                return pos + 1;
+            }
+            if (mLine[pos] != ',') {
+                return -1;
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+    }
+
+    /**
+     * Action payload, a string or any JSON value kept as its text.
+     */
+    private int parseMessage(int pos) {
+
+        if (pos < mEnd && mLine[pos] == '"') {
+            pos = parseString(pos);
+            if (pos >= 0) {
+                mMessage = string();
+            }
+            return pos;
+        }
+
+        int end = skipValue(pos);
+        if (end >= 0) {
+            mMessage = new String(mLine, pos, end - pos, UTF_8);
+        }
+        return end;
+    }
+
+    /**
+     * Number, bare or quoted like the node sends it, into mNumber.
+     *
+     * @return position after the value, -1 if it is not a number.
+     */
+    private int parseNumber(int pos) {
+
+        int start;
+        int end;
+        int next;
+
+        if (pos < mEnd && mLine[pos] == '"') {
+            next = parseString(pos);
+            if (next < 0 || mStringEscaped) {
+                return -1;
+            }
+            start = mStringStart;
+            end = mStringEnd;
+        } else {
+            start = pos;
+            end = pos;
+            while (end < mEnd && isNumberChar(mLine[end])) {
+                end++;
+            }
+            next = end;
+        }
+
+        return parseDouble(start, end) ? next : -1;
+    }
+
+    /**
+     * Decimal number without allocation. Exact for up to 15 significant digits and small
+     * exponents, which covers sensor readings. Longer numbers may be off by one ulp.
+     */
+    private boolean parseDouble(int start, int end) {
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (mLine[i] == '-' || mLine[i] == '+')) {
+            negative = mLine[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int scale = 0;
+        boolean digits = false;
+
+        while (i < end && mLine[i] >= '0' && mLine[i] <= '9') {
+            if (mantissa < MANTISSA_LIMIT) {
+                mantissa = mantissa * 10 + (mLine[i] - '0');
+            } else {
+                scale++;
+            }
+            digits = true;
+            i++;
+        }
+
+        if (i < end && mLine[i] == '.') {
+            i++;
+            while (i < end && mLine[i] >= '0' && mLine[i] <= '9') {
+                if (mantissa < MANTISSA_LIMIT) {
+                    mantissa = mantissa * 10 + (mLine[i] - '0');
+                    scale--;
+                }
+                digits = true;
+                i++;
+            }
+        }
+
+        if (!digits) {
+            return false;
+        }
+
+        if (i < end && (mLine[i] == 'e' || mLine[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (mLine[i] == '-' || mLine[i] == '+')) {
+                negativeExponent = mLine[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            boolean exponentDigits = false;
+            while (i < end && mLine[i] >= '0' && mLine[i] <= '9') {
+                if (exponent < 10000) {
+                    exponent = exponent * 10 + (mLine[i] - '0');
+                }
+                exponentDigits = true;
+                i++;
+            }
+            if (!exponentDigits) {
+                return false;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+
+        if (i != end) {
+            return false;
+        }
+
+        double value = mantissa;
+        if (scale < 0) {
+            value = -scale < POW10.length ? value / POW10[-scale] : value / Math.pow(10, -scale);
+        } else if (scale > 0) {
+            value = scale < POW10.length ? value * POW10[scale] : value * Math.pow(10, scale);
+        }
+        mNumber = negative ? -value : value;
+        return true;
+    }
+
+    /**
+     * String span into mStringStart / mStringEnd, without the quotes.
+     */
+    private int parseString(int pos) {
+
+        if (pos >= mEnd || mLine[pos] != '"') {
+            return -1;
+        }
+        mStringStart = ++pos;
+        mStringEscaped = false;
+
+        while (pos < mEnd) {
+            byte b = mLine[pos];
+            if (b == '"') {
+                mStringEnd = pos;
+                return pos + 1;
+            }
+            if (b == '\\') {
+                mStringEscaped = true;
+                pos++;
+                if (pos < mEnd && mLine[pos] == 'u') {
+                    // string() decodes unicode escapes, reject the line here if the 4 digits are not hex.
+                    if (pos + 4 >= mEnd || !isHex(mLine[pos + 1]) || !isHex(mLine[pos + 2])
+                            || !isHex(mLine[pos + 3]) || !isHex(mLine[pos + 4])) {
+                        return -1;
+                    }
+                    pos += 4;
+                }
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    private static boolean isHex(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+    }
+
+    private String symbol() {
+        if (mStringEscaped) {
+            return mSymbols.intern(string());
+        }
+        return mSymbols.intern(mLine, mStringStart, mStringEnd - mStringStart);
+    }
+
+    private String string() {
+
+        String raw = new String(mLine, mStringStart, mStringEnd - mStringStart, UTF_8);
+        if (!mStringEscaped) {
+            return raw;
+        }
+
+        StringBuilder builder = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 == raw.length()) {
+                builder.append(c);
+                continue;
+            }
+            char escaped = raw.charAt(++i);
+            switch (escaped) {
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 < raw.length()) {
+                        builder.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    break;
+                default:
+                    builder.append(escaped);
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private int skipValue(int pos) {
+
+        if (pos >= mEnd) {
+            return -1;
+        }
+
+        switch (mLine[pos]) {
+            case '"':
+                return parseString(pos);
+            case '{':
+                return skipContainer(pos, '}', true);
+            case '[':
+                return skipContainer(pos, ']', false);
+            default:
+                int end = pos;
+                while (end < mEnd && isLiteralChar(mLine[end])) {
+                    end++;
+                }
+                return end > pos ? end : -1;
+        }
+    }
+
+    private int skipContainer(int pos, char close, boolean object) {
+
+        pos = skipWhitespace(pos + 1);
+        if (pos < mEnd && mLine[pos] == close) {
+            return pos + 1;
+        }
+
+        while (true) {
+            if (object) {
+                pos = parseString(pos);
+                if (pos < 0) {
+                    return -1;
+                }
+                pos = skipWhitespace(pos);
+                if (pos >= mEnd || mLine[pos] != ':') {
+                    return -1;
+                }
+                pos = skipWhitespace(pos + 1);
+            }
+
+            pos = skipValue(pos);
+            if (pos < 0) {
+                return -1;
+            }
+            pos = skipWhitespace(pos);
+            if (pos >= mEnd) {
+                return -1;
+            }
+            if (mLine[pos] == close) {
+                return pos + 1;
+            }
+            if (mLine[pos] != ',') {
+                return -1;
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+    }
+
+    private int skipWhitespace(int pos) {
+        while (pos < mEnd && (mLine[pos] == ' ' || mLine[pos] == '\t' || mLine[pos] == '\r' || mLine[pos] == '\n')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private boolean keyEquals(int start, int end, byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (mLine[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumberChar(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private static boolean isLiteralChar(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || b == '-' || b == '+' || b == '.' || b == 'E';
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(Charset.forName("US-ASCII"));
+    }
+}
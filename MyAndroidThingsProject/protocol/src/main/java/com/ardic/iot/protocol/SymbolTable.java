@@ -0,0 +1,87 @@
+package com.ardic.iot.protocol;
+
+import java.nio.charset.Charset;
+
+/**
+ * Interns UTF-8 byte ranges as Strings without allocating on a hit. Message types and
+ * thing ids repeat on every line, so after warm up a lookup only hashes and compares bytes.
+ * When the table is full new symbols are still returned, just not remembered.
+ * Not thread safe.
+ */
+public class SymbolTable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String[] mSymbols;
+    private final byte[][] mBytes;
+    private final int[] mHashes;
+    private final int mMask;
+    private final int mMaxSize;
+    private int mSize;
+
+    /**
+     * @param capacity maximum number of symbols kept.
+     */
+    public SymbolTable(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+        mSymbols = new String[slots];
+        mBytes = new byte[slots][];
+        mHashes = new int[slots];
+        mMask = slots - 1;
+        mMaxSize = capacity;
+    }
+
+    public String intern(String symbol) {
+        byte[] bytes = symbol.getBytes(UTF_8);
+        return intern(bytes, 0, bytes.length);
+    }
+
+    public String intern(byte[] buffer, int offset, int length) {
+
+        int hash = hash(buffer, offset, length);
+        int slot = hash & mMask;
+
+        while (mSymbols[slot] != null) {
+            if (mHashes[slot] == hash && equals(mBytes[slot], buffer, offset, length)) {
+                return mSymbols[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+
+        String symbol = new String(buffer, offset, length, UTF_8);
+
+        if (mSize < mMaxSize) {
+            byte[] bytes = new byte[length];
+            System.arraycopy(buffer, offset, bytes, 0, length);
+            mSymbols[slot] = symbol;
+            mBytes[slot] = bytes;
+            mHashes[slot] = hash;
+            mSize++;
+        }
+        return symbol;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    private static int hash(byte[] buffer, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ buffer[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] symbol, byte[] buffer, int offset, int length) {
+        if (symbol.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (symbol[i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+package com.ardic.iot.protocol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryFrameTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final BinaryFrame.Writer writer = new BinaryFrame.Writer();
+    private final BinaryFrame.Reader reader = new BinaryFrame.Reader();
+
+    private boolean read(byte[] frame) {
+        return reader.read(frame, 0, frame.length - 1);
+    }
+
+    @Test
+    public void singleReadingIsEightBytes() {
+        byte[] frame = writer.floats(1, new float[]{23.4f}, 1, 0);
+
+        assertEquals(8, frame.length);
+        assertTrue(read(frame));
+        assertEquals(1, reader.getThingIndex());
+        assertEquals(1, reader.getCount());
+        assertEquals(23.4f, (float) reader.getValues()[0], 0);
+    }
+
+    @Test
+    public void lineEndsAndNulBytesAreEscaped() {
+        // 0x0A0D0000 as little endian float bits, index 10 is '\n'.
+        float value = Float.intBitsToFloat(0x00000D0A);
+        byte[] frame = writer.floats(10, new float[]{value, 0f}, 2, 1000);
+
+        for (int i = 0; i < frame.length - 1; i++) {
+            assertTrue(frame[i] != '\n' && frame[i] != '\r' && frame[i] != 0);
+        }
+        assertTrue(read(frame));
+        assertEquals(10, reader.getThingIndex());
+        assertEquals(2, reader.getCount());
+        assertEquals(1000, reader.getIntervalMillis());
+        assertEquals(value, (float) reader.getValues()[0], 0);
+        assertEquals(0, reader.getValues()[1], 0);
+    }
+
+    @Test
+    public void intsAndBooleans() {
+        assertTrue(read(writer.ints(300, new long[]{-1, 0, 123456789012L}, 3, 50)));
+        assertEquals(300, reader.getThingIndex());
+        assertEquals(-1, reader.getValues()[0], 0);
+        assertEquals(123456789012.0, reader.getValues()[2], 0);
+
+        assertTrue(read(writer.bool(0, true)));
+        assertEquals(1, reader.getValues()[0], 0);
+    }
+
+    @Test
+    public void rejectsTruncatedFrames() {
+        byte[] frame = writer.floats(1, new float[]{1f, 2f}, 2, 10);
+        assertFalse(reader.read(frame, 0, frame.length - 3));
+        assertFalse(reader.read(new byte[]{(byte) BinaryFrame.MAGIC}, 0, 1));
+    }
+
+    @Test
+    public void sharesTheStreamWithJsonLines() throws Exception {
+
+        final List<String> events = new ArrayList<>();
+        StreamingNodeDecoder decoder = new StreamingNodeDecoder(new StreamingNodeDecoder.Handler() {
+            @Override
+            public void onData(String thingId, double[] values, int count, long intervalMillis) {
+                events.add(thingId + " " + values[0] + " x" + count);
+            }
+
+            @Override
+            public void onConfiguration(String thingId, long dataReadingFrequency) {
+            }
+
+            @Override
+            public void onAction(String thingId, String message) {
+            }
+
+            @Override
+            public void onOther(String messageType, byte[] line, int offset, int length) {
+                events.add(messageType);
+            }
+
+            @Override
+            public void onInvalid(byte[] line, int offset, int length) {
+                events.add("invalid");
+            }
+        });
+        decoder.setThingIds(Arrays.asList("DHT11 Temperature Sensor", "DHT11 Humidity Sensor"));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write("{\"messageType\":\"wire-format\",\"format\":\"binary\"}\n".getBytes(UTF_8));
+        stream.write(writer.floats(0, new float[]{24f}, 1, 0));
+        stream.write(writer.floats(1, new float[]{40f, 41f}, 2, 500));
+        stream.write("{\"messageType\":\"data\",\"thingId\":\"DHT11 Humidity Sensor\",\"data\":[\"42\"]}\n".getBytes(UTF_8));
+        stream.write(writer.floats(2, new float[]{1f}, 1, 0));
+
+        new LineFramer().feed(ByteBuffer.wrap(stream.toByteArray()), decoder);
+
+        assertEquals(Arrays.asList("wire-format",
+                "DHT11 Temperature Sensor 24.0 x1",
+                "DHT11 Humidity Sensor 40.0 x2",
+                "DHT11 Humidity Sensor 42.0 x1",
+                "invalid"), events);
+    }
+}
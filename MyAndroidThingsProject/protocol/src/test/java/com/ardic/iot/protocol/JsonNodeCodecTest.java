@@ -0,0 +1,76 @@
+package com.ardic.iot.protocol;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JsonNodeCodecTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final JsonNodeCodec codec = new JsonNodeCodec();
+
+    private NodeMessage decode(String line) throws ProtocolException {
+        byte[] bytes = line.getBytes(UTF_8);
+        return codec.decode(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void decodesNodeDataLine() throws Exception {
+        // Same output as ArduinoJson on the node.
+        NodeMessage message = decode("{\"data\":[\"24.00\"],\"messageType\":\"data\",\"thingId\":\"DHT11 Temperature Sensor\"}");
+
+        assertEquals(NodeMessage.DATA, message.getMessageType());
+        assertEquals("DHT11 Temperature Sensor", message.getThingId());
+        assertEquals(Arrays.asList("24.00"), message.getData());
+    }
+
+    @Test
+    public void encodedMessageIsOneLine() throws Exception {
+        byte[] encoded = codec.encode(NodeMessage.data("Humidity", "45.10", "45.20"));
+
+        assertEquals('\n', encoded[encoded.length - 1]);
+        NodeMessage message = codec.decode(encoded, 0, encoded.length - 1);
+        assertEquals(Arrays.asList("45.10", "45.20"), message.getData());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsMessageWithoutType() throws Exception {
+        decode("{\"thingId\":\"x\"}");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsInvalidJson() throws Exception {
+        decode("{\"messageType\":");
+    }
+
+    @Test
+    public void framerJoinsPartialLinesAndSkipsLongOnes() throws Exception {
+        LineFramer framer = new LineFramer(8);
+        final List<String> lines = new ArrayList<>();
+        LineFramer.LineHandler handler = new LineFramer.LineHandler() {
+            @Override
+            public void onLine(byte[] buffer, int offset, int length) {
+                lines.add(new String(buffer, offset, length, UTF_8));
+            }
+        };
+
+        framer.feed(ByteBuffer.wrap("ab".getBytes(UTF_8)), handler);
+        framer.feed(ByteBuffer.wrap("c\r\n\nde\n".getBytes(UTF_8)), handler);
+        assertEquals(Arrays.asList("abc", "de"), lines);
+
+        try {
+            framer.feed(ByteBuffer.wrap("0123456789\nok\n".getBytes(UTF_8)), handler);
+            fail();
+        } catch (ProtocolException e) {
+            assertEquals(Arrays.asList("abc", "de", "ok"), lines);
+        }
+    }
+}
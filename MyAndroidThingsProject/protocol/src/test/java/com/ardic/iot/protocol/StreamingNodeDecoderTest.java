@@ -0,0 +1,159 @@
+package com.ardic.iot.protocol;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamingNodeDecoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Recorder implements StreamingNodeDecoder.Handler {
+
+        final List<String> events = new ArrayList<>();
+        String lastThingId;
+
+        @Override
+        public void onData(String thingId, double[] values, int count, long intervalMillis) {
+            lastThingId = thingId;
+            StringBuilder builder = new StringBuilder("data ").append(thingId);
+            for (int i = 0; i < count; i++) {
+                builder.append(' ').append(values[i]);
+            }
+            events.add(builder.toString());
+        }
+
+        @Override
+        public void onConfiguration(String thingId, long dataReadingFrequency) {
+            events.add("configuration " + thingId + " " + dataReadingFrequency);
+        }
+
+        @Override
+        public void onAction(String thingId, String message) {
+            events.add("action " + thingId + " " + message);
+        }
+
+        @Override
+        public void onOther(String messageType, byte[] line, int offset, int length) {
+            events.add("other " + messageType);
+        }
+
+        @Override
+        public void onInvalid(byte[] line, int offset, int length) {
+            events.add("invalid");
+        }
+    }
+
+    private static void decode(StreamingNodeDecoder decoder, String lines) throws Exception {
+        new LineFramer().feed(ByteBuffer.wrap(lines.getBytes(UTF_8)), decoder);
+    }
+
+    @Test
+    public void decodesNodeLinesInAnyFieldOrder() throws Exception {
+        Recorder recorder = new Recorder();
+        StreamingNodeDecoder decoder = new StreamingNodeDecoder(recorder);
+
+        decode(decoder, "{\"data\":[\"24.50\"],\"messageType\":\"data\",\"thingId\":\"DHT11 Temperature Sensor\"}\n"
+                + "{ \"messageType\" : \"data\", \"thingId\" : \"Batch\", \"extra\" : {\"a\":[1,{\"b\":null}]}, \"data\" : [1, -2.5e1, \"3\"] }\n"
+                + "{\"messageType\":\"configuration\",\"thingId\":\"Batch\",\"dataReadingFrequency\":15000}\n"
+                + "{\"messageType\":\"action\",\"thingId\":\"Led\",\"message\":{\"status\":true}}\n"
+                + "{\"messageType\":\"action\",\"thingId\":\"Led\",\"message\":\"on\\n\"}\n");
+
+        assertEquals("data DHT11 Temperature Sensor 24.5", recorder.events.get(0));
+        assertEquals("data Batch 1.0 -25.0 3.0", recorder.events.get(1));
+        assertEquals("configuration Batch 15000", recorder.events.get(2));
+        assertEquals("action Led {\"status\":true}", recorder.events.get(3));
+        assertEquals("action Led on\n", recorder.events.get(4));
+    }
+
+    @Test
+    public void handsOverLinesWithoutFastPath() throws Exception {
+        Recorder recorder = new Recorder();
+        StreamingNodeDecoder decoder = new StreamingNodeDecoder(recorder);
+
+        decode(decoder, "{\"messageType\":\"inventory\",\"nodeId\":\"EE:00\",\"things\":[{\"id\":\"x\"}]}\n"
+                + "{\"messageType\":\"data\",\"thingId\":\"Door\",\"data\":[\"open\"]}\n"
+                + "{\"messageType\":\"reset\"}\n"
+                + "{\"messageType\":\"data\",\"thingId\":\"Door\",\"data\":[\"open\"\n"
+                + "{\"thingId\":\"Door\"}\n"
+                + "{\"messageType\":\"data\"} trailing\n");
+
+        assertEquals("other inventory", recorder.events.get(0));
+        assertEquals("other data", recorder.events.get(1));
+        assertEquals("other reset", recorder.events.get(2));
+        assertEquals("invalid", recorder.events.get(3));
+        assertEquals("invalid", recorder.events.get(4));
+        assertEquals("invalid", recorder.events.get(5));
+    }
+
+    @Test
+    public void malformedUnicodeEscapesAreInvalid() throws Exception {
+        Recorder recorder = new Recorder();
+        StreamingNodeDecoder decoder = new StreamingNodeDecoder(recorder);
+
+        decode(decoder, "{\"messageType\":\"data\",\"thingId\":\"\\uZZZZ\",\"data\":[1]}\n"
+                + "{\"messageType\":\"action\",\"thingId\":\"Led\",\"message\":\"\\u12\"}\n"
+                + "{\"messageType\":\"action\",\"thingId\":\"Led\",\"message\":\"\\u00e7\"}\n");
+
+        assertEquals(3, recorder.events.size());
+        assertEquals("invalid", recorder.events.get(0));
+        assertEquals("invalid", recorder.events.get(1));
+        assertEquals("action Led \u00e7", recorder.events.get(2));
+    }
+
+    @Test
+    public void internsThingIdsAndMessageTypes() throws Exception {
+        Recorder recorder = new Recorder();
+        StreamingNodeDecoder decoder = new StreamingNodeDecoder(recorder);
+
+        decode(decoder, "{\"messageType\":\"data\",\"thingId\":\"Humidity\",\"data\":[\"40\"]}\n");
+        String first = recorder.lastThingId;
+        decode(decoder, "{\"messageType\":\"data\",\"thingId\":\"Humidity\",\"data\":[\"41\"]}\n");
+
+        assertSame(first, recorder.lastThingId);
+    }
+
+    @Test
+    public void dataLinesDoNotAllocateAfterWarmUp() throws Exception {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        final double[] sum = new double[1];
+        StreamingNodeDecoder decoder = new StreamingNodeDecoder(new Recorder() {
+            @Override
+            public void onData(String thingId, double[] values, int count, long intervalMillis) {
+                sum[0] += values[0];
+            }
+        });
+        LineFramer framer = new LineFramer();
+        ByteBuffer lines = ByteBuffer.wrap(("{\"data\":[\"23.00\"],\"messageType\":\"data\",\"thingId\":\"DHT11 Temperature Sensor\"}\n"
+                + "{\"data\":[\"45.20\"],\"messageType\":\"data\",\"thingId\":\"DHT11 Humidity Sensor\"}\n").getBytes(UTF_8));
+
+        for (int i = 0; i < 20000; i++) {
+            lines.rewind();
+            framer.feed(lines, decoder);
+        }
+
+        long tid = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < 10000; i++) {
+            lines.rewind();
+            framer.feed(lines, decoder);
+        }
+        long allocated = threads.getThreadAllocatedBytes(tid) - before;
+
+        assertEquals(30000 * (23.0 + 45.2), sum[0], 1e-3);
+        // Measurement itself allocates a little, 20000 lines through Gson would be megabytes.
+        assertTrue("allocated " + allocated, allocated < 4096);
+    }
+}
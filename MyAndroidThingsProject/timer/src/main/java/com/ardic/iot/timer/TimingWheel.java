@@ -0,0 +1,295 @@
+package com.ardic.iot.timer;
+
+import java.util.Collection;
+
+/**
+ * Hashed hierarchical timing wheel for large numbers of per-thing timers.
+ *
+ * Level 0 has one bucket per tick, each further level covers a whole turn of the level below
+ * per bucket. Timers are kept in intrusive doubly linked bucket lists, so schedule and cancel
+ * are O(1) whatever the number of pending timers; a timer moves down one level when the level
+ * below wraps (cascade), at most once per level. Timers beyond the top level are parked in it
+ * and placed again when it turns.
+ *
+ * Deadlines are absolute milliseconds on the owner's clock and the wheel is advanced to the
+ * current time, so a late wakeup processes every missed tick in one batch and periodic timers
+ * rescheduled from their own deadline do not drift. A timer expires on the first tick at or
+ * after its deadline, never before. Not thread safe, the owner serializes all calls.
+ *
+ * @param <T> task attached to a timer, handed back when it expires.
+ */
+public class TimingWheel<T> {
+
+    public static final long DEFAULT_TICK_MILLIS = 10L;
+    public static final int DEFAULT_WHEEL_BITS = 6;
+    public static final int DEFAULT_LEVELS = 4;
+
+    /**
+     * Handle of a scheduled timer.
+     */
+    public static final class Timeout<T> {
+
+        private final T mTask;
+        private final long mDeadlineMillis;
+        private final long mDeadlineTick;
+        private Timeout<T> mPrev;
+        private Timeout<T> mNext;
+        private Bucket<T> mBucket;
+
+        private Timeout(T task, long deadlineMillis, long deadlineTick) {
+            this.mTask = task;
+            this.mDeadlineMillis = deadlineMillis;
+            this.mDeadlineTick = deadlineTick;
+        }
+
+        public T getTask() {
+            return mTask;
+        }
+
+        public long getDeadlineMillis() {
+            return mDeadlineMillis;
+        }
+
+        /**
+         * @return true until the timer expires or is cancelled.
+         */
+        public boolean isPending() {
+            return mBucket != null;
+        }
+    }
+
+    private static final class Bucket<T> {
+
+        private Timeout<T> mHead;
+        private Timeout<T> mTail;
+
+        private void add(Timeout<T> timeout) {
+            timeout.mBucket = this;
+            timeout.mPrev = mTail;
+            timeout.mNext = null;
+            if (mTail == null) {
+                mHead = timeout;
+            } else {
+                mTail.mNext = timeout;
+            }
+            mTail = timeout;
+        }
+
+        private void remove(Timeout<T> timeout) {
+            if (timeout.mPrev == null) {
+                mHead = timeout.mNext;
+            } else {
+                timeout.mPrev.mNext = timeout.mNext;
+            }
+            if (timeout.mNext == null) {
+                mTail = timeout.mPrev;
+            } else {
+                timeout.mNext.mPrev = timeout.mPrev;
+            }
+            timeout.mPrev = null;
+            timeout.mNext = null;
+            timeout.mBucket = null;
+        }
+
+        /**
+         * Empty the bucket and return its former list, still linked through mNext.
+         */
+        private Timeout<T> takeAll() {
+            Timeout<T> head = mHead;
+            mHead = null;
+            mTail = null;
+            return head;
+        }
+    }
+
+    private final long mTickMillis;
+    private final int mBits;
+    private final int mMask;
+    private final long mStartMillis;
+    private final Bucket<T>[][] mLevels;
+
+    private long mCurrentTick;
+    private int mSize;
+
+    /**
+     * Wheel of 64 buckets per level, 10ms ticks and 4 levels (about 46 hours before parking).
+     */
+    public TimingWheel(long startMillis) {
+        this(startMillis, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_BITS, DEFAULT_LEVELS);
+    }
+
+    /**
+     * @param startMillis current time of the owner's clock.
+     * @param tickMillis  resolution, timers expire on tick boundaries.
+     * @param wheelBits   log2 of the buckets per level.
+     * @param levels      number of levels, they cover tickMillis * 2^(wheelBits * levels).
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long startMillis, long tickMillis, int wheelBits, int levels) {
+
+        if (tickMillis <= 0 || wheelBits < 1 || levels < 1 || wheelBits * levels > 62) {
+            throw new IllegalArgumentException("Invalid wheel : " + tickMillis + "ms, "
+                    + wheelBits + " bits, " + levels + " levels");
+        }
+
+        this.mTickMillis = tickMillis;
+        this.mBits = wheelBits;
+        this.mMask = (1 << wheelBits) - 1;
+        this.mStartMillis = startMillis;
+        this.mLevels = (Bucket<T>[][]) new Bucket<?>[levels][1 << wheelBits];
+        for (Bucket<T>[] level : mLevels) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Bucket<>();
+            }
+        }
+    }
+
+    /**
+     * Schedule the task at an absolute deadline. Deadlines which already passed expire on the
+     * next tick.
+     */
+    public Timeout<T> schedule(T task, long deadlineMillis) {
+
+        long deadlineTick = Math.max(mCurrentTick + 1, ceilDiv(deadlineMillis - mStartMillis, mTickMillis));
+        Timeout<T> timeout = new Timeout<>(task, deadlineMillis, deadlineTick);
+        place(timeout);
+        mSize++;
+        return timeout;
+    }
+
+    /**
+     * @return false if the timer already expired or was cancelled.
+     */
+    public boolean cancel(Timeout<T> timeout) {
+
+        if (timeout == null || timeout.mBucket == null) {
+            return false;
+        }
+        timeout.mBucket.remove(timeout);
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Process every tick up to nowMillis and add the tasks of the expired timers to expired,
+     * in deadline tick order.
+     *
+     * @return number of expired timers.
+     */
+    public int advance(long nowMillis, Collection<? super T> expired) {
+
+        long targetTick = floorDiv(nowMillis - mStartMillis, mTickMillis);
+        int count = 0;
+
+        while (mCurrentTick < targetTick) {
+
+            // Ticks before the next busy bucket or cascade have nothing to do, jump over them.
+            long tick = mSize == 0 ? targetTick : nextTick();
+            if (tick > targetTick) {
+                mCurrentTick = targetTick;
+                break;
+            }
+
+            mCurrentTick = tick;
+            cascade();
+
+            Timeout<T> timeout = mLevels[0][(int) (mCurrentTick & mMask)].takeAll();
+            while (timeout != null) {
+                Timeout<T> next = timeout.mNext;
+                timeout.mPrev = null;
+                timeout.mNext = null;
+                timeout.mBucket = null;
+                if (timeout.mDeadlineTick > mCurrentTick) {
+                    // Parked beyond the top level.
+                    place(timeout);
+                } else {
+                    mSize--;
+                    count++;
+                    expired.add(timeout.mTask);
+                }
+                timeout = next;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Time to advance the wheel next : the first tick with an expiring level 0 bucket, or the
+     * next cascade. Scans at most one level, so an idle owner can sleep until then instead of
+     * waking on every tick.
+     *
+     * @return -1 if no timer is pending.
+     */
+    public long nextWakeupMillis() {
+        return mSize == 0 ? -1 : mStartMillis + nextTick() * mTickMillis;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getTickMillis() {
+        return mTickMillis;
+    }
+
+    /**
+     * First tick after the current one with a level 0 bucket to expire or a cascade to run.
+     */
+    private long nextTick() {
+
+        Bucket<T>[] level0 = mLevels[0];
+        long tick = mCurrentTick + 1;
+        while ((tick & mMask) != 0 && level0[(int) (tick & mMask)].mHead == null) {
+            tick++;
+        }
+        return tick;
+    }
+
+    /**
+     * Move the timers of the next higher level buckets down when a level wraps.
+     */
+    private void cascade() {
+
+        for (int level = 1; level < mLevels.length; level++) {
+
+            long shifted = mCurrentTick >> (mBits * (level - 1));
+            if ((shifted & mMask) != 0) {
+                return;
+            }
+
+            Timeout<T> timeout = mLevels[level][(int) ((shifted >> mBits) & mMask)].takeAll();
+            while (timeout != null) {
+                Timeout<T> next = timeout.mNext;
+                place(timeout);
+                timeout = next;
+            }
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+
+        long delta = timeout.mDeadlineTick - mCurrentTick;
+        int top = mLevels.length - 1;
+
+        for (int level = 0; level < top; level++) {
+            if (delta < 1L << (mBits * (level + 1))) {
+                mLevels[level][(int) ((timeout.mDeadlineTick >> (mBits * level)) & mMask)].add(timeout);
+                return;
+            }
+        }
+
+        // Top level, or parked at its farthest bucket until it turns.
+        long tick = delta < 1L << (mBits * (top + 1))
+                ? timeout.mDeadlineTick : mCurrentTick + (1L << (mBits * (top + 1))) - 1;
+        mLevels[top][(int) ((tick >> (mBits * top)) & mMask)].add(timeout);
+    }
+
+    private static long floorDiv(long a, long b) {
+        long quotient = a / b;
+        return a % b < 0 ? quotient - 1 : quotient;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return -floorDiv(-a, b);
+    }
+}
@@ -0,0 +1,117 @@
+package com.ardic.iot.timer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+    @Test
+    public void expiresOnFirstTickAtOrAfterDeadline() {
+
+        TimingWheel<String> wheel = new TimingWheel<>(1000, 10, 2, 3);
+        List<String> expired = new ArrayList<>();
+
+        wheel.schedule("a", 1025);
+        wheel.schedule("b", 1030);
+        wheel.schedule("late", 900);
+
+        assertEquals(0, wheel.advance(1009, expired));
+        assertEquals(1, wheel.advance(1010, expired));
+        assertEquals(Arrays.asList("late"), expired);
+
+        assertEquals(0, wheel.advance(1029, expired));
+        assertEquals(2, wheel.advance(1030, expired));
+        assertEquals(Arrays.asList("late", "a", "b"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cascadesAndParksBeyondTopLevel() {
+
+        // 4 buckets per level, 2 levels : 16 ticks before parking.
+        TimingWheel<Long> wheel = new TimingWheel<>(0, 1, 2, 2);
+        long[] deadlines = {3, 4, 15, 16, 17, 63, 64, 1000};
+        for (long deadline : deadlines) {
+            wheel.schedule(deadline, deadline);
+        }
+
+        List<Long> expired = new ArrayList<>();
+        for (long now = 0; now <= 1000; now++) {
+            int before = expired.size();
+            wheel.advance(now, expired);
+            for (int i = before; i < expired.size(); i++) {
+                assertEquals(now, (long) expired.get(i));
+            }
+        }
+        assertEquals(deadlines.length, expired.size());
+    }
+
+    @Test
+    public void cancelUnlinksInConstantTime() {
+
+        TimingWheel<String> wheel = new TimingWheel<>(0);
+        TimingWheel.Timeout<String> a = wheel.schedule("a", 100);
+        TimingWheel.Timeout<String> b = wheel.schedule("b", 100);
+        TimingWheel.Timeout<String> c = wheel.schedule("c", 100);
+
+        assertTrue(wheel.cancel(b));
+        assertFalse(wheel.cancel(b));
+        assertFalse(b.isPending());
+        assertEquals(2, wheel.size());
+
+        List<String> expired = new ArrayList<>();
+        wheel.advance(100, expired);
+        assertEquals(Arrays.asList("a", "c"), expired);
+        assertFalse(a.isPending());
+        assertFalse(wheel.cancel(c));
+    }
+
+    @Test
+    public void lateAdvanceProcessesMissedTicksInOrder() {
+
+        TimingWheel<Integer> wheel = new TimingWheel<>(0, 10, 3, 3);
+        Random random = new Random(42);
+        List<Integer> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int deadline = random.nextInt(100000);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+
+        List<Integer> expired = new ArrayList<>();
+        for (long now = 0; now <= 100000; now += 1 + random.nextInt(5000)) {
+            int before = expired.size();
+            wheel.advance(now, expired);
+            for (int i = before; i < expired.size(); i++) {
+                assertTrue(expired.get(i) <= now);
+                // Same or later expiry tick, the first one at or after the deadline.
+                assertTrue(i == 0 || (expired.get(i) + 9) / 10 >= (expired.get(i - 1) + 9) / 10);
+            }
+        }
+        wheel.advance(100000, expired);
+
+        assertEquals(deadlines.size(), expired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void wakeupSkipsEmptyTicks() {
+
+        TimingWheel<String> wheel = new TimingWheel<>(0, 10, 6, 2);
+        assertEquals(-1, wheel.nextWakeupMillis());
+
+        wheel.schedule("a", 95);
+        assertEquals(100, wheel.nextWakeupMillis());
+
+        wheel.advance(100, new ArrayList<String>());
+        // Beyond level 0 : wake up at the next cascade.
+        wheel.schedule("b", 5000);
+        assertEquals(640, wheel.nextWakeupMillis());
+    }
+}
@@ -50,12 +50,29 @@
 #define RESET_REQUEST "reset"
 #define DATA_RESPONSE "data"
 #define STATUS_REQUEST "inventory-status"
+#define WIRE_FORMAT_REQUEST "wire-format"
+
+//Wire Formats
+#define WIRE_FORMAT_JSON "json"
+#define WIRE_FORMAT_BINARY "binary"
+
+//Binary Frame : 0xB1 | thing index | type | value (little endian) | '\n'
+#define BINARY_FRAME_MAGIC 0xB1
+#define BINARY_TYPE_FLOAT32 0x01
+#define BINARY_ESCAPE 0xDB
+#define BINARY_ESCAPE_XOR 0x20
+
+//Thing Index, order of addThingToInventory
+#define THING_INDEX_DHT11_TEMPERATURE 0
+#define THING_INDEX_DHT11_HUMIDITY 1
 
 
 DHT *IgniteEsp8266ThingHandler::dht = new DHT(PIN_DHT11_SENSOR, DHTTYPE);
 
 long IgniteEsp8266ThingHandler::resetStateTime;
 
+bool IgniteEsp8266ThingHandler::binaryWire = false;
+
 void IgniteEsp8266ThingHandler::setup() {
   initResetButton();
   dht->begin();
@@ -79,6 +96,9 @@ void IgniteEsp8266ThingHandler::thingActionReceived(String thingId, String actio
 }
 void IgniteEsp8266ThingHandler::inventorySetup() {
 
+  // New registration, the gateway offers the wire format again.
+  binaryWire = false;
+
   addThingToInventory(SENSOR_DHT11_TEMPERATURE,
                       TYPE_TEMPERATURE,
                       PIN_DATA_DHT11_SENSOR,
@@ -97,60 +117,113 @@ void IgniteEsp8266ThingHandler::inventorySetup() {
 }
 void IgniteEsp8266ThingHandler::unknownMessageReceived(String msg) {
 
+  StaticJsonBuffer<200> jsonBuffer;
+  JsonObject& root = jsonBuffer.parseObject(msg);
+
+  if (!root.success()) {
+    return;
+  }
+
+  const char* messageType = root["messageType"];
+  const char* format = root["format"];
+
+  if (messageType == NULL || format == NULL || strcmp(messageType, WIRE_FORMAT_REQUEST) != 0) {
+    return;
+  }
+
+  bool binary = strcmp(format, WIRE_FORMAT_BINARY) == 0;
+  if (!binary && strcmp(format, WIRE_FORMAT_JSON) != 0) {
+    return;
+  }
+
+  // Acknowledge in the current format, then switch.
+  String packet = "";
+  StaticJsonBuffer<100> ackBuffer;
+  JsonObject& ack = ackBuffer.createObject();
+  ack["messageType"] = WIRE_FORMAT_REQUEST;
+  ack["format"] = format;
+  ack.printTo(packet);
+  packet += "\n";
+  sendMessage(packet);
+
+  binaryWire = binary;
+  Serial.println("Wire Format :");
+  Serial.println(format);
 }
 
 
 void  IgniteEsp8266ThingHandler::readDHTTemperature() {
-  String packet = "";
-  String tempData = "";
   float t = dht->readTemperature();
   if (isnan(t)) {
     Serial.println("Failed to read from DHT sensor!");
     return;
   }
-  tempData = String(t);
-
-  StaticJsonBuffer<100> jsonBuffer;
-  JsonObject& root = jsonBuffer.createObject();
-  JsonArray& data = root.createNestedArray("data");
-
-  root["messageType"] = DATA_RESPONSE;
-  root["thingId"] = SENSOR_DHT11_TEMPERATURE;
-  data.add(tempData);
-
-  root.printTo(packet);
 
   Serial.println("Temperature :");
-  Serial.println(packet);
-  packet += "\n";
-  sendMessage(packet);
+  sendReading(SENSOR_DHT11_TEMPERATURE, THING_INDEX_DHT11_TEMPERATURE, t);
 }
 
 void  IgniteEsp8266ThingHandler::readDHTHumidity() {
-  String packet = "";
-  String humData = "";
   float h = dht->readHumidity();
   if (isnan(h)) {
     Serial.println("Failed to read from DHT sensor!");
     return;
   }
-  humData = String(h);
 
+  Serial.println("Humidity :");
+  sendReading(SENSOR_DHT11_HUMIDITY, THING_INDEX_DHT11_HUMIDITY, h);
+}
+
+void IgniteEsp8266ThingHandler::sendReading(const char *thingId, uint8_t thingIndex, float value) {
 
+  if (binaryWire) {
+    Serial.println(value);
+    sendMessage(binaryReading(thingIndex, value));
+    return;
+  }
+
+  String packet = "";
   StaticJsonBuffer<100> jsonBuffer;
   JsonObject& root = jsonBuffer.createObject();
   JsonArray& data = root.createNestedArray("data");
 
   root["messageType"] = DATA_RESPONSE;
-  root["thingId"] = SENSOR_DHT11_HUMIDITY;
-  data.add(humData);
+  root["thingId"] = thingId;
+  data.add(String(value));
 
   root.printTo(packet);
-  Serial.println("Humidity :");
   Serial.println(packet);
   packet += "\n";
   sendMessage(packet);
+}
 
+/*
+ * 8 bytes instead of ~80. Bytes which would end the line or the String
+ * (0x00, '\n', '\r') and the escape byte are sent as escape + (byte ^ 0x20).
+ */
+String IgniteEsp8266ThingHandler::binaryReading(uint8_t thingIndex, float value) {
+
+  uint8_t payload[6];
+  payload[0] = thingIndex;
+  payload[1] = BINARY_TYPE_FLOAT32;
+  // ESP8266 is little endian like the frame.
+  memcpy(payload + 2, &value, sizeof(float));
+
+  String packet = "";
+  packet.reserve(2 + 2 * sizeof(payload));
+  packet += (char) BINARY_FRAME_MAGIC;
+
+  for (unsigned int i = 0; i < sizeof(payload); i++) {
+    uint8_t b = payload[i];
+    if (b == 0x00 || b == '\n' || b == '\r' || b == BINARY_ESCAPE) {
+      packet += (char) BINARY_ESCAPE;
+      b ^= BINARY_ESCAPE_XOR;
+    }
+    packet += (char) b;
+  }
+
+  packet += "\n";
+  return packet;
 }
 
 
@@ -22,7 +22,10 @@ class IgniteEsp8266ThingHandler : public IgniteThingHandler {
 
   private :
     String getMacAddress();
+    static void sendReading(const char *thingId, uint8_t thingIndex, float value);
+    static String binaryReading(uint8_t thingIndex, float value);
     static DHT *dht;
+    static bool binaryWire;
     static long resetStateTime;
     void initResetButton();
     static void resetOn();